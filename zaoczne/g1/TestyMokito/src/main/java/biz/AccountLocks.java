@@ -0,0 +1,143 @@
+package biz;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks guarding the read-modify-write of account balances. An
+ * account maps to one of a fixed number of stripes, so payments on
+ * unrelated accounts rarely share a lock and run in parallel. Stripes of
+ * a multi-account operation are always taken in ascending stripe order,
+ * which rules out deadlocks between transfers going in opposite directions.
+ * <p>
+ * Per stripe the locks count acquisitions, acquisitions that had to wait
+ * for another thread, and the time spent waiting.
+ */
+public class AccountLocks {
+    public static final int DEFAULT_STRIPES = 256;
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final AtomicLongArray acquisitions;
+    private final AtomicLongArray contentions;
+    private final AtomicLongArray waitNanos;
+
+    /*
+    stripes is rounded up to a power of two.
+     */
+    public AccountLocks(int stripes) {
+        if (stripes < 1 || stripes > 1 << 16) {
+            throw new IllegalArgumentException("Stripe count must be between 1 and 65536");
+        }
+        int size = Integer.highestOneBit(stripes);
+        if (size < stripes) size <<= 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.acquisitions = new AtomicLongArray(size);
+        this.contentions = new AtomicLongArray(size);
+        this.waitNanos = new AtomicLongArray(size);
+    }
+
+    /*
+    Consecutive ids, the usual case for accounts, land on different stripes.
+     */
+    public int stripeOf(int accountId) {
+        int h = accountId * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    public Guard lock(int accountId) {
+        int stripe = stripeOf(accountId);
+        acquire(stripe);
+        return new Guard(new int[]{stripe});
+    }
+
+    /*
+    Locks every stripe the accounts map to, each once, in ascending order.
+     */
+    public Guard lock(int... accountIds) {
+        int[] order = new int[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            order[i] = stripeOf(accountIds[i]);
+        }
+        Arrays.sort(order);
+        int count = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i == 0 || order[i] != order[i - 1]) order[count++] = order[i];
+        }
+        int[] held = Arrays.copyOf(order, count);
+        int locked = 0;
+        try {
+            for (; locked < held.length; locked++) {
+                acquire(held[locked]);
+            }
+        } finally {
+            if (locked < held.length) {
+                for (int i = locked - 1; i >= 0; i--) stripes[held[i]].unlock();
+            }
+        }
+        return new Guard(held);
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    public long getAcquisitionCount(int stripe) {
+        return acquisitions.get(stripe);
+    }
+
+    /*
+    Acquisitions that found the stripe held by another thread.
+     */
+    public long getContentionCount(int stripe) {
+        return contentions.get(stripe);
+    }
+
+    public long getWaitNanos(int stripe) {
+        return waitNanos.get(stripe);
+    }
+
+    public long getTotalContentionCount() {
+        long total = 0;
+        for (int i = 0; i < stripes.length; i++) {
+            total += contentions.get(i);
+        }
+        return total;
+    }
+
+    private void acquire(int stripe) {
+        ReentrantLock lock = stripes[stripe];
+        acquisitions.incrementAndGet(stripe);
+        if (lock.tryLock()) return;
+        contentions.incrementAndGet(stripe);
+        long start = System.nanoTime();
+        lock.lock();
+        waitNanos.addAndGet(stripe, System.nanoTime() - start);
+    }
+
+    /**
+     * Stripes held by one caller, released in reverse order by close().
+     */
+    public final class Guard implements AutoCloseable {
+        private final int[] held;
+        private boolean closed = false;
+
+        private Guard(int[] held) {
+            this.held = held;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (int i = held.length - 1; i >= 0; i--) {
+                stripes[held[i]].unlock();
+            }
+        }
+    }
+}
@@ -1,17 +1,35 @@
 package biz;
 
+import biz.pipeline.OperationEvent;
+import biz.pipeline.OperationPipeline;
+import db.dao.ConcurrentUpdateException;
 import db.dao.DAO;
 import db.dao.impl.DAOImpl;
 import db.dao.impl.SQLiteDB;
 import model.Account;
+import model.InterestCheckpoint;
+import model.Money;
 import model.Operation;
 import model.User;
 import model.exceptions.OperationIsNotAllowedException;
 import model.exceptions.UserUnnkownOrBadPasswordException;
+import model.operations.Interest;
+import model.operations.OperationType;
 import model.operations.PaymentIn;
 import model.operations.Withdraw;
 
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Created by Krzysztof Podlaski on 04.03.2018.
@@ -21,8 +39,21 @@ public class AccountManager {
     BankHistory history;
     AuthenticationManager auth;
     InterestOperator interestOperator;
+    OperationPipeline pipeline;
+    InterestAccrual accrual;
+    AccountLocks locks = new AccountLocks(AccountLocks.DEFAULT_STRIPES);
     User loggedUser=null;
 
+    /*
+    A payment whose account was changed by someone else (another process on
+    the same database) is read again and retried, at most MAX_ATTEMPTS times.
+     */
+    static final int MAX_ATTEMPTS = 5;
+    static final long BACKOFF_MICROS = 200;
+    static final long MAX_BACKOFF_MICROS = 20_000;
+    private final AtomicLong conflicts = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
     /*
     Brak sprawdzenia, czy użytkownik nie jest nullem
      */
@@ -33,15 +64,33 @@ public class AccountManager {
         if (user == null) {
             throw new IllegalArgumentException("User should not be null");
         }
-        Account account = dao.findAccountById(accountId);
-        Operation operation = new PaymentIn(user, ammount,description, account);
-        boolean success = false;
-        if (account != null) {
-            success = account.income(ammount);
-            success = dao.updateAccountState(account);
-        }
-        history.logOperation(operation, success);
-        return success;
+        long minor = Money.toMinor(ammount);
+        return withRetry(() -> {
+            Account account;
+            List<Interest> accrued;
+            boolean result;
+            AccountLocks.Guard guard = locks.lock(accountId);
+            try {
+                account = dao.findAccountById(accountId);
+                accrued = accrue(account);
+                Operation operation = new PaymentIn(user, Money.ofMinor(minor), description, account);
+                result = inTransaction(() -> {
+                    boolean success = false;
+                    if (account != null) {
+                        success = account.incomeMinor(minor);
+                        success = dao.updateAccountState(account);
+                        if (success) logInterest(accrued);
+                    }
+                    log(operation, success);
+                    return success;
+                });
+            } finally {
+                guard.close();
+            }
+            if (result) publishInterest(accrued);
+            publish(OperationType.PAYMENT_IN, user, account, minor, description, result);
+            return result;
+        });
     }
 
     /*
@@ -58,25 +107,42 @@ public class AccountManager {
         if (user == null) {
             throw new IllegalArgumentException("User should not be null");
         }
-        Account account = dao.findAccountById(accountId);
-
+        long minor = Money.toMinor(amount);
+        return withRetry(() -> {
+            Account account;
+            List<Interest> accrued;
+            boolean result;
+            AccountLocks.Guard guard = locks.lock(accountId);
+            try {
+                account = dao.findAccountById(accountId);
+                accrued = accrue(account);
 
-        Operation operation = new Withdraw(user, amount, description, account);
-        boolean success = auth.canInvokeOperation(operation, user);
-        if (account == null) {
-            history.logUnauthorizedOperation(operation, success);
-            throw new OperationIsNotAllowedException("Unauthorized operation");
-        }
-        if (!success) {
-            history.logUnauthorizedOperation(operation, success);
-            throw new OperationIsNotAllowedException("Unauthorized operation");
-        }
-        success = account.outcome(amount);
-        if (success) {
-            success = dao.updateAccountState(account);
-        }
-        history.logOperation(operation, success);
-        return success;
+                Operation operation = new Withdraw(user, Money.ofMinor(minor), description, account);
+                boolean success = auth.canInvokeOperation(operation, user);
+                if (account == null) {
+                    history.logUnauthorizedOperation(operation, success);
+                    throw new OperationIsNotAllowedException("Unauthorized operation");
+                }
+                if (!success) {
+                    history.logUnauthorizedOperation(operation, success);
+                    throw new OperationIsNotAllowedException("Unauthorized operation");
+                }
+                result = inTransaction(() -> {
+                    boolean done = account.outcomeMinor(minor);
+                    if (done) {
+                        done = dao.updateAccountState(account);
+                        if (done) logInterest(accrued);
+                    }
+                    log(operation, done);
+                    return done;
+                });
+            } finally {
+                guard.close();
+            }
+            if (result) publishInterest(accrued);
+            publish(OperationType.WITHDRAW, user, account, minor, description, result);
+            return result;
+        });
     }
 
     /*
@@ -90,33 +156,474 @@ public class AccountManager {
         if (user == null) {
             throw new IllegalArgumentException("User should not be null");
         }
-        Account sourceAccount = dao.findAccountById(sourceAccountId);
-        Account destAccount = dao.findAccountById(destAccountId);
-        if (sourceAccount == null || destAccount == null) {
-            throw new IllegalArgumentException("Source or destination account does not exist");
+        long minor = Money.toMinor(amount);
+        return withRetry(() -> {
+            Account sourceAccount;
+            Account destAccount;
+            List<Interest> accrued;
+            boolean result;
+            AccountLocks.Guard guard = locks.lock(sourceAccountId, destAccountId);
+            try {
+                /* one query for both; a transfer to the same account gets one object,
+                   two would conflict on the version */
+                Map<Integer, Account> accounts = dao.findAccountsByIds(List.of(sourceAccountId, destAccountId));
+                sourceAccount = accounts.get(sourceAccountId);
+                destAccount = accounts.get(destAccountId);
+                if (sourceAccount == null || destAccount == null) {
+                    throw new IllegalArgumentException("Source or destination account does not exist");
+                }
+                accrued = accrue(sourceAccount, destAccount);
+
+                Operation withdraw = new Withdraw(user, Money.ofMinor(minor), description, sourceAccount);
+                Operation payment = new PaymentIn(user, Money.ofMinor(minor), description, destAccount);
+                boolean success = auth.canInvokeOperation(withdraw, user);
+                if (!success) {
+                    history.logUnauthorizedOperation(withdraw, success);
+                    throw new OperationIsNotAllowedException("Unauthorized operation");
+                }
+                result = inTransaction(() -> {
+                    boolean done = sourceAccount.outcomeMinor(minor);
+                    done = done && destAccount.incomeMinor(minor);
+                    if (done) {
+                        done = dao.updateAccountState(sourceAccount);
+                        if (done && !dao.updateAccountState(destAccount)) throw accountGone(destAccount);
+                        if (done) logInterest(accrued);
+                    }
+                    log(withdraw, done);
+                    log(payment, done);
+                    return done;
+                });
+            } finally {
+                guard.close();
+            }
+            if (result) publishInterest(accrued);
+            publish(OperationType.WITHDRAW, user, sourceAccount, minor, description, result);
+            publish(OperationType.PAYMENT_IN, user, destAccount, minor, description, result);
+            return result;
+        });
+    }
+
+    /*
+    Runs many transfers as one unit of work instead of one internalPayment
+    each: every involved account is locked and loaded at once, the transfers
+    are applied in memory in list order, then each touched account is
+    written once with its net balance, together with all history rows, in a
+    single transaction. A failing item does not stop the others. Results
+    come in the order of the requests. An account deleted before it is
+    written fails the whole batch, which is rolled back.
+     */
+    public List<TransferResult> executeBatch(List<TransferRequest> requests) throws SQLException {
+        Set<Integer> ids = new HashSet<>();
+        for (TransferRequest request : requests) {
+            ids.add(request.getSourceAccountId());
+            ids.add(request.getDestAccountId());
+        }
+        int[] lockIds = new int[ids.size()];
+        int n = 0;
+        for (int id : ids) lockIds[n++] = id;
+        List<Operation> unauthorized = new ArrayList<>();
+        List<Interest> booked = new ArrayList<>();
+        List<TransferResult> results = withRetry(() -> {
+            unauthorized.clear();
+            booked.clear();
+            List<TransferResult> attempt = new ArrayList<>(requests.size());
+            List<Operation> operations = new ArrayList<>();
+            boolean[] success = new boolean[requests.size() * 2];
+            Map<Integer, Account> touched = new LinkedHashMap<>();
+            AccountLocks.Guard guard = locks.lock(lockIds);
+            try {
+                Map<Integer, Account> accounts = dao.findAccountsByIds(ids);
+                List<Interest> accrued = accrue(accounts.values().toArray(new Account[0]));
+                for (TransferRequest request : requests) {
+                    TransferResult result = new TransferResult(request, transfer(request, accounts, touched, unauthorized));
+                    attempt.add(result);
+                    if (!result.isProcessed()) continue;
+                    boolean done = result.isSuccess();
+                    Account source = accounts.get(request.getSourceAccountId());
+                    Account dest = accounts.get(request.getDestAccountId());
+                    Money ammount = Money.ofMinor(request.getAmmountMinor());
+                    success[operations.size()] = done;
+                    operations.add(new Withdraw(request.getUser(), ammount, request.getDescription(), source));
+                    success[operations.size()] = done;
+                    operations.add(new PaymentIn(request.getUser(), ammount, request.getDescription(), dest));
+                }
+                /* accrual of accounts left unwritten is dropped with them */
+                for (Interest interest : accrued) {
+                    if (touched.containsKey(interest.getAccount().getId())) booked.add(interest);
+                }
+                inTransaction(() -> {
+                    for (Account account : touched.values()) {
+                        if (!dao.updateAccountState(account)) throw accountGone(account);
+                    }
+                    logInterest(booked);
+                    if (!operations.isEmpty()) {
+                        history.logOperations(operations, Arrays.copyOf(success, operations.size()));
+                    }
+                    return true;
+                });
+            } finally {
+                guard.close();
+            }
+            return attempt;
+        });
+        for (Operation operation : unauthorized) {
+            history.logUnauthorizedOperation(operation, false);
         }
+        publishInterest(booked);
+        for (TransferResult result : results) {
+            if (!result.isProcessed()) continue;
+            TransferRequest request = result.getRequest();
+            publish(OperationType.WITHDRAW, request.getUser(), request.getSourceAccountId(),
+                    request.getAmmountMinor(), request.getDescription(), result.isSuccess());
+            publish(OperationType.PAYMENT_IN, request.getUser(), request.getDestAccountId(),
+                    request.getAmmountMinor(), request.getDescription(), result.isSuccess());
+        }
+        return results;
+    }
+
+    /*
+    Credits interest to every account with afterId < id <= toId in one
+    transaction, for InterestOperator's sweep. Accounts whose interest rounds
+    to zero are left alone. Returns {accounts, interest}.
+     */
+    long[] creditInterest(User user, int afterId, int toId, double factor, String description) throws SQLException {
+        return bookInterest(afterId, toId, credit(user, factor, description));
+    }
 
-        Operation withdraw = new Withdraw(user, amount, description, sourceAccount);
-        Operation payment = new PaymentIn(user, amount, description, destAccount);
-        boolean success = auth.canInvokeOperation(withdraw, user);
-        if (!success) {
-            history.logUnauthorizedOperation(withdraw, success);
-            throw new OperationIsNotAllowedException("Unauthorized operation");
+    /*
+    Push-down variant of creditInterest for the whole bank: the DAO books
+    the interest with a few set-based statements in one transaction instead
+    of a read and a write per account, with the same balances and history
+    rows. The rows are never loaded, so with a pipeline they could not be
+    published and its metrics would miss them.
+     */
+    long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        if (pipeline != null) {
+            throw new IllegalStateException("Set-based interest cannot publish to the operation pipeline");
         }
-        success = sourceAccount.outcome(amount);
-        success = success && destAccount.income(amount);
-        if (success) {
-            success = dao.updateAccountState(sourceAccount);
-            if (success) dao.updateAccountState(destAccount);
+        return withRetry(() -> dao.creditInterestToAll(user, factor, description));
+    }
+
+    /*
+    One chunk of a resumable interest run: credits the next chunkSize
+    accounts after the checkpoint and moves the checkpoint past them in the
+    same transaction, so a chunk is booked and recorded together or not at
+    all. Returns the saved checkpoint.
+     */
+    InterestCheckpoint creditInterestChunk(User user, InterestCheckpoint checkpoint, int chunkSize, double factor,
+                                           String description) throws SQLException {
+        InterestRule rule = credit(user, factor, description);
+        List<Interest> booked = new ArrayList<>();
+        InterestCheckpoint next = withRetry(() -> {
+            booked.clear();
+            List<Account> chunk = dao.findAccountsInRange(checkpoint.getLastAccountId(),
+                    checkpoint.getToAccountId(), chunkSize);
+            long total = checkpoint.getInterestMinor();
+            for (Account account : chunk) {
+                Interest interest = rule.apply(account);
+                if (interest == null) continue;
+                booked.add(interest);
+                total = Money.add(total, interest.getAmmountMinor());
+            }
+            InterestCheckpoint moved = new InterestCheckpoint();
+            moved.setRunId(checkpoint.getRunId());
+            moved.setToAccountId(checkpoint.getToAccountId());
+            moved.setLastAccountId(chunk.isEmpty()
+                    ? checkpoint.getLastAccountId() : chunk.get(chunk.size() - 1).getId());
+            moved.setAccounts(checkpoint.getAccounts() + booked.size());
+            moved.setInterestMinor(total);
+            moved.setFinished(chunk.size() < chunkSize);
+            inTransaction(() -> {
+                for (Interest interest : booked) {
+                    dao.updateAccountState(interest.getAccount());
+                }
+                logInterest(booked);
+                if (!dao.saveInterestCheckpoint(moved, checkpoint.getLastAccountId())) {
+                    throw new SQLException("Interest run " + checkpoint.getRunId() + " was moved on by another writer");
+                }
+                return true;
+            });
+            return moved;
+        });
+        publishInterest(booked);
+        return next;
+    }
+
+    private static InterestRule credit(User user, double factor, String description) {
+        return account -> {
+            long interest = Money.multiply(account.getAmmountMinor(), factor);
+            if (interest <= 0) return null;
+            account.incomeMinor(interest);
+            return new Interest(user, Money.ofMinor(interest), description, account);
+        };
+    }
+
+    /*
+    Stores the interest accounts with afterId < id <= toId have accrued, for
+    InterestOperator's compaction, so stored balances and history do not lag
+    far behind for accounts nobody touches. Returns {accounts, interest}.
+     */
+    long[] compactAccruals(int afterId, int toId) throws SQLException {
+        if (accrual == null) {
+            throw new IllegalStateException("Interest accrual is not enabled");
+        }
+        return bookInterest(afterId, toId, accrual::accrue);
+    }
+
+    /*
+    Books the interest the rule gives each account of a range in one
+    transaction. Takes no account locks, which would serialize the ranges
+    of a sweep: a payment racing with it is caught by the version check and
+    the range is read and booked again.
+     */
+    private long[] bookInterest(int afterId, int toId, InterestRule rule) throws SQLException {
+        int limit = (int) Math.min(Integer.MAX_VALUE, Math.max(0L, (long) toId - afterId));
+        List<Interest> booked = new ArrayList<>();
+        withRetry(() -> {
+            booked.clear();
+            for (Account account : dao.findAccountsInRange(afterId, toId, limit)) {
+                Interest interest = rule.apply(account);
+                if (interest != null) booked.add(interest);
+            }
+            return inTransaction(() -> {
+                for (Interest interest : booked) {
+                    dao.updateAccountState(interest.getAccount());
+                }
+                logInterest(booked);
+                return true;
+            });
+        });
+        publishInterest(booked);
+        long total = 0;
+        for (Interest interest : booked) {
+            total = Money.add(total, interest.getAmmountMinor());
+        }
+        return new long[]{booked.size(), total};
+    }
+
+    private interface InterestRule {
+        Interest apply(Account account);
+    }
+
+    /*
+    In accrual mode, puts the interest the accounts earned since their last
+    accrual on their balances, in memory (see InterestAccrual.accrue). The
+    returned rows are logged with the accounts' next update.
+     */
+    private List<Interest> accrue(Account... accounts) {
+        if (accrual == null) return List.of();
+        List<Interest> accrued = new ArrayList<>();
+        for (Account account : accounts) {
+            if (account == null) continue;
+            Interest interest = accrual.accrue(account);
+            if (interest != null) accrued.add(interest);
+        }
+        return accrued;
+    }
+
+    /*
+    Booked interest is a PAYMENT_IN plus the INTEREST row kept for the record.
+     */
+    private void logInterest(List<Interest> booked) throws SQLException {
+        if (booked.isEmpty()) return;
+        List<Operation> operations = new ArrayList<>(booked.size() * 2);
+        for (Interest interest : booked) {
+            operations.add(new PaymentIn(interest.getUser(), Money.ofMinor(interest.getAmmountMinor()),
+                    interest.getDescription(), interest.getAccount()));
+            operations.add(interest);
         }
-        history.logOperation(withdraw, success);
-        history.logOperation(payment, success);
-        return success;
+        boolean[] success = new boolean[operations.size()];
+        Arrays.fill(success, true);
+        history.logOperations(operations, success);
+    }
+
+    private void publishInterest(List<Interest> booked) {
+        for (Interest interest : booked) {
+            publish(OperationType.PAYMENT_IN, interest.getUser(), interest.getAccount().getId(),
+                    interest.getAmmountMinor(), interest.getDescription(), true);
+        }
+    }
+
+    /*
+    Applies one transfer of a batch to the loaded accounts, in memory only.
+     */
+    private TransferResult.Status transfer(TransferRequest request, Map<Integer, Account> accounts,
+                                           Map<Integer, Account> touched, List<Operation> unauthorized) {
+        if (request.getUser() == null || request.getAmmountMinor() < 0) {
+            return TransferResult.Status.INVALID;
+        }
+        Account source = accounts.get(request.getSourceAccountId());
+        Account dest = accounts.get(request.getDestAccountId());
+        if (source == null || dest == null) {
+            return TransferResult.Status.UNKNOWN_ACCOUNT;
+        }
+        Operation withdraw = new Withdraw(request.getUser(), Money.ofMinor(request.getAmmountMinor()),
+                request.getDescription(), source);
+        if (!auth.canInvokeOperation(withdraw, request.getUser())) {
+            unauthorized.add(withdraw);
+            return TransferResult.Status.UNAUTHORIZED;
+        }
+        if (!source.outcomeMinor(request.getAmmountMinor())) {
+            return TransferResult.Status.INSUFFICIENT_FUNDS;
+        }
+        dest.incomeMinor(request.getAmmountMinor());
+        touched.put(source.getId(), source);
+        touched.put(dest.getId(), dest);
+        return TransferResult.Status.COMPLETED;
+    }
+
+    /*
+    Called with the stripes of the payment's accounts held, so no other payment
+    reads a balance between our read and our update.
+    Balance updates and history rows of one payment are committed together,
+    so a payment costs one commit and is never left half-applied.
+     */
+    private boolean inTransaction(UnitOfWork work) throws SQLException {
+        dao.beginTransaction();
+        try {
+            boolean result = work.run();
+            dao.commitTransaction();
+            return result;
+        } catch (SQLException | RuntimeException e) {
+            dao.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    /*
+    For a write that found its account deleted after it was loaded, when
+    other writes of the unit of work must not commit without it.
+     */
+    private static SQLException accountGone(Account account) {
+        return new SQLException("Account " + account.getId() + " no longer exists");
+    }
+
+    private void log(Operation operation, boolean success) throws SQLException {
+        history.logOperation(operation, success);
+    }
+
+    /*
+    Published only after the commit, a rolled back payment leaves no event,
+    just as it leaves no history row. The pipeline only feeds metrics and
+    fraud checks; history is always written in the payment's transaction.
+    The payment is already committed here, so a stopped pipeline drops the
+    event (counted by the pipeline) rather than failing the caller.
+     */
+    private void publish(OperationType type, User user, Account account, long ammount,
+                         String description, boolean success) {
+        publish(type, user, account == null ? OperationEvent.NONE : account.getId(), ammount, description, success);
+    }
+
+    private void publish(OperationType type, User user, int accountId, long ammount,
+                         String description, boolean success) {
+        if (pipeline == null) return;
+        pipeline.tryPublishMinor(type, user.getId(), accountId, ammount, description, success);
+    }
+
+    private interface UnitOfWork {
+        boolean run() throws SQLException;
+    }
+
+    /*
+    Backs off exponentially with jitter, outside the account locks. The last
+    conflict is rethrown once the attempts are used up or the thread is interrupted.
+     */
+    private <T, E extends Exception> T withRetry(Attempt<T, E> attempt) throws SQLException, E {
+        for (int n = 1; ; n++) {
+            try {
+                return attempt.run();
+            } catch (ConcurrentUpdateException e) {
+                conflicts.incrementAndGet();
+                if (n >= MAX_ATTEMPTS || Thread.currentThread().isInterrupted()) throw e;
+                retries.incrementAndGet();
+                long ceiling = Math.min(MAX_BACKOFF_MICROS, BACKOFF_MICROS << (n - 1));
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(
+                        ceiling / 2 + ThreadLocalRandom.current().nextLong(ceiling / 2 + 1)));
+            }
+        }
+    }
+
+    private interface Attempt<T, E extends Exception> {
+        T run() throws SQLException, E;
+    }
+
+    /*
+    Balance of the account including, in accrual mode, the interest it has
+    earned but not yet stored. Null for an unknown account.
+     */
+    public Money getBalance(int accountId) throws SQLException {
+        Account account = dao.findAccountById(accountId);
+        if (account == null) return null;
+        return accrual == null ? account.getBalance() : accrual.projectedBalance(account);
+    }
+
+    /*
+    Sets the yearly rate the account accrues interest at. What it earned at
+    the old rate is stored first; a rate of 0 stops accrual.
+     */
+    public boolean setInterestRate(int accountId, double rate) throws SQLException {
+        if (!(rate >= 0) || Double.isInfinite(rate)) {
+            throw new IllegalArgumentException("Interest rate must be a non-negative number");
+        }
+        if (accrual == null) {
+            throw new IllegalStateException("Interest accrual is not enabled");
+        }
+        List<Interest> booked = new ArrayList<>();
+        boolean result = withRetry(() -> {
+            booked.clear();
+            AccountLocks.Guard guard = locks.lock(accountId);
+            try {
+                Account account = dao.findAccountById(accountId);
+                if (account == null) return false;
+                booked.addAll(accrue(account));
+                account.setInterestRate(rate);
+                if (rate == 0) {
+                    account.setLastAccrual(0);
+                } else if (account.getLastAccrual() <= 0) {
+                    account.setLastAccrual(accrual.now());
+                }
+                return inTransaction(() -> {
+                    boolean done = dao.updateAccountState(account);
+                    if (done) logInterest(booked);
+                    return done;
+                });
+            } finally {
+                guard.close();
+            }
+        });
+        if (result) publishInterest(booked);
+        return result;
+    }
+
+    /*
+    Null switches accrual mode off; rates and accrual times stay stored.
+     */
+    public void setInterestAccrual(InterestAccrual accrual) {
+        this.accrual = accrual;
+    }
+
+    public InterestAccrual getInterestAccrual() {
+        return accrual;
+    }
+
+    /*
+    Version conflicts met by payments, including the ones given up on.
+     */
+    public long getConflictCount() {
+        return conflicts.get();
+    }
+
+    public long getRetryCount() {
+        return retries.get();
     }
 
     public static AccountManager buildBank() {
+        return buildBank("jdbc:sqlite:./bank.db");
+    }
+
+    public static AccountManager buildBank(String url) {
         try {
-            DAO dao = SQLiteDB.createDAO();
+            DAO dao = SQLiteDB.createDAO(url, SQLiteDB.defaultProfile());
             BankHistory history = new BankHistory(dao);
             AuthenticationManager am = new AuthenticationManager(dao, history);
             AccountManager aManager = new AccountManager();
@@ -139,6 +646,15 @@ public class AccountManager {
         return loggedUser!=null;
     }
 
+    /*
+    Checks the password and logs the login like logIn, but returns the user
+    instead of keeping it as this manager's logged user, so logins made at
+    the same time through one manager do not replace each other.
+     */
+    public User authenticate(String userName, char[] password) throws UserUnnkownOrBadPasswordException, SQLException {
+        return auth.logIn(userName, password);
+    }
+
     public boolean logOut(User user) throws SQLException {
         if (auth.logOut(user)) {
             loggedUser = null;
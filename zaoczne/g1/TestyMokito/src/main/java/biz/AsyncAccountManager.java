@@ -0,0 +1,123 @@
+package biz;
+
+import model.User;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Non-blocking facade of {@link AccountManager}. Every call runs on its own
+ * virtual thread, so tens of thousands of payments can be in flight without
+ * a platform thread each; the database, not a thread pool, is the limit.
+ * <p>
+ * Futures fail with the exception the blocking call threw (SQLException,
+ * OperationIsNotAllowedException, ...) or with a TimeoutException once the
+ * call's timeout runs out. Timing out or cancelling interrupts the call,
+ * which stops it while it waits (e.g. between conflict retries); a payment
+ * that already reached its commit still completes, so a cancelled future
+ * does not mean the payment did not happen.
+ * <p>
+ * Calls share one AccountManager, which keeps a single logged user, so
+ * logInAsync hands the logged in user to the caller and leaves that field
+ * alone. Callers keep their own sessions.
+ */
+public class AsyncAccountManager implements AutoCloseable {
+    private final AccountManager manager;
+    private final ExecutorService executor;
+    private final Duration defaultTimeout;
+
+    public AsyncAccountManager(AccountManager manager) {
+        this(manager, Duration.ZERO);
+    }
+
+    /*
+    Duration.ZERO means no timeout.
+     */
+    public AsyncAccountManager(AccountManager manager, Duration defaultTimeout) {
+        if (defaultTimeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        this.manager = manager;
+        this.defaultTimeout = defaultTimeout;
+        this.executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    public CompletableFuture<Boolean> paymentInAsync(User user, double ammount, String description, int accountId) {
+        return paymentInAsync(user, ammount, description, accountId, defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> paymentInAsync(User user, double ammount, String description, int accountId,
+                                                     Duration timeout) {
+        return submit(() -> manager.paymentIn(user, ammount, description, accountId), timeout);
+    }
+
+    public CompletableFuture<Boolean> paymentOutAsync(User user, double amount, String description, int accountId) {
+        return paymentOutAsync(user, amount, description, accountId, defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> paymentOutAsync(User user, double amount, String description, int accountId,
+                                                      Duration timeout) {
+        return submit(() -> manager.paymentOut(user, amount, description, accountId), timeout);
+    }
+
+    public CompletableFuture<Boolean> internalPaymentAsync(User user, double amount, String description,
+                                                           int sourceAccountId, int destAccountId) {
+        return internalPaymentAsync(user, amount, description, sourceAccountId, destAccountId, defaultTimeout);
+    }
+
+    public CompletableFuture<Boolean> internalPaymentAsync(User user, double amount, String description,
+                                                           int sourceAccountId, int destAccountId, Duration timeout) {
+        return submit(() -> manager.internalPayment(user, amount, description, sourceAccountId, destAccountId), timeout);
+    }
+
+    public CompletableFuture<User> logInAsync(String userName, char[] password) {
+        return logInAsync(userName, password, defaultTimeout);
+    }
+
+    public CompletableFuture<User> logInAsync(String userName, char[] password, Duration timeout) {
+        return submit(() -> manager.authenticate(userName, password), timeout);
+    }
+
+    public AccountManager getAccountManager() {
+        return manager;
+    }
+
+    /*
+    Stops taking calls and waits for the ones in flight.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call, Duration timeout) {
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("Timeout cannot be negative");
+        }
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Future<?> task = executor.submit(() -> {
+            if (result.isDone()) return;
+            try {
+                result.complete(call.run());
+            } catch (Throwable e) {
+                result.completeExceptionally(e);
+            }
+        });
+        result.whenComplete((value, e) -> {
+            if (result.isCancelled() || e instanceof TimeoutException) task.cancel(true);
+        });
+        if (!timeout.isZero()) {
+            result.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return result;
+    }
+
+    private interface Call<T> {
+        T run() throws Exception;
+    }
+}
@@ -0,0 +1,402 @@
+package biz;
+
+import db.dao.DAO;
+import db.journal.JournalEntry;
+import db.journal.OperationJournal;
+import model.Operation;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Takes history writes off the caller's thread. Operations go into a
+ * bounded queue and a single writer thread stores them with
+ * {@link DAO#logOperations}, as many per transaction as it finds waiting.
+ * What happens when the queue is full is set by the {@link OverflowPolicy}.
+ * <p>
+ * {@link #flush()} returns once everything logged before it has been
+ * written, {@link #close()} writes everything still queued or spilled and
+ * stops the writer.
+ * <p>
+ * A failed batch is tried again MAX_ATTEMPTS times with a growing pause.
+ * If it still fails it goes to the spill journal when there is one, and is
+ * replayed from there, also by the next sink on the same journal. Without
+ * a journal it is counted as failed and reported by the next flush; only
+ * SPILL guarantees delivery.
+ * <p>
+ * {@link TransactionMode} decides what happens to operations logged inside
+ * a DAO unit of work, which is where AccountManager logs payment history.
+ */
+public class AsyncHistorySink implements HistorySink {
+    public enum OverflowPolicy {
+        /* the caller waits for room in the queue */
+        BLOCK,
+        /* the operation is dropped and counted */
+        DROP,
+        /* the operation is appended to a journal and written to the database later */
+        SPILL
+    }
+
+    public enum TransactionMode {
+        /* written into the caller's transaction, atomic with its balance updates */
+        JOIN,
+        /* queued like any other operation and written after, and apart from,
+           the caller's transaction: a payment that rolls back may still get its
+           row, and a crash before the write loses the row of one that committed */
+        DETACH
+    }
+
+    public static final int DEFAULT_BATCH_SIZE = 256;
+    static final int MAX_ATTEMPTS = 5;
+    static final long RETRY_PAUSE_MILLIS = 10;
+    private static final long SPILL_POLL_MILLIS = 10;
+
+    private final DAO dao;
+    private final int capacity;
+    private final int maxBatchSize;
+    private final OverflowPolicy policy;
+    private final TransactionMode transactionMode;
+    private final OperationJournal spill;
+    private final String spillName;
+    private final BlockingQueue<Pending> queue;
+    private final Thread writer;
+    private final AtomicInteger producers = new AtomicInteger();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong spilled = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final Object progress = new Object();
+    private volatile long processed = 0;
+    private volatile long replayed;
+    private volatile SQLException failure;
+    private volatile boolean closed = false;
+
+    private static final Pending SHUTDOWN = new Pending(null, false);
+
+    public AsyncHistorySink(DAO dao, int capacity, OverflowPolicy policy) throws SQLException {
+        this(dao, capacity, DEFAULT_BATCH_SIZE, policy, null, false);
+    }
+
+    /*
+    spill is required for OverflowPolicy.SPILL and ignored otherwise. It
+    should be used by this sink only. How far it has been replayed is kept
+    in the database under the journal directory's path.
+     */
+    public AsyncHistorySink(DAO dao, int capacity, int maxBatchSize, OverflowPolicy policy,
+                            OperationJournal spill, boolean virtualThread) throws SQLException {
+        this(dao, capacity, maxBatchSize, policy, spill, virtualThread, TransactionMode.JOIN);
+    }
+
+    public AsyncHistorySink(DAO dao, int capacity, int maxBatchSize, OverflowPolicy policy,
+                            OperationJournal spill, boolean virtualThread, TransactionMode transactionMode)
+            throws SQLException {
+        if (capacity < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        }
+        if (policy == OverflowPolicy.SPILL && spill == null) {
+            throw new IllegalArgumentException("Spilling needs a journal");
+        }
+        this.dao = dao;
+        this.capacity = capacity;
+        this.maxBatchSize = maxBatchSize;
+        this.policy = policy;
+        this.transactionMode = transactionMode;
+        this.spill = policy == OverflowPolicy.SPILL ? spill : null;
+        this.spillName = this.spill == null ? null : this.spill.getDirectory().toAbsolutePath().normalize().toString();
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.replayed = this.spill == null ? 0 : dao.findReplayPosition(spillName);
+        this.writer = virtualThread
+                ? Thread.ofVirtual().name("history-async-writer").unstarted(this::run)
+                : Thread.ofPlatform().name("history-async-writer").daemon().unstarted(this::run);
+        this.writer.start();
+    }
+
+    /*
+    Inside a unit of work the caller may hold the DAO writer, so it never
+    waits for room in the queue: with JOIN the operation is written into
+    the caller's transaction, with DETACH a full queue falls back to it
+    only under BLOCK.
+     */
+    public void logOperation(Operation operation, boolean success) throws SQLException {
+        boolean inTransaction = dao.isInTransaction();
+        if (inTransaction && transactionMode == TransactionMode.JOIN) {
+            dao.logOperation(operation, success);
+            return;
+        }
+        producers.incrementAndGet();
+        try {
+            if (closed) {
+                throw new IllegalStateException("History sink is closed");
+            }
+            Pending pending = new Pending(operation, success);
+            if (inTransaction && policy == OverflowPolicy.BLOCK) {
+                if (!queue.offer(pending)) {
+                    dao.logOperation(operation, success);
+                    return;
+                }
+            } else if (policy == OverflowPolicy.BLOCK) {
+                putUninterruptibly(pending);
+            } else if (!queue.offer(pending)) {
+                overflow(pending);
+                return;
+            }
+            enqueued.incrementAndGet();
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    /*
+    Throws the first write failure seen since the previous flush. Batches
+    spilled after failing are waited for until they have been replayed.
+     */
+    public void flush() throws SQLException {
+        long target = enqueued.get();
+        awaitProgress(target, 0);
+        /* read after the queued ones are processed, it covers the failed batches they spilled */
+        long spillTarget = spill == null ? 0 : spill.getNextSequence();
+        awaitProgress(target, spillTarget);
+        SQLException e = failure;
+        if (e != null) {
+            failure = null;
+            throw e;
+        }
+    }
+
+    private void awaitProgress(long target, long spillTarget) throws SQLException {
+        synchronized (progress) {
+            while ((processed < target || replayed < spillTarget) && failure == null && writer.isAlive()) {
+                try {
+                    progress.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new SQLException("Interrupted while flushing the history", e);
+                }
+            }
+        }
+    }
+
+    public void close() throws SQLException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        while (producers.get() > 0) {
+            Thread.yield();
+        }
+        putUninterruptibly(SHUTDOWN);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getSpilledCount() {
+        return spilled.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    private void overflow(Pending pending) throws SQLException {
+        if (policy == OverflowPolicy.DROP) {
+            dropped.incrementAndGet();
+            return;
+        }
+        try {
+            spill.append(pending.operation, pending.success);
+        } catch (IOException e) {
+            throw new SQLException("Could not spill the operation to " + spill.getDirectory(), e);
+        }
+        spilled.incrementAndGet();
+    }
+
+    private void putUninterruptibly(Pending pending) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(pending);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        boolean stopping = false;
+        while (!stopping || !queue.isEmpty()) {
+            Pending first;
+            try {
+                first = spill == null ? queue.take() : queue.poll(SPILL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first != null) {
+                batch.add(first);
+                queue.drainTo(batch, maxBatchSize - 1);
+                if (batch.remove(SHUTDOWN)) stopping = true;
+                write(batch);
+                batch.clear();
+            }
+            if (spill != null && (first == null || stopping || queue.size() < capacity / 2)) {
+                replaySpill(stopping);
+            }
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        if (!batch.isEmpty()) {
+            List<Operation> operations = new ArrayList<>(batch.size());
+            boolean[] success = new boolean[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                operations.add(batch.get(i).operation);
+                success[i] = batch.get(i).success;
+            }
+            try {
+                writeWithRetry(operations, success);
+                written.addAndGet(batch.size());
+            } catch (SQLException | RuntimeException e) {
+                if (!spillFailed(batch)) {
+                    failed.addAndGet(batch.size());
+                    fail(e);
+                }
+            }
+        }
+        synchronized (progress) {
+            processed += batch.size();
+            progress.notifyAll();
+        }
+    }
+
+    private void writeWithRetry(List<Operation> operations, boolean[] success) throws SQLException {
+        long pause = RETRY_PAUSE_MILLIS;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                dao.logOperations(operations, success);
+                return;
+            } catch (SQLException | RuntimeException e) {
+                if (attempt >= MAX_ATTEMPTS) throw e;
+            }
+            try {
+                Thread.sleep(pause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLException("Interrupted while retrying a history batch", e);
+            }
+            pause *= 2;
+        }
+    }
+
+    /*
+    False when there is no journal or the batch could not be appended to it.
+     */
+    private boolean spillFailed(List<Pending> batch) {
+        if (spill == null) return false;
+        try {
+            for (Pending pending : batch) {
+                spill.append(pending.operation, pending.success);
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        spilled.addAndGet(batch.size());
+        return true;
+    }
+
+    /*
+    Writes spilled operations back in journal order. Without all, only one
+    batch per call, so the queue is not starved. The rows of a batch and the
+    replay position after it commit in one unit of work, so after a failure
+    or a crash a batch is either replayed again in full or not at all.
+     */
+    private void replaySpill(boolean all) {
+        while (replayed < spill.getNextSequence()) {
+            List<JournalEntry> entries = new ArrayList<>(maxBatchSize);
+            try {
+                Iterator<JournalEntry> scan = spill.scan(replayed);
+                while (entries.size() < maxBatchSize && scan.hasNext()) {
+                    entries.add(scan.next());
+                }
+                List<Operation> operations = new ArrayList<>(entries.size());
+                boolean[] success = new boolean[entries.size()];
+                for (int i = 0; i < entries.size(); i++) {
+                    operations.add(entries.get(i).toOperation());
+                    success[i] = entries.get(i).isSuccess();
+                }
+                replay(operations, success, replayed + entries.size());
+            } catch (SQLException | RuntimeException e) {
+                fail(e);
+                return;
+            }
+            written.addAndGet(entries.size());
+            synchronized (progress) {
+                replayed += entries.size();
+                progress.notifyAll();
+            }
+            if (!all) return;
+        }
+    }
+
+    private void fail(Exception e) {
+        if (failure == null) {
+            failure = e instanceof SQLException ? (SQLException) e : new SQLException(e);
+        }
+        synchronized (progress) {
+            progress.notifyAll();
+        }
+    }
+
+    private void replay(List<Operation> operations, boolean[] success, long position) throws SQLException {
+        dao.beginTransaction();
+        try {
+            dao.logOperations(operations, success);
+            if (!dao.saveReplayPosition(spillName, replayed, position)) {
+                throw new SQLException("Spill journal " + spillName + " was replayed by another writer");
+            }
+            dao.commitTransaction();
+        } catch (SQLException | RuntimeException e) {
+            dao.rollbackTransaction();
+            throw e;
+        }
+    }
+
+    private static class Pending {
+        final Operation operation;
+        final boolean success;
+
+        Pending(Operation operation, boolean success) {
+            this.operation = operation;
+            this.success = success;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package biz;
 
 import db.dao.DAO;
+import db.dao.OperationQuery;
 import model.Account;
 import model.Operation;
 import model.User;
@@ -8,17 +9,28 @@ import model.operations.LogIn;
 import model.operations.LogOut;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * Created by Krzysztof Podlaski on 04.03.2018.
  */
 public class BankHistory {
     DAO dao;
+    HistorySink sink;
 
     public BankHistory(DAO dao) {
         this.dao = dao;
     }
 
+    /*
+    Operations go to the sink (e.g. a GroupCommitHistoryWriter) instead of straight to the DAO.
+     */
+    public BankHistory(DAO dao, HistorySink sink) {
+        this.dao = dao;
+        this.sink = sink;
+    }
+
     public void logLoginSuccess(User user) throws SQLException {
         Operation o = new LogIn(user,"Logowanie ");
         logOperation(o,true);
@@ -46,10 +58,39 @@ public class BankHistory {
     }
 
     public void logOperation(Operation operation, boolean success) throws SQLException {
-
+        if (sink != null) {
+            sink.logOperation(operation, success);
+            return;
+        }
         dao.logOperation(operation,success);
     }
 
+    /*
+    Without a sink the whole list goes to the DAO as one batch.
+     */
+    public void logOperations(List<Operation> operations, boolean[] success) throws SQLException {
+        if (sink != null) {
+            for (int i = 0; i < operations.size(); i++) {
+                sink.logOperation(operations.get(i), success[i]);
+            }
+            return;
+        }
+        dao.logOperations(operations, success);
+    }
+
+    /*
+    Pending operations of the sink are flushed first, so the result includes them.
+    The stream reads the history page by page, do not collect it for large ranges.
+     */
+    public Stream<Operation> findOperations(OperationQuery query) throws SQLException {
+        if (sink != null) sink.flush();
+        return dao.findOperations(query);
+    }
+
+    public void close() throws SQLException {
+        if (sink != null) sink.close();
+    }
+
     public void logUnauthorizedOperation(Operation operation, boolean success) {
 
         throw new RuntimeException("Not implemented");
@@ -0,0 +1,186 @@
+package biz;
+
+import db.dao.DAO;
+import model.Operation;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects operations logged by many callers and writes them with
+ * {@link DAO#logOperations} in one transaction. A batch is flushed when it
+ * reaches maxBatchSize or maxDelayMillis after its first operation arrived,
+ * whichever comes first. Each caller's future completes once its batch
+ * has been committed. A failed batch is written again one operation at a
+ * time, so only the callers whose operation cannot be written see the
+ * failure.
+ * <p>
+ * Only rows logged outside a unit of work are grouped: logins, logouts and
+ * refused operations. Payment history is written inside the payment's own
+ * transaction (see {@link #logOperation}), so it never reaches a batch.
+ */
+public class GroupCommitHistoryWriter implements HistorySink {
+    private final DAO dao;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private volatile boolean closed = false;
+    private volatile CompletableFuture<Void> lastSubmitted = CompletableFuture.completedFuture(null);
+
+    private static final Pending SHUTDOWN = new Pending(null, false);
+
+    public GroupCommitHistoryWriter(DAO dao, int maxBatchSize, long maxDelayMillis) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.dao = dao;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        this.flusher = new Thread(this::run, "history-group-commit");
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+    }
+
+    public synchronized CompletableFuture<Void> submit(Operation operation, boolean success) {
+        if (closed) {
+            throw new IllegalStateException("History writer is closed");
+        }
+        Pending pending = new Pending(operation, success);
+        queue.add(pending);
+        lastSubmitted = pending.done;
+        return pending.done;
+    }
+
+    /*
+    A caller inside a unit of work already holds the writer, so its rows go into
+    that transaction instead of waiting for a batch that could never be written.
+     */
+    public void logOperation(Operation operation, boolean success) throws SQLException {
+        if (dao.isInTransaction()) {
+            dao.logOperation(operation, success);
+            return;
+        }
+        await(submit(operation, success));
+    }
+
+    /*
+    Batches are written in submission order, so waiting for the newest one covers all earlier ones.
+     */
+    public void flush() {
+        lastSubmitted.handle((v, e) -> null).join();
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            queue.add(SHUTDOWN);
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public long getBatchCount() {
+        return batches.get();
+    }
+
+    public long getWrittenCount() {
+        return written.get();
+    }
+
+    private void run() {
+        List<Pending> batch = new ArrayList<>(maxBatchSize);
+        boolean running = true;
+        while (running) {
+            try {
+                Pending first = queue.take();
+                if (first == SHUTDOWN) break;
+                batch.add(first);
+                long deadline = System.nanoTime() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Pending next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    if (next == SHUTDOWN) {
+                        running = false;
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            }
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            }
+        }
+        List<Pending> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.remove(SHUTDOWN);
+        for (int i = 0; i < rest.size(); i += maxBatchSize) {
+            write(rest.subList(i, Math.min(rest.size(), i + maxBatchSize)));
+        }
+    }
+
+    private void write(List<Pending> batch) {
+        try {
+            writeBatch(batch);
+        } catch (SQLException | RuntimeException e) {
+            if (batch.size() == 1) {
+                batch.get(0).done.completeExceptionally(e);
+                return;
+            }
+            for (Pending pending : batch) {
+                write(List.of(pending));
+            }
+        }
+    }
+
+    private void writeBatch(List<Pending> batch) throws SQLException {
+        List<Operation> operations = new ArrayList<>(batch.size());
+        boolean[] success = new boolean[batch.size()];
+        for (int i = 0; i < batch.size(); i++) {
+            operations.add(batch.get(i).operation);
+            success[i] = batch.get(i).success;
+        }
+        dao.logOperations(operations, success);
+        batches.incrementAndGet();
+        written.addAndGet(batch.size());
+        for (Pending pending : batch) pending.done.complete(null);
+    }
+
+    static void await(CompletableFuture<Void> future) throws SQLException {
+        try {
+            future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        }
+    }
+
+    private static class Pending {
+        final Operation operation;
+        final boolean success;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Operation operation, boolean success) {
+            this.operation = operation;
+            this.success = success;
+        }
+    }
+}
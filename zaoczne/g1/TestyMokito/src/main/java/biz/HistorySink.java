@@ -0,0 +1,19 @@
+package biz;
+
+import model.Operation;
+
+import java.sql.SQLException;
+
+/**
+ * Destination for operations logged by {@link BankHistory} when it should not
+ * write straight through the DAO.
+ */
+public interface HistorySink {
+    void logOperation(Operation operation, boolean success) throws SQLException;
+
+    default void flush() throws SQLException {
+    }
+
+    default void close() throws SQLException {
+    }
+}
@@ -0,0 +1,107 @@
+package biz;
+
+import model.Account;
+import model.Money;
+import model.User;
+import model.operations.Interest;
+
+import java.time.Clock;
+import java.time.Duration;
+
+/**
+ * Lazy interest: instead of a sweep crediting every account each period,
+ * an account keeps its yearly rate and the time interest was last put on
+ * its balance, and what it earned since is worked out only when it is
+ * loaded. A dormant account costs nothing until someone touches it.
+ * <p>
+ * Interest compounds once per whole period (a day by default) on the
+ * balance at the last accrual. Compounding does not depend on how often
+ * the account is touched, so a daily-used account and one idle for a year
+ * earn the same, up to rounding to minor units. An unfinished period is
+ * left for the next accrual.
+ */
+public class InterestAccrual {
+    public static final long YEAR_MILLIS = Duration.ofDays(365).toMillis();
+    public static final String DESCRIPTION = "Interest accrual";
+
+    private final User operator;
+    private final Clock clock;
+    private final long periodMillis;
+
+    public InterestAccrual(User operator) {
+        this(operator, Clock.systemUTC(), Duration.ofDays(1));
+    }
+
+    /*
+    operator is the user the booked interest rows are logged for.
+     */
+    public InterestAccrual(User operator, Clock clock, Duration period) {
+        if (operator == null) {
+            throw new IllegalArgumentException("Operator should not be null");
+        }
+        if (period.toMillis() < 1) {
+            throw new IllegalArgumentException("Accrual period must be at least a millisecond");
+        }
+        this.operator = operator;
+        this.clock = clock;
+        this.periodMillis = period.toMillis();
+    }
+
+    /*
+    Interest the account earned since its last accrual and not yet on its balance.
+     */
+    public long owed(Account account) {
+        return owed(account, clock.millis());
+    }
+
+    public long owed(Account account, long now) {
+        long periods = periods(account, now);
+        if (periods == 0) return 0;
+        double perPeriod = account.getInterestRate() * periodMillis / YEAR_MILLIS;
+        return Money.multiply(account.getAmmountMinor(), Math.expm1(periods * Math.log1p(perPeriod)));
+    }
+
+    /*
+    Balance the account would have if its interest were accrued now.
+     */
+    public Money projectedBalance(Account account) {
+        return Money.ofMinor(Money.add(account.getAmmountMinor(), owed(account)));
+    }
+
+    /*
+    Puts the owed interest on the balance and moves the last accrual forward
+    by the periods it covers, in memory only: it is stored with the next
+    updateAccountState. Returns the row booking it, null when nothing was owed.
+    An account with a rate but no last accrual starts accruing now.
+     */
+    public Interest accrue(Account account) {
+        long now = clock.millis();
+        if (account.getInterestRate() == 0) return null;
+        if (account.getLastAccrual() <= 0) {
+            account.setLastAccrual(now);
+            return null;
+        }
+        long periods = periods(account, now);
+        if (periods == 0) return null;
+        long interest = owed(account, now);
+        account.setLastAccrual(account.getLastAccrual() + periods * periodMillis);
+        if (interest <= 0) return null;
+        account.incomeMinor(interest);
+        return new Interest(operator, Money.ofMinor(interest), DESCRIPTION, account);
+    }
+
+    public User getOperator() {
+        return operator;
+    }
+
+    public long now() {
+        return clock.millis();
+    }
+
+    private long periods(Account account, long now) {
+        if (account.getInterestRate() == 0 || account.getLastAccrual() <= 0 || now <= account.getLastAccrual()) {
+            return 0;
+        }
+        return (now - account.getLastAccrual()) / periodMillis;
+    }
+}
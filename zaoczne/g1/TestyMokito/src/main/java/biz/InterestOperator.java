@@ -1,21 +1,37 @@
 package biz;
 
 import db.dao.DAO;
+import db.dao.UncheckedSQLException;
 import model.Account;
+import model.InterestCheckpoint;
+import model.Money;
 import model.Operation;
 import model.User;
 import model.operations.Interest;
 
 import java.sql.SQLException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by Krzysztof Podlaski on 07.03.2018.
  */
 public class InterestOperator {
+    public static final int DEFAULT_RANGE_SIZE = 1000;
+
     protected DAO dao;
     protected AccountManager accountManager;
     protected BankHistory bankHistory;
     private double interestFactor =.2;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int rangeSize = DEFAULT_RANGE_SIZE;
+    private boolean pushDown = false;
 
     public InterestOperator (DAO dao, AccountManager am){
         this.dao=dao;
@@ -23,8 +39,7 @@ public class InterestOperator {
     }
 
     public void countInterestForAccount(Account account) throws SQLException {
-        double ammount = account.getAmmount();
-        double interest = ammount*interestFactor;
+        double interest = Money.toDouble(Money.multiply(account.getAmmountMinor(), interestFactor));
         User user = dao.findUserByName("InterestOperator");
         String desc = "Interest ...";
         boolean success = accountManager.paymentIn(user,interest,desc,account.getId());
@@ -32,5 +47,202 @@ public class InterestOperator {
         bankHistory.logOperation(operation,success);
     }
 
+    public InterestSweepResult applyInterestToAll() throws SQLException {
+        return applyInterestToAll(null);
+    }
+
+    /*
+    Credits interest to every account. The id space is cut into ranges of
+    rangeSize ids, credited in parallel on a ForkJoinPool, each range in one
+    transaction with its history rows. Ranges committed before a failure
+    stay committed. progress may be null. In push-down mode the database
+    does the whole run as one range instead.
+     */
+    public InterestSweepResult applyInterestToAll(InterestProgress progress) throws SQLException {
+        User user = dao.findUserByName("InterestOperator");
+        if (user == null) {
+            throw new IllegalStateException("No InterestOperator user");
+        }
+        if (pushDown) {
+            long[] totals = accountManager.creditInterestToAll(user, interestFactor, "Interest ...");
+            if (progress != null) progress.rangeDone(1, 1, totals[0]);
+            return new InterestSweepResult(1, totals[0], totals[1]);
+        }
+        return sweep((afterId, toId) -> accountManager.creditInterest(user, afterId, toId, interestFactor,
+                "Interest ..."), progress);
+    }
+
+    /*
+    Resumable interest run, for when a rerun must not credit anyone twice.
+    Accounts up to the highest id at the run's start are read in id order,
+    rangeSize at a time, and each chunk is committed together with the run's
+    checkpoint: after a failure, calling it again with the same runId carries
+    on right after the last committed chunk. Only one chunk is held in memory.
+    A finished run is not run again, its final checkpoint is returned.
+     */
+    public InterestCheckpoint runInterest(String runId, InterestProgress progress) throws SQLException {
+        User user = dao.findUserByName("InterestOperator");
+        if (user == null) {
+            throw new IllegalStateException("No InterestOperator user");
+        }
+        InterestCheckpoint checkpoint = dao.findInterestCheckpoint(runId);
+        if (checkpoint == null) {
+            checkpoint = new InterestCheckpoint();
+            checkpoint.setRunId(runId);
+            checkpoint.setToAccountId(dao.findMaxAccountId());
+            checkpoint.setLastAccountId(Integer.MIN_VALUE);
+            if (!dao.saveInterestCheckpoint(checkpoint, null)) {
+                checkpoint = dao.findInterestCheckpoint(runId);
+            }
+        }
+        long chunks = 0;
+        while (!checkpoint.isFinished()) {
+            checkpoint = accountManager.creditInterestChunk(user, checkpoint, rangeSize, interestFactor, "Interest ...");
+            if (progress != null) progress.rangeDone(++chunks, 0, checkpoint.getAccounts());
+        }
+        return checkpoint;
+    }
+
+    /*
+    Compaction for the accrual mode of AccountManager: stores the interest
+    every account has accrued so far, range by range like applyInterestToAll.
+    Not needed for correct balances, it only keeps stored balances and the
+    history from lagging behind on accounts nobody touches.
+     */
+    public InterestSweepResult compactAccruals(InterestProgress progress) throws SQLException {
+        return sweep(accountManager::compactAccruals, progress);
+    }
+
+    /*
+    Runs compactAccruals in the background every interval. A failed run
+    stops the schedule and fails the returned future.
+     */
+    public ScheduledFuture<?> scheduleCompaction(ScheduledExecutorService scheduler, Duration interval) {
+        return scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                compactAccruals(null);
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+        }, interval.toMillis(), interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private InterestSweepResult sweep(RangeWork work, InterestProgress progress) throws SQLException {
+        int maxId = dao.findMaxAccountId();
+        List<Account> first = dao.findAccountsInRange(Integer.MIN_VALUE, maxId, 1);
+        if (first.isEmpty()) return new InterestSweepResult(0, 0, 0);
+        long from = first.get(0).getId();
+        long ranges = (maxId - from) / rangeSize + 1;
+        Sweep sweep = new Sweep(work, ranges, progress);
+        try (ForkJoinPool pool = new ForkJoinPool(sweepThreads())) {
+            long[] totals = pool.invoke(sweep.new Range(from, maxId));
+            return new InterestSweepResult(ranges, totals[0], totals[1]);
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+    }
+
+    /*
+    Only the reads of ranges can overlap, their writes take turns on the
+    single writer anyway. A DAO without a reader pool serializes the reads
+    too, so there the ranges run one after another.
+     */
+    int sweepThreads() {
+        return Math.max(1, Math.min(parallelism, dao.getConcurrentReaders()));
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
 
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1 || parallelism > 0x7fff) {
+            throw new IllegalArgumentException("Parallelism must be between 1 and 32767");
+        }
+        this.parallelism = parallelism;
+    }
+
+    public boolean isPushDown() {
+        return pushDown;
+    }
+
+    /*
+    Push-down mode runs applyInterestToAll as set-based statements in one
+    transaction, for flat-rate runs on a database. Results are the same as
+    the range sweep's; it needs AccountManager without a pipeline.
+     */
+    public void setPushDown(boolean pushDown) {
+        this.pushDown = pushDown;
+    }
+
+    public int getRangeSize() {
+        return rangeSize;
+    }
+
+    public void setRangeSize(int rangeSize) {
+        if (rangeSize < 1) {
+            throw new IllegalArgumentException("Range size must be positive");
+        }
+        this.rangeSize = rangeSize;
+    }
+
+    /*
+    Books the interest of accounts with afterId < id <= toId, returns {accounts, interest}.
+     */
+    private interface RangeWork {
+        long[] run(int afterId, int toId) throws SQLException;
+    }
+
+    /**
+     * State shared by the ranges of one sweep.
+     */
+    private class Sweep {
+        private final RangeWork work;
+        private final long ranges;
+        private final InterestProgress progress;
+        private final AtomicLong rangesDone = new AtomicLong();
+        private final AtomicLong accountsCredited = new AtomicLong();
+
+        Sweep(RangeWork work, long ranges, InterestProgress progress) {
+            this.work = work;
+            this.ranges = ranges;
+            this.progress = progress;
+        }
+
+        /*
+        Ids from..to inclusive, split on range boundaries until one range is left.
+         */
+        private class Range extends RecursiveTask<long[]> {
+            private final long from;
+            private final long to;
+
+            Range(long from, long to) {
+                this.from = from;
+                this.to = to;
+            }
+
+            @Override
+            protected long[] compute() {
+                long count = (to - from) / rangeSize + 1;
+                if (count > 1) {
+                    long mid = from + count / 2 * rangeSize;
+                    Range left = new Range(from, mid - 1);
+                    left.fork();
+                    long[] right = new Range(mid, to).compute();
+                    long[] done = left.join();
+                    return new long[]{done[0] + right[0], done[1] + right[1]};
+                }
+                long[] totals;
+                try {
+                    totals = work.run((int) Math.max(from - 1, Integer.MIN_VALUE), (int) to);
+                } catch (SQLException e) {
+                    throw new UncheckedSQLException(e);
+                }
+                long credited = accountsCredited.addAndGet(totals[0]);
+                long done = rangesDone.incrementAndGet();
+                if (progress != null) progress.rangeDone(done, ranges, credited);
+                return totals;
+            }
+        }
+    }
 }
@@ -0,0 +1,14 @@
+package biz;
+
+/**
+ * Progress of an {@link InterestOperator} run (applyInterestToAll,
+ * compactAccruals or runInterest), told after every committed range.
+ * Sweeps call it from their worker threads, concurrently, so
+ * implementations have to be thread-safe.
+ */
+public interface InterestProgress {
+    /*
+    ranges is 0 when the total is not known in advance, as for runInterest.
+     */
+    void rangeDone(long rangesDone, long ranges, long accountsCredited);
+}
@@ -0,0 +1,31 @@
+package biz;
+
+import model.Money;
+
+/**
+ * Outcome of an {@link InterestOperator} sweep: how many id
+ * ranges were committed, how many accounts were credited and with how much.
+ */
+public class InterestSweepResult {
+    private final long ranges;
+    private final long accounts;
+    private final long interest;
+
+    InterestSweepResult(long ranges, long accounts, long interest) {
+        this.ranges = ranges;
+        this.accounts = accounts;
+        this.interest = interest;
+    }
+
+    public long getRanges() {
+        return ranges;
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    public Money getInterest() {
+        return Money.ofMinor(interest);
+    }
+}
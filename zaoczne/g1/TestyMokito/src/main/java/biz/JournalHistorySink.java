@@ -0,0 +1,40 @@
+package biz;
+
+import db.journal.OperationJournal;
+import model.Operation;
+
+import java.io.IOException;
+import java.sql.SQLException;
+
+/**
+ * Logs operations into an {@link OperationJournal} instead of the database,
+ * keeping audit logging off the connection used for payments. The journal
+ * is read back with {@link OperationJournal#scan()}, not through the DAO.
+ */
+public class JournalHistorySink implements HistorySink {
+    private final OperationJournal journal;
+
+    public JournalHistorySink(OperationJournal journal) {
+        this.journal = journal;
+    }
+
+    public void logOperation(Operation operation, boolean success) throws SQLException {
+        try {
+            journal.append(operation, success);
+        } catch (IOException e) {
+            throw new SQLException("Could not append to the operation journal", e);
+        }
+    }
+
+    public void flush() throws SQLException {
+        journal.force();
+    }
+
+    public void close() throws SQLException {
+        journal.close();
+    }
+
+    public OperationJournal getJournal() {
+        return journal;
+    }
+}
@@ -0,0 +1,52 @@
+package biz;
+
+import model.Money;
+import model.User;
+
+/**
+ * One transfer of a batch, see {@link AccountManager#executeBatch(java.util.List)}.
+ * Same arguments as AccountManager.internalPayment.
+ */
+public class TransferRequest {
+    private final User user;
+    private final long ammount;
+    private final String description;
+    private final int sourceAccountId;
+    private final int destAccountId;
+
+    public TransferRequest(User user, double ammount, String description, int sourceAccountId, int destAccountId) {
+        this(user, Money.of(ammount), description, sourceAccountId, destAccountId);
+    }
+
+    public TransferRequest(User user, Money ammount, String description, int sourceAccountId, int destAccountId) {
+        this.user = user;
+        this.ammount = ammount.getMinorUnits();
+        this.description = description;
+        this.sourceAccountId = sourceAccountId;
+        this.destAccountId = destAccountId;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public double getAmmount() {
+        return Money.toDouble(ammount);
+    }
+
+    public long getAmmountMinor() {
+        return ammount;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getSourceAccountId() {
+        return sourceAccountId;
+    }
+
+    public int getDestAccountId() {
+        return destAccountId;
+    }
+}
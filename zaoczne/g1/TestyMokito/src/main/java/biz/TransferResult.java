@@ -0,0 +1,42 @@
+package biz;
+
+/**
+ * Outcome of one {@link TransferRequest} of a batch.
+ */
+public class TransferResult {
+    public enum Status {
+        COMPLETED,
+        INSUFFICIENT_FUNDS,
+        UNAUTHORIZED,
+        UNKNOWN_ACCOUNT,
+        /* negative ammount or no user, the cases internalPayment rejects with IllegalArgumentException */
+        INVALID
+    }
+
+    private final TransferRequest request;
+    private final Status status;
+
+    public TransferResult(TransferRequest request, Status status) {
+        this.request = request;
+        this.status = status;
+    }
+
+    public TransferRequest getRequest() {
+        return request;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return status == Status.COMPLETED;
+    }
+
+    /*
+    Items that reached the balances, successful or not, are logged and published.
+     */
+    boolean isProcessed() {
+        return status == Status.COMPLETED || status == Status.INSUFFICIENT_FUNDS;
+    }
+}
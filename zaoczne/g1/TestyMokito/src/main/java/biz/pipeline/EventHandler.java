@@ -0,0 +1,10 @@
+package biz.pipeline;
+
+/**
+ * One stage of the {@link OperationPipeline}, e.g. metrics or fraud
+ * checks. Each stage is called from its own thread, in
+ * sequence order; endOfBatch marks the last event currently available.
+ */
+public interface EventHandler {
+    void onEvent(OperationEvent event, long sequence, boolean endOfBatch) throws Exception;
+}
@@ -0,0 +1,37 @@
+package biz.pipeline;
+
+import model.Money;
+import model.operations.OperationType;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Pipeline stage counting operations per type and outcome and summing
+ * their ammounts. Only the stage thread writes, any thread may read.
+ */
+public class MetricsStage implements EventHandler {
+    private static final int TYPES = OperationType.values().length;
+
+    private final AtomicLongArray counts = new AtomicLongArray(TYPES * 2);
+    private final AtomicLongArray ammounts = new AtomicLongArray(TYPES);
+
+    public void onEvent(OperationEvent event, long sequence, boolean endOfBatch) {
+        int type = event.getType().ordinal();
+        int count = type * 2 + (event.isSuccess() ? 1 : 0);
+        counts.lazySet(count, counts.get(count) + 1);
+        if (event.isSuccess()) {
+            ammounts.lazySet(type, ammounts.get(type) + event.getAmmountMinor());
+        }
+    }
+
+    public long getCount(OperationType type, boolean success) {
+        return counts.get(type.ordinal() * 2 + (success ? 1 : 0));
+    }
+
+    /*
+    Sum of the ammounts of successful operations.
+     */
+    public double getAmmount(OperationType type) {
+        return Money.toDouble(ammounts.get(type.ordinal()));
+    }
+}
@@ -0,0 +1,92 @@
+package biz.pipeline;
+
+import model.Account;
+import model.Money;
+import model.Operation;
+import model.User;
+import model.operations.OperationType;
+import model.operations.Operations;
+
+import java.util.Date;
+
+/**
+ * One preallocated slot of the {@link OperationPipeline} ring. Slots are
+ * overwritten once every stage has passed them, so handlers must copy what
+ * they want to keep instead of holding on to the event.
+ */
+public class OperationEvent {
+    /* user or account id of an operation without one */
+    public static final int NONE = -1;
+
+    private OperationType type;
+    private int userId = NONE;
+    private int accountId = NONE;
+    private long ammount;
+    private String description;
+    private boolean success;
+    private long timestamp;
+
+    void set(OperationType type, int userId, int accountId, long ammount, String description,
+             boolean success, long timestamp) {
+        this.type = type;
+        this.userId = userId;
+        this.accountId = accountId;
+        this.ammount = ammount;
+        this.description = description;
+        this.success = success;
+        this.timestamp = timestamp;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public int getUserId() {
+        return userId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+
+    public double getAmmount() {
+        return Money.toDouble(ammount);
+    }
+
+    public long getAmmountMinor() {
+        return ammount;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /*
+    Allocates, meant for stages that hand the operation on, e.g. to the DAO.
+    User and account carry only their ids.
+     */
+    public Operation toOperation() {
+        User user = null;
+        if (userId != NONE) {
+            user = new User();
+            user.setId(userId);
+        }
+        Account account = null;
+        if (accountId != NONE) {
+            account = new Account();
+            account.setId(accountId);
+        }
+        Operation operation = Operations.create(type, user, Money.ofMinor(ammount), description, account);
+        operation.setDate(new Date(timestamp));
+        operation.setSuccessful(success);
+        return operation;
+    }
+}
@@ -0,0 +1,155 @@
+package biz.pipeline;
+
+import model.Money;
+import model.operations.OperationType;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disruptor-style pipeline for bank operations. Operations are written into
+ * the preallocated, mutable events of a ring instead of being built as
+ * Operation objects, and every stage added with {@link #addStage} reads them
+ * on its own thread, keeping its own sequence. The producer only waits when
+ * it would overwrite an event the slowest stage has not seen yet.
+ * <p>
+ * Publishing allocates nothing. The ring has a single writer, so
+ * concurrent publishers are serialized on the pipeline.
+ * <p>
+ * The pipeline only feeds metrics and fraud checks. It is not a path for
+ * history: AccountManager still builds its Operation rows and writes them
+ * through BankHistory in the payment's transaction, so the payment path as
+ * a whole is not allocation-free, only the publishing is.
+ */
+public class OperationPipeline implements AutoCloseable {
+    public static final int DEFAULT_CAPACITY = 1 << 14;
+
+    private final OperationRing ring;
+    private final List<StageRunner> stages = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private boolean started = false;
+    private boolean closed = false;
+    private final AtomicLong dropped = new AtomicLong();
+
+    public OperationPipeline() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /*
+    capacity must be a power of two.
+     */
+    public OperationPipeline(int capacity) {
+        this.ring = new OperationRing(capacity);
+    }
+
+    public synchronized void addStage(String name, EventHandler handler) {
+        if (started) {
+            throw new IllegalStateException("Stages must be added before the pipeline starts");
+        }
+        for (StageRunner stage : stages) {
+            if (stage.getName().equals(name)) {
+                throw new IllegalArgumentException("Stage " + name + " already exists");
+            }
+        }
+        StageRunner stage = new StageRunner(name, handler, ring);
+        ring.addGatingSequence(stage.getSequence());
+        stages.add(stage);
+    }
+
+    public synchronized void start() {
+        if (started) return;
+        started = true;
+        for (StageRunner stage : stages) {
+            Thread thread = new Thread(stage, "pipeline-" + stage.getName());
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+    }
+
+    /*
+    Use OperationEvent.NONE for a missing user or account.
+     */
+    public void publish(OperationType type, int userId, int accountId, double ammount,
+                        String description, boolean success) {
+        publishMinor(type, userId, accountId, Money.toMinor(ammount), description, success);
+    }
+
+    public synchronized void publishMinor(OperationType type, int userId, int accountId, long ammount,
+                                          String description, boolean success) {
+        if (!started || closed) {
+            throw new IllegalStateException("Pipeline is not running");
+        }
+        long sequence = ring.next();
+        ring.get(sequence).set(type, userId, accountId, ammount, description, success, System.currentTimeMillis());
+        ring.publish(sequence);
+    }
+
+    /*
+    Like publishMinor, but an event for a pipeline not running is dropped
+    and counted instead of failing the caller. Returns false when dropped.
+     */
+    public synchronized boolean tryPublishMinor(OperationType type, int userId, int accountId, long ammount,
+                                                String description, boolean success) {
+        if (!started || closed) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        publishMinor(type, userId, accountId, ammount, description, success);
+        return true;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getCursor() {
+        return ring.getCursor();
+    }
+
+    public int getCapacity() {
+        return ring.getCapacity();
+    }
+
+    /*
+    Sequence of the last event the stage has processed, -1 before the first.
+     */
+    public long getStageSequence(String name) {
+        return stage(name).getSequence().get();
+    }
+
+    public long getStageFailureCount(String name) {
+        return stage(name).getFailureCount();
+    }
+
+    /*
+    Stages process everything published so far before their threads end.
+     */
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (StageRunner stage : stages) {
+            stage.halt();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    private StageRunner stage(String name) {
+        for (StageRunner stage : stages) {
+            if (stage.getName().equals(name)) return stage;
+        }
+        throw new IllegalArgumentException("No stage " + name);
+    }
+}
@@ -0,0 +1,91 @@
+package biz.pipeline;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Fixed ring of preallocated events with one producer. The producer claims
+ * a sequence with {@link #next()}, fills the slot and makes it visible with
+ * {@link #publish(long)}; it waits while claiming would overwrite a slot a
+ * stage has not processed yet. Not thread-safe on the producer side, the
+ * pipeline serializes publishers.
+ */
+class OperationRing {
+    private final OperationEvent[] slots;
+    private final int mask;
+    private final Sequence cursor = new Sequence();
+    private volatile Sequence[] gating = new Sequence[0];
+    private long nextSequence = Sequence.INITIAL + 1;
+    private long cachedGating = Sequence.INITIAL;
+
+    OperationRing(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Ring capacity must be a power of two");
+        }
+        slots = new OperationEvent[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new OperationEvent();
+        }
+        mask = capacity - 1;
+    }
+
+    int getCapacity() {
+        return slots.length;
+    }
+
+    void addGatingSequence(Sequence sequence) {
+        Sequence[] current = gating;
+        Sequence[] updated = Arrays.copyOf(current, current.length + 1);
+        updated[current.length] = sequence;
+        gating = updated;
+    }
+
+    long next() {
+        long sequence = nextSequence;
+        long wrapPoint = sequence - slots.length;
+        if (wrapPoint > cachedGating) {
+            int idle = 0;
+            long minimum;
+            while (wrapPoint > (minimum = minimumGating(sequence - 1))) {
+                idle = backOff(idle);
+            }
+            cachedGating = minimum;
+        }
+        nextSequence = sequence + 1;
+        return sequence;
+    }
+
+    OperationEvent get(long sequence) {
+        return slots[(int) sequence & mask];
+    }
+
+    void publish(long sequence) {
+        cursor.set(sequence);
+    }
+
+    long getCursor() {
+        return cursor.get();
+    }
+
+    private long minimumGating(long minimum) {
+        for (Sequence sequence : gating) {
+            minimum = Math.min(minimum, sequence.get());
+        }
+        return minimum;
+    }
+
+    /*
+    Spin, then yield, then park briefly; none of it allocates.
+     */
+    static int backOff(int idle) {
+        if (idle < 100) {
+            Thread.onSpinWait();
+        } else if (idle < 200) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(1_000L);
+            return idle;
+        }
+        return idle + 1;
+    }
+}
@@ -0,0 +1,35 @@
+package biz.pipeline;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * Sequence number of the ring cursor or of one stage. The value is
+ * surrounded by unused longs, so sequences written by different threads
+ * do not end up in the same cache line.
+ */
+class Sequence {
+    static final long INITIAL = -1;
+
+    private static final VarHandle VALUE;
+
+    static {
+        try {
+            VALUE = MethodHandles.lookup().findVarHandle(Sequence.class, "value", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    long p1, p2, p3, p4, p5, p6, p7;
+    private long value = INITIAL;
+    long p9, p10, p11, p12, p13, p14, p15;
+
+    long get() {
+        return (long) VALUE.getAcquire(this);
+    }
+
+    void set(long value) {
+        VALUE.setRelease(this, value);
+    }
+}
@@ -0,0 +1,63 @@
+package biz.pipeline;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs one {@link EventHandler}, following the ring cursor with its own
+ * sequence. A handler failure is counted and the stage moves on. When
+ * halted it first catches up with everything already published.
+ */
+class StageRunner implements Runnable {
+    private final String name;
+    private final EventHandler handler;
+    private final OperationRing ring;
+    private final Sequence sequence = new Sequence();
+    private final AtomicLong failures = new AtomicLong();
+    private volatile boolean running = true;
+
+    StageRunner(String name, EventHandler handler, OperationRing ring) {
+        this.name = name;
+        this.handler = handler;
+        this.ring = ring;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    Sequence getSequence() {
+        return sequence;
+    }
+
+    long getFailureCount() {
+        return failures.get();
+    }
+
+    void halt() {
+        running = false;
+    }
+
+    public void run() {
+        long next = sequence.get() + 1;
+        int idle = 0;
+        while (true) {
+            long available = ring.getCursor();
+            if (available >= next) {
+                for (; next <= available; next++) {
+                    try {
+                        handler.onEvent(ring.get(next), next, next == available);
+                    } catch (Exception e) {
+                        failures.incrementAndGet();
+                    }
+                }
+                sequence.set(available);
+                idle = 0;
+            } else if (!running && ring.getCursor() < next) {
+                /* cursor read again, halt() may have come right after a publish */
+                break;
+            } else {
+                idle = OperationRing.backOff(idle);
+            }
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package biz.recovery;
+
+import db.dao.DAO;
+import db.dao.OperationQuery;
+import model.Account;
+import model.Money;
+import model.Operation;
+import model.operations.OperationType;
+import model.operations.Payment;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Point-in-time balance snapshots and replay of the history after them.
+ * <p>
+ * A snapshot records every account balance together with the id of the
+ * last logged operation. Replay starts from the latest snapshot and applies
+ * the successful PAYMENT_IN and WITHDRAW operations logged after it. The
+ * history is read once and its rows are fanned out to one thread per
+ * partition of the account id space. INTEREST rows are not applied:
+ * InterestOperator books the money as a PAYMENT_IN and logs the INTEREST
+ * row only for the record.
+ * <p>
+ * This relies on balances and history being committed together, as
+ * AccountManager does when it logs through BankHistory without a sink.
+ * Operations still queued in an asynchronous sink are not seen.
+ */
+public class BalanceRecovery {
+    public static final int PAGE_SIZE = 1000;
+    private static final int FAN_OUT_BATCH = 1024;
+    private static final int FAN_OUT_QUEUE = 4;
+    private static final long[] END = new long[0];
+    private static final String PREFIX = "balances-";
+    private static final String SUFFIX = ".snap";
+
+    private final DAO dao;
+    private final Path directory;
+    private final int partitions;
+    int pageSize = PAGE_SIZE;
+
+    public BalanceRecovery(DAO dao, Path directory, int partitions) {
+        if (partitions < 1) {
+            throw new IllegalArgumentException("At least one partition is needed");
+        }
+        this.dao = dao;
+        this.directory = directory;
+        this.partitions = partitions;
+    }
+
+    /*
+    Each page of accounts is read together with the last operation id in a
+    unit of work of its own, so payments wait for one page at most, not for
+    the whole scan. Pages read earlier are then brought forward to the last
+    page's operation id with the history logged in between, which makes
+    balances and lastOperationId match.
+     */
+    public BalanceSnapshot takeSnapshot() throws SQLException, IOException {
+        int[] ids = new int[pageSize];
+        long[] balances = new long[pageSize];
+        int[] seenAt = new int[pageSize];
+        int count = 0;
+        int firstOperationId = -1;
+        int lastOperationId = 0;
+        int after = Integer.MIN_VALUE;
+        List<Account> page;
+        do {
+            dao.beginTransaction();
+            try {
+                lastOperationId = dao.findLastOperationId();
+                page = dao.findAccountsInRange(after, Integer.MAX_VALUE, pageSize);
+                dao.commitTransaction();
+            } catch (SQLException | RuntimeException e) {
+                dao.rollbackTransaction();
+                throw e;
+            }
+            if (firstOperationId < 0) firstOperationId = lastOperationId;
+            if (count + page.size() > ids.length) {
+                ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + page.size()));
+                balances = Arrays.copyOf(balances, ids.length);
+                seenAt = Arrays.copyOf(seenAt, ids.length);
+            }
+            for (Account account : page) {
+                ids[count] = account.getId();
+                balances[count] = account.getAmmountMinor();
+                seenAt[count] = lastOperationId;
+                count++;
+                after = account.getId();
+            }
+        } while (page.size() == pageSize);
+        if (firstOperationId < lastOperationId) {
+            catchUp(ids, balances, seenAt, count, firstOperationId, lastOperationId);
+        }
+        BalanceSnapshot snapshot = new BalanceSnapshot(System.currentTimeMillis(), lastOperationId,
+                Arrays.copyOf(ids, count), Arrays.copyOf(balances, count));
+        save(snapshot);
+        return snapshot;
+    }
+
+    /*
+    Applies to each account the operations after the one it was read at, up to upTo.
+     */
+    private void catchUp(int[] ids, long[] balances, int[] seenAt, int count, int from, int upTo)
+            throws SQLException {
+        try (Stream<Operation> operations = dao.findOperations(paymentsAfter(from))) {
+            Iterator<Operation> it = operations.iterator();
+            while (it.hasNext()) {
+                Operation operation = it.next();
+                if (operation.getId() > upTo) break;
+                if (!operation.isSuccessful()) continue;
+                Payment payment = (Payment) operation;
+                if (payment.getAccount() == null) continue;
+                int index = Arrays.binarySearch(ids, 0, count, payment.getAccount().getId());
+                if (index < 0 || operation.getId() <= seenAt[index]) continue;
+                balances[index] = Money.add(balances[index], delta(payment));
+            }
+        }
+    }
+
+    public void save(BalanceSnapshot snapshot) throws IOException {
+        Files.createDirectories(directory);
+        snapshot.writeTo(directory.resolve(String.format("%s%010d%s", PREFIX, snapshot.getLastOperationId(), SUFFIX)));
+    }
+
+    /*
+    The snapshot covering the most operations, null if there is none.
+     */
+    public BalanceSnapshot latestSnapshot() throws IOException {
+        if (!Files.isDirectory(directory)) return null;
+        Path latest = null;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : files) {
+                if (latest == null || file.getFileName().toString().compareTo(latest.getFileName().toString()) > 0) {
+                    latest = file;
+                }
+            }
+        }
+        return latest == null ? null : BalanceSnapshot.readFrom(latest);
+    }
+
+    /*
+    Rebuilds the balances of the latest snapshot's accounts up to the newest
+    operation logged when the replay starts.
+     */
+    public ReplayResult replay() throws SQLException, IOException {
+        BalanceSnapshot base = latestSnapshot();
+        if (base == null) {
+            throw new IllegalStateException("No balance snapshot in " + directory);
+        }
+        return replay(base);
+    }
+
+    /*
+    The caller's thread reads the history once and hands each row, as an
+    index into the snapshot and a signed ammount, to the thread owning that
+    index. Partitions own disjoint slices of the arrays.
+     */
+    public ReplayResult replay(BalanceSnapshot base) throws SQLException {
+        int upTo = dao.findLastOperationId();
+        int size = base.size();
+        int[] ids = new int[size];
+        long[] balances = new long[size];
+        for (int i = 0; i < size; i++) {
+            ids[i] = base.getAccountId(i);
+            balances[i] = base.getBalance(i);
+        }
+        int parts = Math.max(1, Math.min(partitions, size));
+        int[] starts = new int[parts];
+        List<BlockingQueue<long[]>> queues = new ArrayList<>(parts);
+        List<Future<Long>> results = new ArrayList<>(parts);
+        long applied = 0;
+        long skipped = 0;
+        try (ExecutorService executor = Executors.newFixedThreadPool(parts)) {
+            for (int p = 0; p < parts; p++) {
+                starts[p] = (int) ((long) size * p / parts);
+                BlockingQueue<long[]> queue = new ArrayBlockingQueue<>(FAN_OUT_QUEUE);
+                queues.add(queue);
+                results.add(executor.submit(() -> applyPartition(queue, balances)));
+            }
+            long[][] pending = new long[parts][2 * FAN_OUT_BATCH];
+            int[] filled = new int[parts];
+            try (Stream<Operation> operations = dao.findOperations(paymentsAfter(base.getLastOperationId()))) {
+                Iterator<Operation> it = operations.iterator();
+                while (it.hasNext()) {
+                    Operation operation = it.next();
+                    if (operation.getId() > upTo) break;
+                    if (!operation.isSuccessful()) continue;
+                    Payment payment = (Payment) operation;
+                    int index = payment.getAccount() == null
+                            ? -1 : Arrays.binarySearch(ids, payment.getAccount().getId());
+                    if (index < 0) {
+                        skipped++;
+                        continue;
+                    }
+                    int p = partitionOf(starts, index);
+                    pending[p][filled[p]++] = index;
+                    pending[p][filled[p]++] = delta(payment);
+                    if (filled[p] == pending[p].length) {
+                        hand(queues.get(p), pending[p], filled[p]);
+                        filled[p] = 0;
+                    }
+                }
+                for (int p = 0; p < parts; p++) {
+                    if (filled[p] > 0) hand(queues.get(p), pending[p], filled[p]);
+                }
+            } finally {
+                for (BlockingQueue<long[]> queue : queues) hand(queue, END, 0);
+            }
+            for (Future<Long> result : results) {
+                applied += await(result);
+            }
+            BalanceSnapshot rebuilt = new BalanceSnapshot(System.currentTimeMillis(),
+                    Math.max(upTo, base.getLastOperationId()), ids, balances);
+            return new ReplayResult(rebuilt, applied, skipped);
+        }
+    }
+
+    /*
+    Ids of accounts whose stored balance differs from the given one. Balances
+    are exact minor units, so any difference is real. Accounts missing from
+    the snapshot are not compared.
+     */
+    public List<Integer> reconcile(BalanceSnapshot expected) throws SQLException {
+        List<Integer> mismatches = new ArrayList<>();
+        int after = Integer.MIN_VALUE;
+        List<Account> page;
+        do {
+            page = dao.findAccountsInRange(after, Integer.MAX_VALUE, PAGE_SIZE);
+            for (Account account : page) {
+                after = account.getId();
+                int index = expected.indexOf(account.getId());
+                if (index >= 0 && account.getAmmountMinor() != expected.getBalance(index)) {
+                    mismatches.add(account.getId());
+                }
+            }
+        } while (page.size() == PAGE_SIZE);
+        return mismatches;
+    }
+
+    /*
+    Writes the given balances back in one unit of work, touching only the
+    accounts that differ. Returns the number of accounts updated.
+     */
+    public int restore(BalanceSnapshot balances) throws SQLException {
+        int updated = 0;
+        dao.beginTransaction();
+        try {
+            int after = Integer.MIN_VALUE;
+            List<Account> page;
+            do {
+                page = dao.findAccountsInRange(after, Integer.MAX_VALUE, PAGE_SIZE);
+                for (Account account : page) {
+                    after = account.getId();
+                    int index = balances.indexOf(account.getId());
+                    if (index < 0 || account.getAmmountMinor() == balances.getBalance(index)) continue;
+                    account.setAmmountMinor(balances.getBalance(index));
+                    if (dao.updateAccountState(account)) updated++;
+                }
+            } while (page.size() == PAGE_SIZE);
+            dao.commitTransaction();
+        } catch (SQLException | RuntimeException e) {
+            dao.rollbackTransaction();
+            throw e;
+        }
+        return updated;
+    }
+
+    /*
+    Runs on the partition's thread until END. A failure is kept and the
+    rest of the queue drained, so the reading thread never blocks on it.
+    Returns the number of operations applied.
+     */
+    private static long applyPartition(BlockingQueue<long[]> queue, long[] balances) {
+        long applied = 0;
+        RuntimeException failure = null;
+        while (true) {
+            long[] batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while replaying the history", e);
+            }
+            if (batch == END) break;
+            if (failure != null) continue;
+            try {
+                for (int i = 0; i < batch.length; i += 2) {
+                    int index = (int) batch[i];
+                    balances[index] = Money.add(balances[index], batch[i + 1]);
+                    applied++;
+                }
+            } catch (RuntimeException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+        return applied;
+    }
+
+    private static void hand(BlockingQueue<long[]> queue, long[] pending, int filled) throws SQLException {
+        try {
+            queue.put(pending == END ? END : Arrays.copyOf(pending, filled));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while replaying the history", e);
+        }
+    }
+
+    private static int partitionOf(int[] starts, int index) {
+        int p = Arrays.binarySearch(starts, index);
+        if (p >= 0) {
+            /* partitions of an empty slice share a start, the last of them owns the index */
+            while (p + 1 < starts.length && starts[p + 1] == index) p++;
+            return p;
+        }
+        return -p - 2;
+    }
+
+    private static OperationQuery paymentsAfter(int operationId) {
+        OperationQuery query = new OperationQuery();
+        query.setAfterOperationId(operationId);
+        query.setTypes(EnumSet.of(OperationType.PAYMENT_IN, OperationType.WITHDRAW));
+        query.setPageSize(PAGE_SIZE);
+        return query;
+    }
+
+    private static long delta(Payment payment) {
+        return payment.getType() == OperationType.WITHDRAW
+                ? Math.negateExact(payment.getAmmountMinor()) : payment.getAmmountMinor();
+    }
+
+    private static long await(Future<Long> result) throws SQLException {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while replaying the history", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new SQLException(e.getCause());
+        }
+    }
+}
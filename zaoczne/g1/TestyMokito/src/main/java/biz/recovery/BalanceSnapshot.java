@@ -0,0 +1,155 @@
+package biz.recovery;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Balances of all accounts at one point of the history: after the operation
+ * with id lastOperationId and before the next one. Account ids are kept
+ * sorted in a plain int array next to a long array of balances in minor
+ * units (see {@link model.Money}).
+ * <p>
+ * File layout: magic, format version, creation time, lastOperationId,
+ * account count, then (id, balance) pairs and a CRC32C of everything before it.
+ */
+public class BalanceSnapshot {
+    private static final int MAGIC = 0x42414C53;
+    private static final short VERSION = 2;
+    private static final int RECORD_SIZE = 12;
+
+    private final long createdAt;
+    private final int lastOperationId;
+    private final int[] accountIds;
+    private final long[] balances;
+
+    /*
+    accountIds must be sorted ascending; the arrays are taken over, not copied.
+     */
+    public BalanceSnapshot(long createdAt, int lastOperationId, int[] accountIds, long[] balances) {
+        if (accountIds.length != balances.length) {
+            throw new IllegalArgumentException("Every account needs its balance");
+        }
+        for (int i = 1; i < accountIds.length; i++) {
+            if (accountIds[i - 1] >= accountIds[i]) {
+                throw new IllegalArgumentException("Account ids must be sorted and unique");
+            }
+        }
+        this.createdAt = createdAt;
+        this.lastOperationId = lastOperationId;
+        this.accountIds = accountIds;
+        this.balances = balances;
+    }
+
+    public long getCreatedAt() {
+        return createdAt;
+    }
+
+    public int getLastOperationId() {
+        return lastOperationId;
+    }
+
+    public int size() {
+        return accountIds.length;
+    }
+
+    public int getAccountId(int index) {
+        return accountIds[index];
+    }
+
+    public long getBalance(int index) {
+        return balances[index];
+    }
+
+    public boolean contains(int accountId) {
+        return indexOf(accountId) >= 0;
+    }
+
+    /*
+    Negative when the account is not in the snapshot.
+     */
+    public int indexOf(int accountId) {
+        return Arrays.binarySearch(accountIds, accountId);
+    }
+
+    public long getBalanceOf(int accountId) {
+        int index = indexOf(accountId);
+        if (index < 0) {
+            throw new IllegalArgumentException("Account " + accountId + " is not in the snapshot");
+        }
+        return balances[index];
+    }
+
+    /*
+    Written to a temporary file first, forced to disk and moved into place,
+    a crash never leaves half a snapshot.
+     */
+    public void writeTo(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                     new CheckedOutputStream(Channels.newOutputStream(channel), crc)))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(createdAt);
+            out.writeInt(lastOperationId);
+            out.writeInt(accountIds.length);
+            for (int i = 0; i < accountIds.length; i++) {
+                out.writeInt(accountIds[i]);
+                out.writeLong(balances[i]);
+            }
+            out.flush();
+            out.writeInt((int) crc.getValue());
+            out.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static BalanceSnapshot readFrom(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        long size = Files.size(file);
+        /* checked below the data stream, so the CRC covers exactly the bytes read */
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(file)), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(file + " is not a balance snapshot");
+            }
+            short version = in.readShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version + " in " + file);
+            }
+            long createdAt = in.readLong();
+            int lastOperationId = in.readInt();
+            int count = in.readInt();
+            if (count < 0 || count > size / RECORD_SIZE) {
+                throw new IOException("Corrupted balance snapshot " + file);
+            }
+            int[] accountIds = new int[count];
+            long[] balances = new long[count];
+            for (int i = 0; i < count; i++) {
+                accountIds[i] = in.readInt();
+                balances[i] = in.readLong();
+            }
+            int expected = (int) crc.getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Corrupted balance snapshot " + file + ": CRC mismatch");
+            }
+            return new BalanceSnapshot(createdAt, lastOperationId, accountIds, balances);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package biz.recovery;
+
+/**
+ * Outcome of {@link BalanceRecovery#replay()}: the rebuilt balances and how
+ * many operations were applied or skipped on the way.
+ */
+public class ReplayResult {
+    private final BalanceSnapshot balances;
+    private final long applied;
+    private final long skipped;
+
+    ReplayResult(BalanceSnapshot balances, long applied, long skipped) {
+        this.balances = balances;
+        this.applied = applied;
+        this.skipped = skipped;
+    }
+
+    public BalanceSnapshot getBalances() {
+        return balances;
+    }
+
+    public long getApplied() {
+        return applied;
+    }
+
+    /*
+    Successful operations on accounts the base snapshot does not know, i.e.
+    accounts opened after it; their balances cannot be rebuilt from the history.
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+}
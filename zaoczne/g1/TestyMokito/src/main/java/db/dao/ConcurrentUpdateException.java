@@ -0,0 +1,21 @@
+package db.dao;
+
+import java.sql.SQLTransactionRollbackException;
+
+/**
+ * An account changed between reading it and writing it back: its version
+ * no longer matches the one read. The unit of work must be rolled back and
+ * retried with a fresh read.
+ */
+public class ConcurrentUpdateException extends SQLTransactionRollbackException {
+    private final int accountId;
+
+    public ConcurrentUpdateException(int accountId, long expectedVersion) {
+        super("Account " + accountId + " is no longer at version " + expectedVersion, "40001");
+        this.accountId = accountId;
+    }
+
+    public int getAccountId() {
+        return accountId;
+    }
+}
@@ -6,17 +6,81 @@ import model.Password;
 import model.User;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Created by Krzysztof Podlaski on 04.03.2018.
+ * <p>
+ * Methods only some stores or features need come from the small capability
+ * interfaces it extends, whose defaults refuse the call; an implementation
+ * overrides the ones it supports.
  */
-public interface DAO {
+public interface DAO extends HistoryQueries, InterestCheckpoints, ReplayPositions, SetBasedInterest {
     User findUserByName(String userName) throws SQLException;
+    User findUserById(int userId) throws SQLException;
     Password findPasswordForUser(User user) throws SQLException;
     Account findAccountById(int accountId) throws SQLException;
+    /*
+    Batch lookups, missing keys are simply absent from the result. The
+    defaults look the keys up one by one.
+     */
+    default Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        Map<String, User> users = new HashMap<>();
+        for (String name : userNames) {
+            User user = findUserByName(name);
+            if (user != null) users.put(name, user);
+        }
+        return users;
+    }
+
+    default Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        Map<Integer, Account> accounts = new HashMap<>();
+        for (Integer id : accountIds) {
+            if (accounts.containsKey(id)) continue;
+            Account account = findAccountById(id);
+            if (account != null) accounts.put(id, account);
+        }
+        return accounts;
+    }
+
+    /*
+    Keyset paging over accounts: at most limit accounts with afterId < id <= toId, by id.
+     */
+    List<Account> findAccountsInRange(int afterId, int toId, int limit) throws SQLException;
+    /*
+    Highest account id, 0 when there are no accounts.
+     */
+    int findMaxAccountId() throws SQLException;
+    /*
+    Writes the balance only if the stored account is still at account.getVersion(),
+    then moves the account to the new version. A changed account throws
+    ConcurrentUpdateException, a missing one returns false.
+     */
     boolean updateAccountState(Account account) throws SQLException;
     boolean setUserPassword(User user, String passwd, String oldPass) throws SQLException;
     void close() throws SQLException;
+    DurabilityProfile getDurabilityProfile();
+    /*
+    Lookups that can run at the same time, 1 when they all take turns on
+    one connection.
+     */
+    default int getConcurrentReaders() {
+        return 1;
+    }
 
     void logOperation(Operation operation, boolean success) throws SQLException;
+    void logOperations(List<Operation> operations, boolean[] success) throws SQLException;
+
+    /*
+    Unit of work: everything the calling thread writes between begin and commit
+    is committed at once. Nested begin/commit pairs join the outer transaction,
+    rollback without an open transaction does nothing.
+     */
+    void beginTransaction() throws SQLException;
+    void commitTransaction() throws SQLException;
+    void rollbackTransaction() throws SQLException;
+    boolean isInTransaction();
 }
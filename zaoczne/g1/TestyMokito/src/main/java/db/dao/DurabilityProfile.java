@@ -0,0 +1,54 @@
+package db.dao;
+
+/**
+ * Named sets of SQLite pragmas trading durability for write throughput.
+ * <ul>
+ *     <li>STRICT - rollback journal, fsync on every commit (SQLite defaults)</li>
+ *     <li>BALANCED - WAL journal, fsync only at checkpoints; a power loss may
+ *     drop the last commits but never corrupts the database</li>
+ *     <li>BULK - in-memory journal and no fsync, only for imports that can be
+ *     repeated from scratch</li>
+ * </ul>
+ */
+public enum DurabilityProfile {
+    STRICT("DELETE", "FULL", -2_000, 0, "DEFAULT"),
+    BALANCED("WAL", "NORMAL", -16_000, 268_435_456L, "MEMORY"),
+    BULK("MEMORY", "OFF", -64_000, 268_435_456L, "MEMORY");
+
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final String tempStore;
+
+    DurabilityProfile(String journalMode, String synchronous, int cacheSize, long mmapSize, String tempStore) {
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+        this.tempStore = tempStore;
+    }
+
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /*
+    Negative values are KiB, positive values are pages, as in PRAGMA cache_size.
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    public String getTempStore() {
+        return tempStore;
+    }
+}
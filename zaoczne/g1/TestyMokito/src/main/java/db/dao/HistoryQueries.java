@@ -0,0 +1,27 @@
+package db.dao;
+
+import model.Operation;
+
+import java.sql.SQLException;
+import java.util.stream.Stream;
+
+/**
+ * Reading the logged history back. A DAO that only writes history, e.g. a
+ * test double, can leave these to the defaults, which refuse the call.
+ */
+public interface HistoryQueries {
+    /*
+    Logged operations matching the query, oldest first (by id when the query
+    sets afterOperationId), fetched page by page while the stream is consumed.
+     */
+    default Stream<Operation> findOperations(OperationQuery query) throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot query the history");
+    }
+
+    /*
+    Id of the newest logged operation, 0 for an empty history.
+     */
+    default int findLastOperationId() throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot query the history");
+    }
+}
@@ -0,0 +1,28 @@
+package db.dao;
+
+import model.InterestCheckpoint;
+
+import java.sql.SQLException;
+
+/**
+ * Checkpoints of resumable interest runs, see AccountManager.creditInterestChunk.
+ */
+public interface InterestCheckpoints {
+    /*
+    Checkpoint of a resumable interest run, null for a run never started.
+     */
+    default InterestCheckpoint findInterestCheckpoint(String runId) throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep interest checkpoints");
+    }
+
+    /*
+    Creates the run's checkpoint when expectedLastAccountId is null, otherwise
+    moves it on if the run is unfinished and still at expectedLastAccountId.
+    False when another writer got there first; inside a transaction that may
+    only show at commit, which then fails.
+     */
+    default boolean saveInterestCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId)
+            throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep interest checkpoints");
+    }
+}
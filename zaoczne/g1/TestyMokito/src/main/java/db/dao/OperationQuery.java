@@ -0,0 +1,141 @@
+package db.dao;
+
+import model.operations.OperationType;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Filter and paging settings of a history query. Filters left unset match
+ * every operation, the time range includes from and excludes to.
+ * <p>
+ * Results are read pageSize rows at a time, ordered by date and id, so
+ * memory use does not depend on the size of the history. fetchSize is
+ * passed to the JDBC driver as a hint.
+ */
+public class OperationQuery {
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private Integer accountId;
+    private Integer fromAccountId;
+    private Integer toAccountId;
+    private Integer afterOperationId;
+    private Integer userId;
+    private Set<OperationType> types;
+    private Date from;
+    private Date to;
+    private int pageSize = DEFAULT_PAGE_SIZE;
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(Integer accountId) {
+        this.accountId = accountId;
+    }
+
+    public Integer getFromAccountId() {
+        return fromAccountId;
+    }
+
+    public Integer getToAccountId() {
+        return toAccountId;
+    }
+
+    /*
+    Inclusive range of account ids, either end may be null. Operations
+    without an account never match a range.
+     */
+    public void setAccountRange(Integer fromAccountId, Integer toAccountId) {
+        this.fromAccountId = fromAccountId;
+        this.toAccountId = toAccountId;
+    }
+
+    public Integer getAfterOperationId() {
+        return afterOperationId;
+    }
+
+    /*
+    Only operations with a larger id. The result is then ordered by id
+    instead of date, e.g. to replay everything logged after a snapshot.
+     */
+    public void setAfterOperationId(Integer afterOperationId) {
+        this.afterOperationId = afterOperationId;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public void setUserId(Integer userId) {
+        this.userId = userId;
+    }
+
+    /*
+    Null or empty means all types.
+     */
+    public Set<OperationType> getTypes() {
+        return types;
+    }
+
+    public void setTypes(Collection<OperationType> types) {
+        this.types = types == null || types.isEmpty() ? null : EnumSet.copyOf(types);
+    }
+
+    public Date getFrom() {
+        return from;
+    }
+
+    public void setFrom(Date from) {
+        this.from = from;
+    }
+
+    public Date getTo() {
+        return to;
+    }
+
+    public void setTo(Date to) {
+        this.to = to;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public void setPageSize(int pageSize) {
+        if (pageSize < 1) {
+            throw new IllegalArgumentException("Page size must be positive");
+        }
+        this.pageSize = pageSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must not be negative");
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /*
+    Used by DAOs without SQL to apply the same filters in memory.
+     */
+    public boolean matches(int operationId, Integer accountId, Integer userId, OperationType type, Date date) {
+        if (afterOperationId != null && operationId <= afterOperationId) return false;
+        if (this.accountId != null && !this.accountId.equals(accountId)) return false;
+        if (fromAccountId != null && (accountId == null || accountId < fromAccountId)) return false;
+        if (toAccountId != null && (accountId == null || accountId > toAccountId)) return false;
+        if (this.userId != null && !this.userId.equals(userId)) return false;
+        if (types != null && !types.contains(type)) return false;
+        if (from != null && (date == null || date.before(from))) return false;
+        if (to != null && (date == null || !date.before(to))) return false;
+        return true;
+    }
+}
@@ -0,0 +1,26 @@
+package db.dao;
+
+import java.sql.SQLException;
+
+/**
+ * How far journals kept outside the database, e.g. the spill of
+ * AsyncHistorySink, have been written into the history.
+ */
+public interface ReplayPositions {
+    /*
+    Sequence up to which the journal has been replayed; 0 for a journal never replayed.
+     */
+    default long findReplayPosition(String journal) throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep replay positions");
+    }
+
+    /*
+    Moves the journal's replay position from expectedPosition to position.
+    Saved in the same unit of work as the replayed rows, it commits with
+    them or not at all. False when another writer moved it first; inside a
+    transaction that may only show at commit, which then fails.
+     */
+    default boolean saveReplayPosition(String journal, long expectedPosition, long position) throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " does not keep replay positions");
+    }
+}
@@ -0,0 +1,20 @@
+package db.dao;
+
+import model.User;
+
+import java.sql.SQLException;
+
+/**
+ * Interest booked by the store itself instead of account by account.
+ */
+public interface SetBasedInterest {
+    /*
+    Flat-rate interest for every account in one unit of work: each account
+    whose Money.multiply(balance, factor) is positive is credited that much
+    and moves to its next version, with a PAYMENT_IN and an INTEREST row
+    logged for it as successful. Returns {accounts, interest}.
+     */
+    default long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot book set-based interest");
+    }
+}
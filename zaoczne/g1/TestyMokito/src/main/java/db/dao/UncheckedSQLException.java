@@ -0,0 +1,19 @@
+package db.dao;
+
+import java.sql.SQLException;
+
+/**
+ * Carries a SQLException out of code that cannot throw checked exceptions,
+ * e.g. a history stream fetching its next page.
+ */
+public class UncheckedSQLException extends RuntimeException {
+
+    public UncheckedSQLException(SQLException cause) {
+        super(cause.getMessage(), cause);
+    }
+
+    @Override
+    public synchronized SQLException getCause() {
+        return (SQLException) super.getCause();
+    }
+}
@@ -0,0 +1,415 @@
+package db.dao.impl;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32C;
+
+/**
+ * Accounts kept as primitive columns instead of objects: balance (minor
+ * units), owner id, version, interest rate and last accrual time live in
+ * arrays of fixed-size chunks addressed by the account id, so ten million
+ * accounts cost a few hundred megabytes and give the GC almost nothing to
+ * trace.
+ * <p>
+ * Every slot has a stamp that works as a small sequence lock: even while
+ * the slot is stable, odd while a writer is updating it, 0 for an account
+ * never created. Writers take the slot with one CAS, readers never block
+ * and retry when a writer got in between. The account version is stamp / 2,
+ * so it starts at 1 and grows with every update.
+ */
+public class AccountStore {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private static final int MAGIC = 0x41434354;
+    private static final short FORMAT = 2;
+    private static final int HEADER_SIZE = 4 + 2 + 4 + 4;
+    /* format 1 had no interest columns, it is still read */
+    private static final int CHUNK_BYTES_V1 = 4 + CHUNK_SIZE * (8 + 8 + 4);
+    private static final int CHUNK_BYTES = CHUNK_BYTES_V1 + CHUNK_SIZE * (8 + 8);
+
+    private static final VarHandle LONGS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle INTS = MethodHandles.arrayElementVarHandle(int[].class);
+
+    private final ConcurrentIntMap<Chunk> chunks = new ConcurrentIntMap<>();
+    private final AtomicInteger maxId = new AtomicInteger();
+    private final AtomicInteger size = new AtomicInteger();
+
+    /*
+    False when the account already exists.
+     */
+    public boolean create(int accountId, int ownerId, long balance) {
+        Chunk chunk = chunk(accountId, true);
+        int slot = accountId & CHUNK_MASK;
+        if (!LONGS.compareAndSet(chunk.stamps, slot, 0L, 1L)) return false;
+        INTS.setOpaque(chunk.owners, slot, ownerId);
+        LONGS.setOpaque(chunk.balances, slot, balance);
+        LONGS.setRelease(chunk.stamps, slot, 2L);
+        maxId.accumulateAndGet(accountId, Math::max);
+        size.incrementAndGet();
+        return true;
+    }
+
+    public boolean contains(int accountId) {
+        Chunk chunk = chunk(accountId, false);
+        return chunk != null && (long) LONGS.getAcquire(chunk.stamps, accountId & CHUNK_MASK) != 0;
+    }
+
+    public long getBalance(int accountId) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        while (true) {
+            long stamp = (long) LONGS.getAcquire(chunk.stamps, slot);
+            long balance = (long) LONGS.getOpaque(chunk.balances, slot);
+            VarHandle.loadLoadFence();
+            if ((stamp & 1) == 0 && stamp == (long) LONGS.getOpaque(chunk.stamps, slot)) return balance;
+            Thread.onSpinWait();
+        }
+    }
+
+    /*
+    Yearly interest rate, 0 for an account that earns none.
+     */
+    public double getInterestRate(int accountId) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        while (true) {
+            long stamp = (long) LONGS.getAcquire(chunk.stamps, slot);
+            long rate = (long) LONGS.getOpaque(chunk.rates, slot);
+            VarHandle.loadLoadFence();
+            if ((stamp & 1) == 0 && stamp == (long) LONGS.getOpaque(chunk.stamps, slot)) {
+                return Double.longBitsToDouble(rate);
+            }
+            Thread.onSpinWait();
+        }
+    }
+
+    /*
+    Epoch millis interest was last accrued up to, 0 if never.
+     */
+    public long getLastAccrual(int accountId) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        while (true) {
+            long stamp = (long) LONGS.getAcquire(chunk.stamps, slot);
+            long lastAccrual = (long) LONGS.getOpaque(chunk.accruals, slot);
+            VarHandle.loadLoadFence();
+            if ((stamp & 1) == 0 && stamp == (long) LONGS.getOpaque(chunk.stamps, slot)) return lastAccrual;
+            Thread.onSpinWait();
+        }
+    }
+
+    public int getOwnerId(int accountId) {
+        return (int) INTS.getOpaque(existing(accountId).owners, accountId & CHUNK_MASK);
+    }
+
+    public long getVersion(int accountId) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long stamp;
+        while (((stamp = (long) LONGS.getAcquire(chunk.stamps, slot)) & 1) != 0) {
+            Thread.onSpinWait();
+        }
+        return stamp >>> 1;
+    }
+
+    /*
+    Returns the new version.
+     */
+    public long setBalance(int accountId, long balance) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long stamp = lock(chunk, slot);
+        LONGS.setOpaque(chunk.balances, slot, balance);
+        return unlock(chunk, slot, stamp + 2);
+    }
+
+    /*
+    Sets the balance only if the account is still at expectedVersion, the
+    optimistic update of a read-modify-write done outside the store.
+     */
+    public boolean compareAndSetBalance(int accountId, long expectedVersion, long balance) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long expected = expectedVersion << 1;
+        if (!LONGS.compareAndSet(chunk.stamps, slot, expected, expected + 1)) return false;
+        LONGS.setOpaque(chunk.balances, slot, balance);
+        unlock(chunk, slot, expected + 2);
+        return true;
+    }
+
+    /*
+    Writes balance, rate and last accrual at once, returns the new version.
+     */
+    public long setState(int accountId, long balance, double interestRate, long lastAccrual) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long stamp = lock(chunk, slot);
+        chunk.write(slot, balance, interestRate, lastAccrual);
+        return unlock(chunk, slot, stamp + 2);
+    }
+
+    /*
+    setState only if the account is still at expectedVersion.
+     */
+    public boolean compareAndSetState(int accountId, long expectedVersion, long balance, double interestRate,
+                                      long lastAccrual) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long expected = expectedVersion << 1;
+        if (!LONGS.compareAndSet(chunk.stamps, slot, expected, expected + 1)) return false;
+        chunk.write(slot, balance, interestRate, lastAccrual);
+        unlock(chunk, slot, expected + 2);
+        return true;
+    }
+
+    /*
+    Returns the new balance, throws ArithmeticException on overflow and leaves the balance as it was.
+     */
+    public long add(int accountId, long delta) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long stamp = lock(chunk, slot);
+        long balance;
+        try {
+            balance = Math.addExact((long) LONGS.getOpaque(chunk.balances, slot), delta);
+        } catch (ArithmeticException e) {
+            unlock(chunk, slot, stamp);
+            throw e;
+        }
+        LONGS.setOpaque(chunk.balances, slot, balance);
+        unlock(chunk, slot, stamp + 2);
+        return balance;
+    }
+
+    /*
+    Subtracts ammount only when the balance covers it, like Account.outcome.
+     */
+    public boolean withdraw(int accountId, long ammount) {
+        Chunk chunk = existing(accountId);
+        int slot = accountId & CHUNK_MASK;
+        long stamp = lock(chunk, slot);
+        long balance = (long) LONGS.getOpaque(chunk.balances, slot);
+        if (balance < ammount) {
+            unlock(chunk, slot, stamp);
+            return false;
+        }
+        LONGS.setOpaque(chunk.balances, slot, balance - ammount);
+        unlock(chunk, slot, stamp + 2);
+        return true;
+    }
+
+    /*
+    Highest account id created so far, 0 for an empty store.
+     */
+    public int getMaxId() {
+        return maxId.get();
+    }
+
+    public int size() {
+        return size.get();
+    }
+
+    /*
+    Every slot is written in a consistent state, but the file is a point in
+    time only if no one updates the store meanwhile. Written to a temporary
+    file first and moved into place.
+     */
+    public void writeTo(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        int lastChunk = maxId.get() >>> CHUNK_BITS;
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+        long[] stamps = new long[CHUNK_SIZE];
+        long[] balances = new long[CHUNK_SIZE];
+        int[] owners = new int[CHUNK_SIZE];
+        long[] rates = new long[CHUNK_SIZE];
+        long[] accruals = new long[CHUNK_SIZE];
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            buffer.putInt(MAGIC).putShort(FORMAT).putInt(maxId.get()).putInt(size.get()).flip();
+            write(channel, buffer, crc);
+            for (int index = 0; index <= lastChunk; index++) {
+                Chunk chunk = chunks.get(index);
+                if (chunk == null) continue;
+                chunk.copyTo(stamps, balances, owners, rates, accruals);
+                buffer.clear();
+                buffer.putInt(index);
+                buffer.asLongBuffer().put(stamps);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asLongBuffer().put(balances);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asIntBuffer().put(owners);
+                buffer.position(buffer.position() + CHUNK_SIZE * 4);
+                buffer.asLongBuffer().put(rates);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asLongBuffer().put(accruals);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.flip();
+                write(channel, buffer, crc);
+            }
+            buffer.clear();
+            buffer.putInt((int) crc.getValue()).flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static AccountStore readFrom(Path file) throws IOException {
+        AccountStore store = new AccountStore();
+        CRC32C crc = new CRC32C();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE + 4) {
+                throw new IOException("Corrupted account store " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK_BYTES);
+            buffer.limit(HEADER_SIZE);
+            read(channel, buffer, crc, file);
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(file + " is not an account store");
+            }
+            short format = buffer.getShort();
+            if (format != FORMAT && format != 1) {
+                throw new IOException("Unsupported account store format " + format + " in " + file);
+            }
+            int chunkBytes = format == 1 ? CHUNK_BYTES_V1 : CHUNK_BYTES;
+            if ((length - HEADER_SIZE - 4) % chunkBytes != 0) {
+                throw new IOException("Corrupted account store " + file);
+            }
+            int maxId = buffer.getInt();
+            int size = buffer.getInt();
+            long chunkCount = (length - HEADER_SIZE - 4) / chunkBytes;
+            for (long i = 0; i < chunkCount; i++) {
+                buffer.clear();
+                buffer.limit(chunkBytes);
+                read(channel, buffer, crc, file);
+                int index = buffer.getInt();
+                if (index < 0 || index > maxId >>> CHUNK_BITS) {
+                    throw new IOException("Corrupted account store " + file);
+                }
+                Chunk chunk = store.chunks.computeIfAbsent(index, k -> new Chunk());
+                buffer.asLongBuffer().get(chunk.stamps);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asLongBuffer().get(chunk.balances);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asIntBuffer().get(chunk.owners);
+                if (format == 1) continue;
+                buffer.position(buffer.position() + CHUNK_SIZE * 4);
+                buffer.asLongBuffer().get(chunk.rates);
+                buffer.position(buffer.position() + CHUNK_SIZE * 8);
+                buffer.asLongBuffer().get(chunk.accruals);
+            }
+            buffer.clear();
+            buffer.limit(4);
+            int expected = (int) crc.getValue();
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) < 0) throw new IOException("Truncated account store " + file);
+            }
+            if (buffer.flip().getInt() != expected) {
+                throw new IOException("Corrupted account store " + file + ": CRC mismatch");
+            }
+            store.maxId.set(maxId);
+            store.size.set(size);
+        }
+        /* publishes the plainly written chunks to other threads */
+        VarHandle.fullFence();
+        return store;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, CRC32C crc) throws IOException {
+        crc.update(buffer.duplicate());
+        while (buffer.hasRemaining()) channel.write(buffer);
+    }
+
+    private static void read(FileChannel channel, ByteBuffer buffer, CRC32C crc, Path file) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) throw new IOException("Truncated account store " + file);
+        }
+        buffer.flip();
+        crc.update(buffer.duplicate());
+    }
+
+    private static long lock(Chunk chunk, int slot) {
+        while (true) {
+            long stamp = (long) LONGS.getAcquire(chunk.stamps, slot);
+            if ((stamp & 1) == 0 && LONGS.compareAndSet(chunk.stamps, slot, stamp, stamp + 1)) return stamp;
+            Thread.onSpinWait();
+        }
+    }
+
+    private static long unlock(Chunk chunk, int slot, long stamp) {
+        LONGS.setRelease(chunk.stamps, slot, stamp);
+        return stamp >>> 1;
+    }
+
+    private Chunk existing(int accountId) {
+        Chunk chunk = chunk(accountId, false);
+        if (chunk == null || (long) LONGS.getAcquire(chunk.stamps, accountId & CHUNK_MASK) == 0) {
+            throw new IllegalArgumentException("No account " + accountId);
+        }
+        return chunk;
+    }
+
+    private Chunk chunk(int accountId, boolean create) {
+        if (accountId < 0) {
+            throw new IllegalArgumentException("Negative account id " + accountId);
+        }
+        int index = accountId >>> CHUNK_BITS;
+        return create ? chunks.computeIfAbsent(index, k -> new Chunk()) : chunks.get(index);
+    }
+
+    private static final class Chunk {
+        final long[] stamps = new long[CHUNK_SIZE];
+        final long[] balances = new long[CHUNK_SIZE];
+        final int[] owners = new int[CHUNK_SIZE];
+        /* raw bits of the double rate */
+        final long[] rates = new long[CHUNK_SIZE];
+        final long[] accruals = new long[CHUNK_SIZE];
+
+        /*
+        Called with the slot's stamp held odd.
+         */
+        void write(int slot, long balance, double interestRate, long lastAccrual) {
+            LONGS.setOpaque(balances, slot, balance);
+            LONGS.setOpaque(rates, slot, Double.doubleToRawLongBits(interestRate));
+            LONGS.setOpaque(accruals, slot, lastAccrual);
+        }
+
+        /*
+        A slot caught in the middle of an update is read again, so the copy
+        holds no odd stamps.
+         */
+        void copyTo(long[] stampsCopy, long[] balancesCopy, int[] ownersCopy, long[] ratesCopy, long[] accrualsCopy) {
+            for (int slot = 0; slot < CHUNK_SIZE; slot++) {
+                while (true) {
+                    long stamp = (long) LONGS.getAcquire(stamps, slot);
+                    long balance = (long) LONGS.getOpaque(balances, slot);
+                    int owner = (int) INTS.getOpaque(owners, slot);
+                    long rate = (long) LONGS.getOpaque(rates, slot);
+                    long accrual = (long) LONGS.getOpaque(accruals, slot);
+                    VarHandle.loadLoadFence();
+                    if ((stamp & 1) == 0 && stamp == (long) LONGS.getOpaque(stamps, slot)) {
+                        stampsCopy[slot] = stamp;
+                        balancesCopy[slot] = balance;
+                        ownersCopy[slot] = owner;
+                        ratesCopy[slot] = rate;
+                        accrualsCopy[slot] = accrual;
+                        break;
+                    }
+                    Thread.onSpinWait();
+                }
+            }
+        }
+    }
+}
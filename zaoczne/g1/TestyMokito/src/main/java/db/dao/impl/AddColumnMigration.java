@@ -0,0 +1,44 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Adds one column to a table. SQLite has no ADD COLUMN IF NOT EXISTS, so
+ * the column is looked up first, which keeps the step idempotent.
+ */
+class AddColumnMigration extends Migration {
+    private final String table;
+    private final String column;
+    private final String definition;
+
+    AddColumnMigration(int version, String description, String table, String column, String definition,
+                       String... statements) {
+        super(version, description, statements);
+        this.table = table;
+        this.column = column;
+        this.definition = definition;
+    }
+
+    @Override
+    void apply(Connection conn) throws SQLException {
+        if (!hasColumn(conn, table, column)) {
+            try (Statement st = conn.createStatement()) {
+                st.executeUpdate("ALTER TABLE " + table + " ADD COLUMN `" + column + "` " + definition);
+            }
+        }
+        super.apply(conn);
+    }
+
+    static boolean hasColumn(Connection conn, String table, String column) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equalsIgnoreCase(rs.getString("name"))) return true;
+            }
+        }
+        return false;
+    }
+}
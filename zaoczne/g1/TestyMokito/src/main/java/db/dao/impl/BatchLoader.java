@@ -0,0 +1,123 @@
+package db.dao.impl;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces single-key lookups from many threads into batch lookups.
+ * Keys requested within one window (or until maxBatchSize keys are
+ * waiting) are loaded with one call of the batch function, and every
+ * caller asking for a key that is already in flight shares its future.
+ */
+class BatchLoader<K, V> {
+    interface BatchFunction<K, V> {
+        Map<K, V> load(Collection<K> keys) throws SQLException;
+    }
+
+    private final BatchFunction<K, V> function;
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final BlockingQueue<K> queue = new LinkedBlockingQueue<>();
+    private final Thread dispatcher;
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private volatile boolean closed = false;
+
+    BatchLoader(String name, BatchFunction<K, V> function, int maxBatchSize, long windowMicros) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive");
+        }
+        this.function = function;
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.dispatcher = new Thread(this::run, name);
+        this.dispatcher.setDaemon(true);
+        this.dispatcher.start();
+    }
+
+    CompletableFuture<V> load(K key) {
+        if (closed) {
+            throw new IllegalStateException("Loader is closed");
+        }
+        requests.incrementAndGet();
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) return existing;
+        CompletableFuture<V> created = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, created);
+        if (existing != null) return existing;
+        queue.add(key);
+        return created;
+    }
+
+    long getRequestCount() {
+        return requests.get();
+    }
+
+    long getBatchCount() {
+        return batches.get();
+    }
+
+    void close() {
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        List<K> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    K next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) break;
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                // woken up by close(), the loop condition ends the dispatcher
+            }
+            if (!batch.isEmpty()) {
+                dispatch(batch);
+                batch.clear();
+            }
+        }
+        queue.drainTo(batch);
+        for (int i = 0; i < batch.size(); i += maxBatchSize) {
+            dispatch(batch.subList(i, Math.min(batch.size(), i + maxBatchSize)));
+        }
+    }
+
+    private void dispatch(List<K> keys) {
+        Map<K, V> values;
+        try {
+            values = function.load(keys);
+            batches.incrementAndGet();
+        } catch (SQLException | RuntimeException e) {
+            for (K key : keys) {
+                CompletableFuture<V> future = inFlight.remove(key);
+                if (future != null) future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (K key : keys) {
+            CompletableFuture<V> future = inFlight.remove(key);
+            if (future != null) future.complete(values.get(key));
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Account;
+import model.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import static db.dao.impl.ModelCopies.copyOf;
+
+/**
+ * DAO decorator answering concurrent findAccountById and findUserByName
+ * calls with shared batch queries. Lookups arriving within a short window
+ * are sent as one WHERE id IN (...) query, and callers asking for the same
+ * key while it is loading wait for the same query.
+ * <p>
+ * Every caller still gets its own copy of the result.
+ */
+public class BatchingDAO extends ForwardingDAO {
+    private final BatchLoader<Integer, Account> accounts;
+    private final BatchLoader<String, User> users;
+
+    public BatchingDAO(DAO delegate, int maxBatchSize, long windowMicros) {
+        super(delegate);
+        this.accounts = new BatchLoader<>("account-loader", delegate::findAccountsByIds, maxBatchSize, windowMicros);
+        this.users = new BatchLoader<>("user-loader", delegate::findUsersByNames, maxBatchSize, windowMicros);
+    }
+
+    @Override
+    public Account findAccountById(int accountId) throws SQLException {
+        Account account = await(accounts.load(accountId));
+        return account == null ? null : copyOf(account);
+    }
+
+    @Override
+    public User findUserByName(String userName) throws SQLException {
+        User user = await(users.load(userName));
+        return user == null ? null : copyOf(user);
+    }
+
+    /*
+    All ids are queued before waiting, so they end up in the same batch.
+     */
+    @Override
+    public Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(accountIds));
+        List<CompletableFuture<Account>> futures = new ArrayList<>(ids.size());
+        for (Integer id : ids) futures.add(accounts.load(id));
+        Map<Integer, Account> result = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            Account account = await(futures.get(i));
+            if (account != null) result.put(ids.get(i), copyOf(account));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(userNames));
+        List<CompletableFuture<User>> futures = new ArrayList<>(names.size());
+        for (String name : names) futures.add(users.load(name));
+        Map<String, User> result = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            User user = await(futures.get(i));
+            if (user != null) result.put(names.get(i), copyOf(user));
+        }
+        return result;
+    }
+
+    public long getAccountRequestCount() {
+        return accounts.getRequestCount();
+    }
+
+    public long getAccountQueryCount() {
+        return accounts.getBatchCount();
+    }
+
+    public long getUserRequestCount() {
+        return users.getRequestCount();
+    }
+
+    public long getUserQueryCount() {
+        return users.getBatchCount();
+    }
+
+    /*
+    Callers must have stopped using the DAO, lookups queued after close never complete.
+     */
+    @Override
+    public void close() throws SQLException {
+        accounts.close();
+        users.close();
+        delegate.close();
+    }
+
+    private static <V> V await(CompletableFuture<V> future) throws SQLException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a batched lookup", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) throw (SQLException) e.getCause();
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new SQLException(e.getCause());
+        }
+    }
+}
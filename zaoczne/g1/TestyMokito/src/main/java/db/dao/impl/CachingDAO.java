@@ -0,0 +1,162 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Account;
+import model.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static db.dao.impl.ModelCopies.copyOf;
+
+/**
+ * DAO decorator keeping recently used accounts in a size- and time-bounded
+ * LRU cache. Reads go through the cache, updateAccountState writes through
+ * it. Updates made inside a unit of work reach the cache only after the
+ * commit, a rollback drops them.
+ * <p>
+ * Callers always get their own copy of an account, so mutating it before
+ * updateAccountState never changes the cached state.
+ */
+public class CachingDAO extends ForwardingDAO {
+    private final LruCache<Integer, Account> accounts;
+    private final ThreadLocal<Map<Integer, Account>> pendingWrites = new ThreadLocal<>();
+
+    public CachingDAO(DAO delegate, int maxAccounts, long ttl, TimeUnit unit) {
+        super(delegate);
+        this.accounts = new LruCache<>(maxAccounts, ttl, unit);
+    }
+
+    CachingDAO(DAO delegate, LruCache<Integer, Account> accounts) {
+        super(delegate);
+        this.accounts = accounts;
+    }
+
+    @Override
+    public Account findAccountById(int accountId) throws SQLException {
+        Account cached = accounts.get(accountId);
+        if (cached != null) return copyOf(cached);
+        long token = accounts.fillToken();
+        Account loaded = delegate.findAccountById(accountId);
+        if (loaded != null) accounts.putIfUnchanged(accountId, copyOf(loaded), token);
+        return loaded;
+    }
+
+    @Override
+    public Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        Map<Integer, Account> result = new HashMap<>();
+        List<Integer> missing = new ArrayList<>();
+        for (Integer id : accountIds) {
+            Account cached = accounts.get(id);
+            if (cached != null) result.put(id, copyOf(cached));
+            else missing.add(id);
+        }
+        if (missing.isEmpty()) return result;
+        long token = accounts.fillToken();
+        Map<Integer, Account> loaded = delegate.findAccountsByIds(missing);
+        for (Account account : loaded.values()) {
+            accounts.putIfUnchanged(account.getId(), copyOf(account), token);
+        }
+        result.putAll(loaded);
+        return result;
+    }
+
+    @Override
+    public boolean updateAccountState(Account account) throws SQLException {
+        boolean updated;
+        try {
+            updated = delegate.updateAccountState(account);
+        } catch (SQLException | RuntimeException e) {
+            accounts.invalidate(account.getId());
+            throw e;
+        }
+        if (!updated) {
+            accounts.invalidate(account.getId());
+        } else if (delegate.isInTransaction()) {
+            accounts.invalidate(account.getId());
+            pending().put(account.getId(), copyOf(account));
+        } else {
+            accounts.put(account.getId(), copyOf(account));
+        }
+        return updated;
+    }
+
+    @Override
+    public void commitTransaction() throws SQLException {
+        try {
+            delegate.commitTransaction();
+        } catch (SQLException | RuntimeException e) {
+            if (!delegate.isInTransaction()) discardPending();
+            throw e;
+        }
+        if (!delegate.isInTransaction()) publishPending();
+    }
+
+    @Override
+    public void rollbackTransaction() throws SQLException {
+        try {
+            delegate.rollbackTransaction();
+        } finally {
+            if (!delegate.isInTransaction()) discardPending();
+        }
+    }
+
+    /*
+    Any balance may change, so nothing cached survives, including this
+    thread's writes waiting for the commit.
+     */
+    @Override
+    public long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        pendingWrites.remove();
+        try {
+            return delegate.creditInterestToAll(user, factor, description);
+        } finally {
+            accounts.invalidateAll();
+        }
+    }
+
+    public void invalidateAccount(int accountId) {
+        accounts.invalidate(accountId);
+    }
+
+    public void invalidateAll() {
+        accounts.invalidateAll();
+    }
+
+    public CacheStatistics getAccountCacheStatistics() {
+        return accounts.getStatistics();
+    }
+
+    private Map<Integer, Account> pending() {
+        Map<Integer, Account> pending = pendingWrites.get();
+        if (pending == null) {
+            pending = new LinkedHashMap<>();
+            pendingWrites.set(pending);
+        }
+        return pending;
+    }
+
+    private void publishPending() {
+        Map<Integer, Account> pending = pendingWrites.get();
+        if (pending == null) return;
+        pendingWrites.remove();
+        for (Map.Entry<Integer, Account> e : pending.entrySet()) {
+            accounts.put(e.getKey(), e.getValue());
+        }
+    }
+
+    private void discardPending() {
+        Map<Integer, Account> pending = pendingWrites.get();
+        if (pending == null) return;
+        pendingWrites.remove();
+        for (Integer accountId : pending.keySet()) {
+            accounts.invalidate(accountId);
+        }
+    }
+}
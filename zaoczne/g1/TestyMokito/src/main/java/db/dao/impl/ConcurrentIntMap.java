@@ -0,0 +1,87 @@
+package db.dao.impl;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntFunction;
+
+/**
+ * Thread-safe map from non-negative int keys to values, meant for dense
+ * database ids. Values live in fixed-size chunks addressed directly by the
+ * key, so lookups neither hash nor box the key. Chunks are allocated on
+ * first write and never move afterwards.
+ */
+class ConcurrentIntMap<V> {
+    private static final int CHUNK_BITS = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile AtomicReferenceArray<AtomicReferenceArray<V>> chunks = new AtomicReferenceArray<>(16);
+
+    V get(int key) {
+        AtomicReferenceArray<V> chunk = chunk(key, false);
+        return chunk == null ? null : chunk.get(key & CHUNK_MASK);
+    }
+
+    V put(int key, V value) {
+        return chunk(key, true).getAndSet(key & CHUNK_MASK, value);
+    }
+
+    V putIfAbsent(int key, V value) {
+        AtomicReferenceArray<V> chunk = chunk(key, true);
+        int slot = key & CHUNK_MASK;
+        if (chunk.compareAndSet(slot, null, value)) return null;
+        return chunk.get(slot);
+    }
+
+    boolean replace(int key, V expected, V value) {
+        AtomicReferenceArray<V> chunk = chunk(key, false);
+        return chunk != null && chunk.compareAndSet(key & CHUNK_MASK, expected, value);
+    }
+
+    V computeIfAbsent(int key, IntFunction<V> factory) {
+        V current = get(key);
+        if (current != null) return current;
+        V created = factory.apply(key);
+        V raced = putIfAbsent(key, created);
+        return raced == null ? created : raced;
+    }
+
+    private AtomicReferenceArray<V> chunk(int key, boolean create) {
+        if (key < 0) {
+            throw new IllegalArgumentException("Negative key " + key);
+        }
+        int index = key >>> CHUNK_BITS;
+        AtomicReferenceArray<AtomicReferenceArray<V>> directory = chunks;
+        if (index >= directory.length()) {
+            if (!create) return null;
+            directory = grow(index);
+        }
+        AtomicReferenceArray<V> chunk = directory.get(index);
+        if (chunk == null && create) {
+            directory.compareAndSet(index, null, new AtomicReferenceArray<>(CHUNK_SIZE));
+            chunk = directory.get(index);
+        }
+        return chunk;
+    }
+
+    /*
+    Chunks are shared between the old and the new directory, so a writer that
+    still sees the old directory updates the same slots.
+     */
+    private synchronized AtomicReferenceArray<AtomicReferenceArray<V>> grow(int index) {
+        AtomicReferenceArray<AtomicReferenceArray<V>> current = chunks;
+        if (index < current.length()) return current;
+        int length = current.length();
+        while (length <= index) length <<= 1;
+        AtomicReferenceArray<AtomicReferenceArray<V>> bigger = new AtomicReferenceArray<>(length);
+        for (int i = 0; i < current.length(); i++) {
+            AtomicReferenceArray<V> chunk = current.get(i);
+            if (chunk == null) {
+                chunk = new AtomicReferenceArray<>(CHUNK_SIZE);
+                if (!current.compareAndSet(i, null, chunk)) chunk = current.get(i);
+            }
+            bigger.set(i, chunk);
+        }
+        chunks = bigger;
+        return bigger;
+    }
+}
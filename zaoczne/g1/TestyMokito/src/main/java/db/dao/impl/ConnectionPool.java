@@ -0,0 +1,86 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed set of connections handed out one caller at a time. Every
+ * connection keeps its own statement cache, so a borrowed connection
+ * comes back with its prepared statements still warm.
+ */
+class ConnectionPool {
+    private final List<StatementCache> all = new ArrayList<>();
+    private final BlockingQueue<StatementCache> idle;
+    private final long acquireTimeoutMillis;
+
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    ConnectionPool(List<Connection> connections, long acquireTimeoutMillis) {
+        this.idle = new ArrayBlockingQueue<>(connections.size());
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+        for (Connection connection : connections) {
+            StatementCache cache = new StatementCache(connection);
+            all.add(cache);
+            idle.add(cache);
+        }
+    }
+
+    StatementCache acquire() throws SQLException {
+        long start = System.nanoTime();
+        StatementCache cache;
+        try {
+            cache = idle.poll(acquireTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a read connection", e);
+        }
+        long waited = System.nanoTime() - start;
+        if (cache == null) {
+            throw new SQLTimeoutException("No read connection available after " + acquireTimeoutMillis + " ms");
+        }
+        inUse.incrementAndGet();
+        acquisitions.increment();
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return cache;
+    }
+
+    void release(StatementCache cache) {
+        inUse.decrementAndGet();
+        idle.offer(cache);
+    }
+
+    List<StatementCache> connections() {
+        return all;
+    }
+
+    PoolStatistics getStatistics() {
+        return new PoolStatistics(all.size(), inUse.get(), acquisitions.sum(),
+                totalWaitNanos.sum(), maxWaitNanos.get());
+    }
+
+    void close() throws SQLException {
+        SQLException failure = null;
+        for (StatementCache cache : all) {
+            try {
+                cache.close();
+                cache.getConnection().close();
+            } catch (SQLException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+}
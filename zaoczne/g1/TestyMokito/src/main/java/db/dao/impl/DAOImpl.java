@@ -1,137 +1,584 @@
 package db.dao.impl;
 
+import db.dao.ConcurrentUpdateException;
 import db.dao.DAO;
+import db.dao.DurabilityProfile;
+import db.dao.OperationQuery;
+import db.dao.UncheckedSQLException;
 import model.*;
-import model.operations.Interest;
-import model.operations.LogOperation;
+import model.operations.OperationType;
+import model.operations.Operations;
 import model.operations.Payment;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Created by Krzysztof Podlaski on 04.03.2018.
  */
 public class DAOImpl implements DAO{
     Connection db;
+    ConnectionPool readers;
+    DurabilityProfile durabilityProfile = DurabilityProfile.STRICT;
+    int schemaVersion;
+    private StatementCache statements;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private int transactionDepth = 0;
+    private boolean rollbackOnly = false;
 
+    private static final String SELECT_USER = "SELECT " +
+            "user.id as user_id, " +
+            "user.name as user_name, " +
+            "role.id as role_id, " +
+            "role.name as role_name " +
+            "FROM User , Role  " +
+            "WHERE role.id=user.role_id ";
 
-    public User findUserByName(String userName) throws SQLException {
-        String sql = "SELECT " +
-                "user.id as user_id, " +
-                "user.name as user_name, " +
-                "role.id as role_id, " +
-                "role.name as role_name " +
-                "FROM User , Role  " +
-                "WHERE role.id=user.role_id " +
-                "AND user_name = '"+userName+"'";
-        User user = null;
-        Statement st = null;
-        try{
-            st = db.createStatement();
-            ResultSet rs = st.executeQuery(sql);
-            if (rs.next()){
-                user = getUserFromRS(rs);
-            }
-            st.close();
+    private static final String FIND_USER_BY_NAME = SELECT_USER + "AND user_name = ?";
+    private static final String FIND_USER_BY_ID = SELECT_USER + "AND user.id = ?";
+    private static final String FIND_USERS_BY_NAMES = SELECT_USER + "AND user_name IN ";
+
+    private static final String FIND_PASSWORD_FOR_USER =
+            "SELECT passwd FROM Password  WHERE user_id = ?";
+
+    private static final String SELECT_ACCOUNT = "SELECT " +
+            "user.id as user_id, " +
+            "user.name as user_name, " +
+            "role.id as role_id, " +
+            "role.name as role_name, " +
+            "account.id as account_id, " +
+            "ammount, " +
+            "account.version as account_version, " +
+            "account.interest_rate as account_interest_rate, " +
+            "account.last_accrual as account_last_accrual " +
+            "FROM User , Role, Account " +
+            "WHERE role.id=user.role_id AND " +
+            "owner_id = user.id ";
+
+    private static final String FIND_ACCOUNT_BY_ID = SELECT_ACCOUNT + "AND account.id = ?";
+    private static final String FIND_ACCOUNTS_BY_IDS = SELECT_ACCOUNT + "AND account.id IN ";
+    private static final String FIND_ACCOUNTS_IN_RANGE = SELECT_ACCOUNT +
+            "AND account.id > ? AND account.id <= ? ORDER BY account.id LIMIT ?";
+
+    /*
+    IN lists are padded to a power of two, so only a handful of query shapes
+    end up in the statement cache.
+     */
+    private static final int MAX_IN_LIST = 512;
+
+    /*
+    Compare-and-set on the version read with the account.
+     */
+    private static final String UPDATE_ACCOUNT_STATE =
+            "UPDATE ACCOUNT SET ammount = ?, interest_rate = ?, last_accrual = ?, version = version + 1 " +
+            "WHERE id = ? AND version = ?";
+    private static final String FIND_ACCOUNT_VERSION =
+            "SELECT version FROM Account WHERE id = ?";
+
+    private static final String SET_USER_PASSWORD =
+            "UPDATE PASSWORD SET passwd = ? WHERE user_id = ? AND passwd = ?";
+
+    private static final String INSERT_HISTORY =
+            "INSERT INTO History (`operation_id`,`succesfull`) VALUES (?, ?)";
+
+    private static final String SELECT_OPERATIONS = "SELECT " +
+            "operation.id as operation_id, " +
+            "type, description, date, user_id, account_id, ammount, succesfull " +
+            "FROM Operation LEFT JOIN History ON History.operation_id = operation.id " +
+            "WHERE 1 = 1 ";
+
+    private static final String FIND_LAST_OPERATION_ID = "SELECT MAX(id) FROM Operation";
+
+    private static final String FIND_MAX_ACCOUNT_ID = "SELECT MAX(id) FROM Account";
+
+    /*
+    Set-based interest, rounded half away from zero like Money.multiply. SQLite's
+    ROUND adds 0.5 and truncates, which turns 0.49999999999999994 into 1, so the
+    product is split into its truncated whole part and the fraction left over,
+    both exact. The factor is the numbered parameter given.
+     */
+    private static String interestOf(int factor) {
+        String product = "(ammount * ?" + factor + ")";
+        String whole = "CAST(" + product + " AS INTEGER)";
+        return "(" + whole + " + (" + product + " - " + whole + " >= 0.5) - ("
+                + product + " - " + whole + " <= -0.5))";
+    }
+
+    private static final String INTEREST_OF = interestOf(1);
+    private static final String SUM_INTEREST = "SELECT COUNT(*), SUM(" + INTEREST_OF + ") " +
+            "FROM Account WHERE " + INTEREST_OF + " > 0";
+    /* a PAYMENT_IN then an INTEREST row per account, in account order, as the row-by-row run logs them */
+    private static final String INSERT_INTEREST_OPERATIONS = "INSERT INTO OPERATION " +
+            "(`type`, `description`, `date`, `user_id`, `ammount`, `account_id`) " +
+            "SELECT kind.type, ?, ?, ?, " + interestOf(4) + ", account.id " +
+            "FROM Account account, (SELECT ? AS type, 0 AS ord UNION ALL SELECT ?, 1) kind " +
+            "WHERE " + interestOf(4) + " > 0 ORDER BY account.id, kind.ord";
+    private static final String INSERT_INTEREST_HISTORY = "INSERT INTO History (`operation_id`,`succesfull`) " +
+            "SELECT id, ? FROM Operation WHERE id > ? ORDER BY id";
+    private static final String CREDIT_INTEREST = "UPDATE ACCOUNT " +
+            "SET ammount = ammount + " + INTEREST_OF + ", version = version + 1 WHERE " + INTEREST_OF + " > 0";
+
+    private static final String FIND_INTEREST_CHECKPOINT = "SELECT " +
+            "run_id, to_account_id, last_account_id, accounts, interest, finished " +
+            "FROM Interest_Checkpoint WHERE run_id = ?";
+    private static final String INSERT_INTEREST_CHECKPOINT = "INSERT OR IGNORE INTO Interest_Checkpoint " +
+            "(run_id, to_account_id, last_account_id, accounts, interest, finished) VALUES (?, ?, ?, ?, ?, ?)";
+    private static final String UPDATE_INTEREST_CHECKPOINT = "UPDATE Interest_Checkpoint " +
+            "SET last_account_id = ?, accounts = ?, interest = ?, finished = ? " +
+            "WHERE run_id = ? AND last_account_id = ? AND finished = 0";
+
+    private static final String FIND_REPLAY_POSITION = "SELECT position FROM Replay_Position WHERE journal = ?";
+    private static final String INSERT_REPLAY_POSITION = "INSERT OR IGNORE INTO Replay_Position " +
+            "(journal, position) VALUES (?, ?)";
+    private static final String UPDATE_REPLAY_POSITION = "UPDATE Replay_Position " +
+            "SET position = ? WHERE journal = ? AND position = ?";
+
+    private static final Map<OperationType, String> INSERT_OPERATION = new EnumMap<>(OperationType.class);
+
+    static {
+        String payment = "INSERT INTO OPERATION " +
+                "(`type`, `description`, `date`, `user_id`, `ammount`, `account_id`) " +
+                "VALUES (?, ?, ?, ?, ?, ?)";
+        String log = "INSERT INTO OPERATION " +
+                "(`type`, `description`, `date`, `user_id`) " +
+                "VALUES (?, ?, ?, ?)";
+        INSERT_OPERATION.put(OperationType.PAYMENT_IN, payment);
+        INSERT_OPERATION.put(OperationType.WITHDRAW, payment);
+        INSERT_OPERATION.put(OperationType.INTEREST, payment);
+        INSERT_OPERATION.put(OperationType.LOG_IN, log);
+        INSERT_OPERATION.put(OperationType.LOG_OUT, log);
+    }
+
+    /*
+    Writer connection statements, only to be used while holding writeLock.
+     */
+    private StatementCache statements() {
+        if (statements == null || statements.getConnection() != db) {
+            statements = new StatementCache(db);
         }
-        catch(SQLException e){
-            if (st!= null) {
-                st.close();
+        return statements;
+    }
+
+    /*
+    Without a reader pool all lookups share the writer connection.
+     */
+    private StatementCache acquireReader() throws SQLException {
+        if (readers != null) return readers.acquire();
+        writeLock.lock();
+        return statements();
+    }
+
+    private void releaseReader(StatementCache reader) {
+        if (readers != null) readers.release(reader);
+        else writeLock.unlock();
+    }
+
+    public DurabilityProfile getDurabilityProfile() {
+        return durabilityProfile;
+    }
+
+    /*
+    Without a reader pool lookups take the writer lock, one at a time.
+     */
+    public int getConcurrentReaders() {
+        return readers == null ? 1 : readers.connections().size();
+    }
+
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    public PoolStatistics getPoolStatistics() {
+        return readers == null ? null : readers.getStatistics();
+    }
+
+    /*
+    Statements prepared on the writer connection so far.
+     */
+    int getPreparedStatementCount() {
+        return statements == null ? 0 : statements.size();
+    }
+
+    public User findUserByName(String userName) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_USER_BY_NAME);
+            st.setString(1, userName);
+            User user = null;
+            try (ResultSet rs = st.executeQuery()) {
+                if (rs.next()){
+                    user = getUserFromRS(rs);
+                }
             }
-            throw e;
+            return user;
+        } finally {
+            releaseReader(reader);
         }
-        return user;
     }
 
 
 
 
-    public Password findPasswordForUser(User user) throws SQLException {
-        String sql = "SELECT passwd FROM Password  WHERE user_id="+user.getId();
-        Statement st =null;
-        Password passwd =null;
-        try {
-            st= db.createStatement();
-            ResultSet rs = st.executeQuery(sql);
-            if (rs.next()) passwd = new Password();
-            passwd.setPasswd(rs.getString("passwd"));
-            passwd.setUserId(user.getId());
-            st.close();
-        }
-        catch (SQLException e){
-            if (st!=null) st.close();
-            throw e;
+    public User findUserById(int userId) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_USER_BY_ID);
+            st.setInt(1, userId);
+            User user = null;
+            try (ResultSet rs = st.executeQuery()) {
+                if (rs.next()){
+                    user = getUserFromRS(rs);
+                }
+            }
+            return user;
+        } finally {
+            releaseReader(reader);
         }
+    }
 
-        return passwd;
+    public Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        List<String> names = new ArrayList<>(new LinkedHashSet<>(userNames));
+        Map<String, User> users = new HashMap<>();
+        if (names.isEmpty()) return users;
+        StatementCache reader = acquireReader();
+        try {
+            for (int from = 0; from < names.size(); from += MAX_IN_LIST) {
+                List<String> chunk = names.subList(from, Math.min(names.size(), from + MAX_IN_LIST));
+                int slots = inListSize(chunk.size());
+                PreparedStatement st = reader.prepare(FIND_USERS_BY_NAMES + inList(slots));
+                for (int i = 0; i < slots; i++) {
+                    st.setString(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        User user = getUserFromRS(rs);
+                        users.put(user.getName(), user);
+                    }
+                }
+            }
+            return users;
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    public Password findPasswordForUser(User user) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_PASSWORD_FOR_USER);
+            st.setInt(1, user.getId());
+            Password passwd =null;
+            try (ResultSet rs = st.executeQuery()) {
+                if (rs.next()) {
+                    passwd = new Password();
+                    passwd.setPasswd(rs.getString("passwd"));
+                    passwd.setUserId(user.getId());
+                }
+            }
+            return passwd;
+        } finally {
+            releaseReader(reader);
+        }
     }
 
 
     public Account findAccountById(int accountId) throws SQLException {
-        String sql= "SELECT " +
-                "user.id as user_id, " +
-                "user.name as user_name, " +
-                "role.id as role_id, " +
-                "role.name as role_name, " +
-                "account.id as account_id, " +
-                "ammount " +
-                "FROM User , Role, Account " +
-                "WHERE role.id=user.role_id AND " +
-                "owner_id = user.id AND " +
-                "user_id = "+accountId;
-        Statement st = null;
-        Account account = null;
+        StatementCache reader = acquireReader();
         try {
-            st = db.createStatement();
-            ResultSet rs = st.executeQuery(sql);
-            if (rs.next()) account = getAccountFromRs(rs);
-            st.close();
+            PreparedStatement st = reader.prepare(FIND_ACCOUNT_BY_ID);
+            st.setInt(1, accountId);
+            Account account = null;
+            try (ResultSet rs = st.executeQuery()) {
+                if (rs.next()) account = getAccountFromRs(rs);
+            }
+            return account;
+        } finally {
+            releaseReader(reader);
         }
-        catch(SQLException e){
-            if (st != null) st.close();
-            throw e;
+    }
+
+
+    public Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        List<Integer> ids = new ArrayList<>(new LinkedHashSet<>(accountIds));
+        Map<Integer, Account> accounts = new HashMap<>();
+        if (ids.isEmpty()) return accounts;
+        StatementCache reader = acquireReader();
+        try {
+            for (int from = 0; from < ids.size(); from += MAX_IN_LIST) {
+                List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IN_LIST));
+                int slots = inListSize(chunk.size());
+                PreparedStatement st = reader.prepare(FIND_ACCOUNTS_BY_IDS + inList(slots));
+                for (int i = 0; i < slots; i++) {
+                    st.setInt(i + 1, chunk.get(Math.min(i, chunk.size() - 1)));
+                }
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        Account account = getAccountFromRs(rs);
+                        accounts.put(account.getId(), account);
+                    }
+                }
+            }
+            return accounts;
+        } finally {
+            releaseReader(reader);
         }
-        return account;
     }
 
+    public List<Account> findAccountsInRange(int afterId, int toId, int limit) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_ACCOUNTS_IN_RANGE);
+            st.setInt(1, afterId);
+            st.setInt(2, toId);
+            st.setInt(3, limit);
+            List<Account> accounts = new ArrayList<>();
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) accounts.add(getAccountFromRs(rs));
+            }
+            return accounts;
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    private static int inListSize(int count) {
+        int size = Integer.highestOneBit(Math.max(1, count));
+        return size < count ? size << 1 : size;
+    }
+
+    private static String inList(int slots) {
+        StringBuilder sb = new StringBuilder(slots * 2 + 1).append('(');
+        for (int i = 0; i < slots; i++) {
+            sb.append(i == 0 ? "?" : ",?");
+        }
+        return sb.append(')').toString();
+    }
 
     public boolean updateAccountState(Account account) throws SQLException {
-        String sql = "UPDATE ACCOUNT SET ammount = "+account.getAmmount() +
-                " WHERE id="+account.getId();
-        Statement st = null;
-        int infected_rows =0;
+        writeLock.lock();
         try {
-            st = db.createStatement();
-            infected_rows = st.executeUpdate(sql);
-            st.close();
-        }
-        catch(SQLException e){
-            if (st!=null) st.close();
-            throw e;
+            PreparedStatement st = statements().prepare(UPDATE_ACCOUNT_STATE);
+            st.setLong(1, account.getAmmountMinor());
+            st.setDouble(2, account.getInterestRate());
+            st.setLong(3, account.getLastAccrual());
+            st.setInt(4, account.getId());
+            st.setLong(5, account.getVersion());
+            int infected_rows = st.executeUpdate();
+            if (infected_rows>=1) {
+                account.setVersion(account.getVersion() + 1);
+                return true;
+            }
+            PreparedStatement find = statements().prepare(FIND_ACCOUNT_VERSION);
+            find.setInt(1, account.getId());
+            try (ResultSet rs = find.executeQuery()) {
+                if (!rs.next()) return false;
+            }
+            throw new ConcurrentUpdateException(account.getId(), account.getVersion());
+        } finally {
+            writeLock.unlock();
         }
-        if (infected_rows>=1) return true;
-        return false;
     }
 
     public boolean setUserPassword(User user, String passwd, String oldPass) throws SQLException {
-        String sql = "UPDATE PASSWORD SET passwd = '"+passwd +
-                "' WHERE user_id="+user.getId()+" AND passwd = '"+oldPass+"'" ;
-        Statement st = null;
-        int infected_rows =0;
+        writeLock.lock();
         try {
-            st = db.createStatement();
-            infected_rows = st.executeUpdate(sql);
-            st.close();
+            PreparedStatement st = statements().prepare(SET_USER_PASSWORD);
+            st.setString(1, passwd);
+            st.setInt(2, user.getId());
+            st.setString(3, oldPass);
+            int infected_rows = st.executeUpdate();
+            if (infected_rows>=1) return true;
+            return false;
+        } finally {
+            writeLock.unlock();
         }
-        catch(SQLException e){
-            if (st!=null) st.close();
+    }
+
+    /*
+    Keyset pagination on (date, id), or on id alone after an operation id: every page is a separate short query
+    continuing after the last row of the previous one, so no cursor stays
+    open and no reader is held while the caller consumes the stream. The
+    first page is read here, later ones as the stream advances; their
+    errors arrive as UncheckedSQLException.
+     */
+    public Stream<Operation> findOperations(OperationQuery query) throws SQLException {
+        OperationCursor cursor = new OperationCursor(query);
+        cursor.fetchPage();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    public int findLastOperationId() throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            try (ResultSet rs = reader.prepare(FIND_LAST_OPERATION_ID).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    public int findMaxAccountId() throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            try (ResultSet rs = reader.prepare(FIND_MAX_ACCOUNT_ID).executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    public InterestCheckpoint findInterestCheckpoint(String runId) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_INTEREST_CHECKPOINT);
+            st.setString(1, runId);
+            try (ResultSet rs = st.executeQuery()) {
+                if (!rs.next()) return null;
+                InterestCheckpoint checkpoint = new InterestCheckpoint();
+                checkpoint.setRunId(rs.getString("run_id"));
+                checkpoint.setToAccountId(rs.getInt("to_account_id"));
+                checkpoint.setLastAccountId(rs.getInt("last_account_id"));
+                checkpoint.setAccounts(rs.getLong("accounts"));
+                checkpoint.setInterestMinor(rs.getLong("interest"));
+                checkpoint.setFinished(rs.getInt("finished") != 0);
+                return checkpoint;
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    public boolean saveInterestCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId)
+            throws SQLException {
+        writeLock.lock();
+        try {
+            PreparedStatement st;
+            if (expectedLastAccountId == null) {
+                st = statements().prepare(INSERT_INTEREST_CHECKPOINT);
+                st.setString(1, checkpoint.getRunId());
+                st.setInt(2, checkpoint.getToAccountId());
+                st.setInt(3, checkpoint.getLastAccountId());
+                st.setLong(4, checkpoint.getAccounts());
+                st.setLong(5, checkpoint.getInterestMinor());
+                st.setInt(6, checkpoint.isFinished() ? 1 : 0);
+            } else {
+                st = statements().prepare(UPDATE_INTEREST_CHECKPOINT);
+                st.setInt(1, checkpoint.getLastAccountId());
+                st.setLong(2, checkpoint.getAccounts());
+                st.setLong(3, checkpoint.getInterestMinor());
+                st.setInt(4, checkpoint.isFinished() ? 1 : 0);
+                st.setString(5, checkpoint.getRunId());
+                st.setInt(6, expectedLastAccountId);
+            }
+            return st.executeUpdate() > 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public long findReplayPosition(String journal) throws SQLException {
+        StatementCache reader = acquireReader();
+        try {
+            PreparedStatement st = reader.prepare(FIND_REPLAY_POSITION);
+            st.setString(1, journal);
+            try (ResultSet rs = st.executeQuery()) {
+                return rs.next() ? rs.getLong(1) : 0;
+            }
+        } finally {
+            releaseReader(reader);
+        }
+    }
+
+    /*
+    A journal without a row is at 0, its first move inserts the row.
+     */
+    public boolean saveReplayPosition(String journal, long expectedPosition, long position) throws SQLException {
+        writeLock.lock();
+        try {
+            PreparedStatement st = statements().prepare(UPDATE_REPLAY_POSITION);
+            st.setLong(1, position);
+            st.setString(2, journal);
+            st.setLong(3, expectedPosition);
+            if (st.executeUpdate() > 0) return true;
+            if (expectedPosition != 0) return false;
+            st = statements().prepare(INSERT_REPLAY_POSITION);
+            st.setString(1, journal);
+            st.setLong(2, position);
+            return st.executeUpdate() > 0;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+    Four statements whatever the number of accounts. Operations are inserted
+    before the balances change, since both compute the interest from the
+    balance. Holding the writer for the whole unit of work keeps other rows
+    out of the id range the History rows are taken from.
+     */
+    public long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        if (Double.isNaN(factor) || Double.isInfinite(factor)) {
+            throw new IllegalArgumentException("Interest factor must be a number");
+        }
+        beginTransaction();
+        try {
+            long[] totals = new long[2];
+            PreparedStatement sum = statements().prepare(SUM_INTEREST);
+            sum.setDouble(1, factor);
+            try (ResultSet rs = sum.executeQuery()) {
+                if (rs.next()) {
+                    totals[0] = rs.getLong(1);
+                    totals[1] = rs.getLong(2);
+                }
+            }
+            if (totals[0] > 0) {
+                int lastOperationId;
+                try (ResultSet rs = statements().prepare(FIND_LAST_OPERATION_ID).executeQuery()) {
+                    lastOperationId = rs.next() ? rs.getInt(1) : 0;
+                }
+                PreparedStatement operations = statements().prepare(INSERT_INTEREST_OPERATIONS);
+                operations.setString(1, description);
+                operations.setString(2, HistoryRecords.formatDate(new Date()));
+                operations.setInt(3, user.getId());
+                operations.setDouble(4, factor);
+                operations.setString(5, OperationType.PAYMENT_IN.toString());
+                operations.setString(6, OperationType.INTEREST.toString());
+                operations.executeUpdate();
+                PreparedStatement history = statements().prepare(INSERT_INTEREST_HISTORY);
+                history.setString(1, String.valueOf(true));
+                history.setInt(2, lastOperationId);
+                history.executeUpdate();
+                PreparedStatement credit = statements().prepare(CREDIT_INTEREST);
+                credit.setDouble(1, factor);
+                credit.executeUpdate();
+            }
+            commitTransaction();
+            return totals;
+        } catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
             throw e;
         }
-        if (infected_rows>=1) return true;
-        return false;
     }
 
     private User getUserFromRS(ResultSet rs) throws SQLException {
@@ -150,61 +597,279 @@ public class DAOImpl implements DAO{
         Account account = new Account();
         account.setOwner(user);
         account.setId(rs.getInt("account_id"));
-        account.setAmmount(rs.getDouble("ammount"));
+        account.setAmmountMinor(rs.getLong("ammount"));
+        account.setVersion(rs.getLong("account_version"));
+        account.setInterestRate(rs.getDouble("account_interest_rate"));
+        account.setLastAccrual(rs.getLong("account_last_accrual"));
         return account;
     }
 
     public void close() throws SQLException {
-        db.close();
+        writeLock.lock();
+        try {
+            if (readers != null) readers.close();
+            if (statements != null) statements.close();
+        } finally {
+            db.close();
+            writeLock.unlock();
+        }
     }
 
     public void logOperation(Operation operation, boolean success) throws SQLException {
-        Statement st = db.createStatement();
-        String sqlStart = "INSERT INTO OPERATION ";
-        String sqlFields = "(`type`, `description`, `date`, `user_id` ";
-        String sqlValues = "VALUES ('"+operation.getType()+"'," +
-                "'"+operation.getDescription()+"'," +
-                "'"+operation.getDate()+"'," +
-                operation.getUser().getId();
-        switch(operation.getType()){
-            case INTEREST: buildQueryInterest((Interest) operation,sqlFields,sqlValues);break;
-            case LOG_IN: buildQueryLogOperation((LogOperation) operation,sqlFields,sqlValues);break;
-            case LOG_OUT: buildQueryLogOperation((LogOperation) operation,sqlFields,sqlValues);break;
-            case WITHDRAW: buildQueryPayment((Payment) operation,sqlFields,sqlValues);break;
-            case PAYMENT_IN: buildQueryPayment((Payment) operation,sqlFields,sqlValues);break;
+        writeLock.lock();
+        try {
+            insertOperation(operation, success);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+    All rows are written in one transaction, so the whole batch costs a single commit.
+     */
+    public void logOperations(List<Operation> operations, boolean[] success) throws SQLException {
+        if (operations.size() != success.length) {
+            throw new IllegalArgumentException("Every operation needs its success flag");
         }
-        sqlFields+=") ";
-        sqlValues+=") ";
-        st.executeUpdate(sqlStart+sqlFields+sqlValues);
-        ResultSet rs = st.getGeneratedKeys();
-        if (rs.next()) {
-            int generatedkey=rs.getInt(1);
-            Statement st2 = db.createStatement();
-            String sql ="INSERT INTO History (`operation_id`,`succesfull`) " +
-                    "VALUES ("+rs.getInt(1)+", '"+success+"')";
-            st2.execute(sql);
-            st2.close();
+        beginTransaction();
+        try {
+            for (int i = 0; i < operations.size(); i++) {
+                insertOperation(operations.get(i), success[i]);
+            }
+            commitTransaction();
+        } catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
+            throw e;
         }
-        st.close();
+    }
 
+    /*
+    The writer lock is taken once per begin and released once per commit/rollback,
+    so other threads wait until the outermost unit of work ends.
+     */
+    public void beginTransaction() throws SQLException {
+        writeLock.lock();
+        if (transactionDepth++ > 0) return;
+        try {
+            db.setAutoCommit(false);
+        } catch (SQLException e) {
+            transactionDepth = 0;
+            writeLock.unlock();
+            throw e;
+        }
     }
 
-    private void buildQueryPayment(Payment operation, String sqlFields, String sqlValues) {
-        sqlFields+= ", `ammount`,`account_id`) ";
-        sqlValues+= ", "+operation.getAmmount()+","+
-                    operation.getAccount().getId()+")";
+    public void commitTransaction() throws SQLException {
+        if (!isInTransaction()) {
+            throw new SQLException("No transaction in progress");
+        }
+        try {
+            if (--transactionDepth > 0) return;
+            boolean commit = !rollbackOnly;
+            endTransaction(commit);
+            if (!commit) {
+                throw new SQLException("Transaction rolled back by a nested unit of work");
+            }
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private void buildQueryInterest(Interest operation, String sqlFields, String sqlValues) {
-        sqlFields+= ", `ammount`,`account_id`) ";
-        sqlValues+= ", "+operation.getAmmount()+","+
-                operation.getAccount().getId()+")";
+    public void rollbackTransaction() throws SQLException {
+        if (!isInTransaction()) return;
+        try {
+            if (--transactionDepth > 0) {
+                rollbackOnly = true;
+                return;
+            }
+            endTransaction(false);
+        } finally {
+            writeLock.unlock();
+        }
     }
 
-    private void buildQueryLogOperation(LogOperation operation, String sqlFields, String sqlValues) {
-        sqlFields+= " )";
-        sqlValues+= " )";
+    public boolean isInTransaction() {
+        return writeLock.isHeldByCurrentThread() && transactionDepth > 0;
     }
 
+    private void endTransaction(boolean commit) throws SQLException {
+        try {
+            if (commit) db.commit();
+            else db.rollback();
+        } catch (SQLException e) {
+            if (commit) db.rollback();
+            throw e;
+        } finally {
+            rollbackOnly = false;
+            db.setAutoCommit(true);
+        }
+    }
+
+    private void insertOperation(Operation operation, boolean success) throws SQLException {
+        PreparedStatement st = statements().prepareReturningKeys(INSERT_OPERATION.get(operation.getType()));
+        bindOperation(st, operation);
+        st.executeUpdate();
+        try (ResultSet rs = st.getGeneratedKeys()) {
+            if (rs.next()) {
+                PreparedStatement history = statements().prepare(INSERT_HISTORY);
+                history.setInt(1, rs.getInt(1));
+                history.setString(2, String.valueOf(success));
+                history.executeUpdate();
+            }
+        }
+    }
 
+    /*
+    Users and accounts of the rows carry only their ids, load them separately when needed.
+     */
+    private Operation getOperationFromRs(ResultSet rs) throws SQLException {
+        User user = null;
+        int userId = rs.getInt("user_id");
+        if (!rs.wasNull()) {
+            user = new User();
+            user.setId(userId);
+        }
+        Account account = null;
+        int accountId = rs.getInt("account_id");
+        if (!rs.wasNull()) {
+            account = new Account();
+            account.setId(accountId);
+        }
+        Operation operation = Operations.create(HistoryRecords.typeOf(rs.getString("type")),
+                user, Money.ofMinor(rs.getLong("ammount")), rs.getString("description"), account);
+        operation.setId(rs.getInt("operation_id"));
+        operation.setDate(HistoryRecords.parseDate(rs.getString("date")));
+        operation.setSuccessful(HistoryRecords.successOf(rs.getString("succesfull")));
+        return operation;
+    }
+
+    private void bindOperation(PreparedStatement st, Operation operation) throws SQLException {
+        st.setString(1, operation.getType().toString());
+        st.setString(2, operation.getDescription());
+        st.setString(3, HistoryRecords.formatDate(operation.getDate()));
+        if (operation.getUser() != null) {
+            st.setInt(4, operation.getUser().getId());
+        } else {
+            st.setNull(4, Types.INTEGER);
+        }
+        if (operation instanceof Payment) {
+            Payment payment = (Payment) operation;
+            st.setLong(5, payment.getAmmountMinor());
+            /* a payment to an unknown account is logged without one */
+            if (payment.getAccount() != null) {
+                st.setInt(6, payment.getAccount().getId());
+            } else {
+                st.setNull(6, Types.INTEGER);
+            }
+        }
+    }
+
+    private class OperationCursor implements Iterator<Operation> {
+        private final Integer accountId;
+        private final Integer fromAccountId;
+        private final Integer toAccountId;
+        private final Integer userId;
+        private final List<OperationType> types;
+        private final boolean byId;
+        private final String from;
+        private final String to;
+        private final int pageSize;
+        private final int fetchSize;
+        private final String firstPage;
+        private final String nextPage;
+        private final List<Operation> page;
+        private int position = 0;
+        private boolean exhausted = false;
+        private boolean started = false;
+        private String lastDate;
+        private int lastId;
+
+        OperationCursor(OperationQuery query) {
+            accountId = query.getAccountId();
+            fromAccountId = query.getFromAccountId();
+            toAccountId = query.getToAccountId();
+            userId = query.getUserId();
+            byId = query.getAfterOperationId() != null;
+            types = query.getTypes() == null ? null : new ArrayList<>(query.getTypes());
+            from = query.getFrom() == null ? null : HistoryRecords.formatDate(query.getFrom());
+            to = query.getTo() == null ? null : HistoryRecords.formatDate(query.getTo());
+            pageSize = query.getPageSize();
+            fetchSize = query.getFetchSize();
+            page = new ArrayList<>(Math.min(pageSize, OperationQuery.DEFAULT_PAGE_SIZE));
+
+            StringBuilder sql = new StringBuilder(SELECT_OPERATIONS);
+            if (accountId != null) sql.append("AND account_id = ? ");
+            /* unary plus: the ordering index, not the account range, must drive the scan */
+            if (fromAccountId != null) sql.append("AND +account_id >= ? ");
+            if (toAccountId != null) sql.append("AND +account_id <= ? ");
+            if (userId != null) sql.append("AND user_id = ? ");
+            if (types != null) sql.append("AND type IN ").append(inList(types.size())).append(' ');
+            if (from != null) sql.append("AND date >= ? ");
+            if (to != null) sql.append("AND date < ? ");
+            if (byId) {
+                /* every page, the first included, continues after lastId */
+                lastId = query.getAfterOperationId();
+                firstPage = sql + "AND operation.id > ? ORDER BY operation.id LIMIT ?";
+                nextPage = firstPage;
+            } else {
+                String order = "ORDER BY date, operation.id LIMIT ?";
+                firstPage = sql + order;
+                nextPage = sql + "AND (date, operation.id) > (?, ?) " + order;
+            }
+        }
+
+        public boolean hasNext() {
+            if (position < page.size()) return true;
+            if (exhausted) return false;
+            try {
+                fetchPage();
+            } catch (SQLException e) {
+                throw new UncheckedSQLException(e);
+            }
+            return position < page.size();
+        }
+
+        public Operation next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return page.get(position++);
+        }
+
+        void fetchPage() throws SQLException {
+            page.clear();
+            position = 0;
+            StatementCache reader = acquireReader();
+            try {
+                PreparedStatement st = reader.prepare(started ? nextPage : firstPage);
+                int i = 1;
+                if (accountId != null) st.setInt(i++, accountId);
+                if (fromAccountId != null) st.setInt(i++, fromAccountId);
+                if (toAccountId != null) st.setInt(i++, toAccountId);
+                if (userId != null) st.setInt(i++, userId);
+                if (types != null) {
+                    for (OperationType type : types) st.setString(i++, type.name());
+                }
+                if (from != null) st.setString(i++, from);
+                if (to != null) st.setString(i++, to);
+                if (byId) {
+                    st.setInt(i++, lastId);
+                } else if (started) {
+                    st.setString(i++, lastDate);
+                    st.setInt(i++, lastId);
+                }
+                st.setInt(i, pageSize);
+                st.setFetchSize(fetchSize);
+                try (ResultSet rs = st.executeQuery()) {
+                    while (rs.next()) {
+                        page.add(getOperationFromRs(rs));
+                        lastDate = rs.getString("date");
+                        lastId = rs.getInt("operation_id");
+                    }
+                }
+            } finally {
+                releaseReader(reader);
+            }
+            started = true;
+            if (page.size() < pageSize) exhausted = true;
+        }
+    }
 }
@@ -0,0 +1,136 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import db.dao.DurabilityProfile;
+import db.dao.OperationQuery;
+import model.Account;
+import model.InterestCheckpoint;
+import model.Operation;
+import model.Password;
+import model.User;
+
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Base class for DAO decorators, forwards every call to the wrapped DAO.
+ */
+public abstract class ForwardingDAO implements DAO {
+    protected final DAO delegate;
+
+    protected ForwardingDAO(DAO delegate) {
+        this.delegate = delegate;
+    }
+
+    public DAO getDelegate() {
+        return delegate;
+    }
+
+    public User findUserByName(String userName) throws SQLException {
+        return delegate.findUserByName(userName);
+    }
+
+    public User findUserById(int userId) throws SQLException {
+        return delegate.findUserById(userId);
+    }
+
+    public Password findPasswordForUser(User user) throws SQLException {
+        return delegate.findPasswordForUser(user);
+    }
+
+    public Account findAccountById(int accountId) throws SQLException {
+        return delegate.findAccountById(accountId);
+    }
+
+    public Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        return delegate.findUsersByNames(userNames);
+    }
+
+    public Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        return delegate.findAccountsByIds(accountIds);
+    }
+
+    public List<Account> findAccountsInRange(int afterId, int toId, int limit) throws SQLException {
+        return delegate.findAccountsInRange(afterId, toId, limit);
+    }
+
+    public int findMaxAccountId() throws SQLException {
+        return delegate.findMaxAccountId();
+    }
+
+    public InterestCheckpoint findInterestCheckpoint(String runId) throws SQLException {
+        return delegate.findInterestCheckpoint(runId);
+    }
+
+    public boolean saveInterestCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId)
+            throws SQLException {
+        return delegate.saveInterestCheckpoint(checkpoint, expectedLastAccountId);
+    }
+
+    public long findReplayPosition(String journal) throws SQLException {
+        return delegate.findReplayPosition(journal);
+    }
+
+    public boolean saveReplayPosition(String journal, long expectedPosition, long position) throws SQLException {
+        return delegate.saveReplayPosition(journal, expectedPosition, position);
+    }
+
+    public long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        return delegate.creditInterestToAll(user, factor, description);
+    }
+
+    public boolean updateAccountState(Account account) throws SQLException {
+        return delegate.updateAccountState(account);
+    }
+
+    public boolean setUserPassword(User user, String passwd, String oldPass) throws SQLException {
+        return delegate.setUserPassword(user, passwd, oldPass);
+    }
+
+    public void close() throws SQLException {
+        delegate.close();
+    }
+
+    public DurabilityProfile getDurabilityProfile() {
+        return delegate.getDurabilityProfile();
+    }
+
+    public int getConcurrentReaders() {
+        return delegate.getConcurrentReaders();
+    }
+
+    public void logOperation(Operation operation, boolean success) throws SQLException {
+        delegate.logOperation(operation, success);
+    }
+
+    public void logOperations(List<Operation> operations, boolean[] success) throws SQLException {
+        delegate.logOperations(operations, success);
+    }
+
+    public Stream<Operation> findOperations(OperationQuery query) throws SQLException {
+        return delegate.findOperations(query);
+    }
+
+    public int findLastOperationId() throws SQLException {
+        return delegate.findLastOperationId();
+    }
+
+    public void beginTransaction() throws SQLException {
+        delegate.beginTransaction();
+    }
+
+    public void commitTransaction() throws SQLException {
+        delegate.commitTransaction();
+    }
+
+    public void rollbackTransaction() throws SQLException {
+        delegate.rollbackTransaction();
+    }
+
+    public boolean isInTransaction() {
+        return delegate.isInTransaction();
+    }
+}
@@ -0,0 +1,66 @@
+package db.dao.impl;
+
+import model.operations.OperationType;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Conversions between the columns of Operation/History rows and model values.
+ * <p>
+ * Dates are stored as fixed-width ISO-8601 UTC text with milliseconds,
+ * so sorting the text sorts by time. Rows written before schema version 4
+ * hold Date.toString() instead and are still understood.
+ */
+final class HistoryRecords {
+    private static final DateTimeFormatter DATE_FORMAT =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+    private static final String LEGACY_DATE_FORMAT = "EEE MMM dd HH:mm:ss zzz yyyy";
+
+    private HistoryRecords() {
+    }
+
+    static String formatDate(Date date) {
+        return DATE_FORMAT.format(date.toInstant());
+    }
+
+    /*
+    Returns null for text that is neither ISO nor Date.toString().
+     */
+    static Date parseDate(String text) {
+        if (text == null) return null;
+        try {
+            return Date.from(DATE_FORMAT.parse(text, Instant::from));
+        } catch (DateTimeParseException e) {
+            return parseLegacyDate(text);
+        }
+    }
+
+    static Date parseLegacyDate(String text) {
+        try {
+            return new SimpleDateFormat(LEGACY_DATE_FORMAT, Locale.US).parse(text);
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    /*
+    The type column holds the enum name, older tools may have written the id.
+     */
+    static OperationType typeOf(String text) {
+        for (OperationType type : OperationType.values()) {
+            if (type.name().equals(text) || String.valueOf(type.getId()).equals(text)) return type;
+        }
+        throw new IllegalArgumentException("Unknown operation type " + text);
+    }
+
+    static boolean successOf(String text) {
+        return "true".equalsIgnoreCase(text) || "1".equals(text);
+    }
+}
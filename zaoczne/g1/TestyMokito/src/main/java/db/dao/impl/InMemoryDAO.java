@@ -0,0 +1,531 @@
+package db.dao.impl;
+
+import db.dao.ConcurrentUpdateException;
+import db.dao.DAO;
+import db.dao.DurabilityProfile;
+import db.dao.OperationQuery;
+import model.*;
+import model.operations.Interest;
+import model.operations.Operations;
+import model.operations.Payment;
+import model.operations.PaymentIn;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static db.dao.impl.ModelCopies.copyOf;
+
+/**
+ * Thread-safe DAO kept entirely in memory, for load tests and benchmarks
+ * of the business layer without SQLite. Lookups return fresh copies just
+ * like DAOImpl, so callers must go through updateAccountState to change
+ * a balance. Writes made inside a unit of work are buffered per thread
+ * and applied on commit. Accounts live in an {@link AccountStore}, so
+ * Account objects exist only while a caller holds one. Account versions
+ * are the store's; inside a unit of work they are checked on commit.
+ */
+public class InMemoryDAO implements DAO {
+    private final ConcurrentIntMap<User> users = new ConcurrentIntMap<>();
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+    private final ConcurrentIntMap<String> passwords = new ConcurrentIntMap<>();
+    private final AccountStore accounts;
+    private final ConcurrentLinkedQueue<LoggedOperation> operations = new ConcurrentLinkedQueue<>();
+    private final Map<String, InterestCheckpoint> checkpoints = new ConcurrentHashMap<>();
+    private final Map<String, Long> replayPositions = new ConcurrentHashMap<>();
+
+    private final AtomicInteger userIds = new AtomicInteger();
+    private final AtomicInteger accountIds = new AtomicInteger();
+    private final AtomicLong operationIds = new AtomicLong();
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ThreadLocal<Transaction> transaction = new ThreadLocal<>();
+
+    public InMemoryDAO() {
+        this(new AccountStore());
+    }
+
+    /*
+    Serves the accounts of an existing store, e.g. one read back from disk.
+    Owners not created through createUser come back as null.
+     */
+    public InMemoryDAO(AccountStore accounts) {
+        this.accounts = accounts;
+        this.accountIds.set(accounts.getMaxId());
+    }
+
+    public User createUser(String name, Role role) {
+        User user = new User();
+        user.setId(userIds.incrementAndGet());
+        user.setName(name);
+        user.setRole(role);
+        if (usersByName.putIfAbsent(name, user) != null) {
+            throw new IllegalArgumentException("User " + name + " already exists");
+        }
+        users.put(user.getId(), user);
+        return copyOf(user);
+    }
+
+    public void setPassword(User user, String passwd) {
+        passwords.put(user.getId(), passwd);
+    }
+
+    public Account createAccount(User owner, double ammount) {
+        int id = accountIds.incrementAndGet();
+        accounts.create(id, owner.getId(), Money.toMinor(ammount));
+        return toAccount(id);
+    }
+
+    public User findUserByName(String userName) throws SQLException {
+        User user = usersByName.get(userName);
+        return user == null ? null : copyOf(user);
+    }
+
+    public User findUserById(int userId) throws SQLException {
+        if (userId < 0) return null;
+        User user = users.get(userId);
+        return user == null ? null : copyOf(user);
+    }
+
+    public Password findPasswordForUser(User user) throws SQLException {
+        String passwd = passwords.get(user.getId());
+        if (passwd == null) return null;
+        Password password = new Password();
+        password.setUserId(user.getId());
+        password.setPasswd(passwd);
+        return password;
+    }
+
+    public Account findAccountById(int accountId) throws SQLException {
+        if (accountId < 0 || !accounts.contains(accountId)) return null;
+        return toAccount(accountId);
+    }
+
+    public Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        Map<String, User> result = new HashMap<>();
+        for (String name : userNames) {
+            User user = findUserByName(name);
+            if (user != null) result.put(name, user);
+        }
+        return result;
+    }
+
+    public Map<Integer, Account> findAccountsByIds(Collection<Integer> accountIds) throws SQLException {
+        Map<Integer, Account> result = new HashMap<>();
+        for (Integer id : accountIds) {
+            Account account = findAccountById(id);
+            if (account != null) result.put(id, account);
+        }
+        return result;
+    }
+
+    public boolean updateAccountState(Account account) throws SQLException {
+        if (account.getId() < 0 || !accounts.contains(account.getId())) return false;
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            PendingBalance pending = tx.accounts.get(account.getId());
+            if (pending == null) {
+                pending = new PendingBalance(account.getVersion());
+                tx.accounts.put(account.getId(), pending);
+            } else if (account.getVersion() != pending.expectedVersion + 1) {
+                throw new ConcurrentUpdateException(account.getId(), account.getVersion());
+            }
+            pending.balance = account.getAmmountMinor();
+            pending.interestRate = account.getInterestRate();
+            pending.lastAccrual = account.getLastAccrual();
+            account.setVersion(pending.expectedVersion + 1);
+            return true;
+        }
+        writeLock.lock();
+        try {
+            if (!accounts.compareAndSetState(account.getId(), account.getVersion(), account.getAmmountMinor(),
+                    account.getInterestRate(), account.getLastAccrual())) {
+                throw new ConcurrentUpdateException(account.getId(), account.getVersion());
+            }
+            account.setVersion(account.getVersion() + 1);
+        } finally {
+            writeLock.unlock();
+        }
+        return true;
+    }
+
+    public boolean setUserPassword(User user, String passwd, String oldPass) throws SQLException {
+        String current = passwords.get(user.getId());
+        if (current == null || !current.equals(oldPass)) return false;
+        return passwords.replace(user.getId(), current, passwd);
+    }
+
+    public void logOperation(Operation operation, boolean success) throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.operations.add(new LoggedOperation(0, operation, success));
+            return;
+        }
+        operations.add(new LoggedOperation(operationIds.incrementAndGet(), operation, success));
+    }
+
+    public void logOperations(List<Operation> operations, boolean[] success) throws SQLException {
+        if (operations.size() != success.length) {
+            throw new IllegalArgumentException("Every operation needs its success flag");
+        }
+        beginTransaction();
+        for (int i = 0; i < operations.size(); i++) {
+            logOperation(operations.get(i), success[i]);
+        }
+        commitTransaction();
+    }
+
+    /*
+    Sorts the matching operations, so unlike DAOImpl this holds them all in memory.
+     */
+    public Stream<Operation> findOperations(OperationQuery query) throws SQLException {
+        Comparator<Operation> order = query.getAfterOperationId() != null
+                ? Comparator.comparing(Operation::getId)
+                : Comparator.comparing(Operation::getDate).thenComparing(Operation::getId);
+        return operations.stream()
+                .filter(op -> matches(query, op))
+                .map(InMemoryDAO::readBack)
+                .sorted(order);
+    }
+
+    public int findLastOperationId() throws SQLException {
+        return (int) operationIds.get();
+    }
+
+    public List<Account> findAccountsInRange(int afterId, int toId, int limit) throws SQLException {
+        List<Account> result = new ArrayList<>();
+        int last = Math.min(toId, accountIds.get());
+        for (int id = Math.max(afterId, 0) + 1; id <= last && result.size() < limit; id++) {
+            if (accounts.contains(id)) result.add(toAccount(id));
+        }
+        return result;
+    }
+
+    public int findMaxAccountId() throws SQLException {
+        return accounts.getMaxId();
+    }
+
+    public InterestCheckpoint findInterestCheckpoint(String runId) throws SQLException {
+        InterestCheckpoint checkpoint = checkpoints.get(runId);
+        return checkpoint == null ? null : copyOf(checkpoint);
+    }
+
+    public boolean saveInterestCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId)
+            throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.checkpoints.add(new PendingCheckpoint(copyOf(checkpoint), expectedLastAccountId));
+            return true;
+        }
+        writeLock.lock();
+        try {
+            return saveCheckpoint(checkpoint, expectedLastAccountId);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+    Called with writeLock held.
+     */
+    private boolean saveCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId) {
+        InterestCheckpoint current = checkpoints.get(checkpoint.getRunId());
+        if (expectedLastAccountId == null ? current != null
+                : current == null || current.isFinished() || current.getLastAccountId() != expectedLastAccountId) {
+            return false;
+        }
+        checkpoints.put(checkpoint.getRunId(), copyOf(checkpoint));
+        return true;
+    }
+
+    public long findReplayPosition(String journal) throws SQLException {
+        return replayPositions.getOrDefault(journal, 0L);
+    }
+
+    public boolean saveReplayPosition(String journal, long expectedPosition, long position) throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx != null) {
+            tx.positions.add(new PendingPosition(journal, expectedPosition, position));
+            return true;
+        }
+        writeLock.lock();
+        try {
+            if (replayPositions.getOrDefault(journal, 0L) != expectedPosition) return false;
+            replayPositions.put(journal, position);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /*
+    The same balances and rows as DAOImpl's set-based statements, one account at a time.
+     */
+    public long[] creditInterestToAll(User user, double factor, String description) throws SQLException {
+        long[] totals = new long[2];
+        List<Operation> rows = new ArrayList<>();
+        beginTransaction();
+        try {
+            int last = accountIds.get();
+            for (int id = 1; id <= last; id++) {
+                if (!accounts.contains(id)) continue;
+                Account account = toAccount(id);
+                long interest = Money.multiply(account.getAmmountMinor(), factor);
+                if (interest <= 0) continue;
+                account.incomeMinor(interest);
+                updateAccountState(account);
+                rows.add(new PaymentIn(user, Money.ofMinor(interest), description, account));
+                rows.add(new Interest(user, Money.ofMinor(interest), description, account));
+                totals[0]++;
+                totals[1] = Money.add(totals[1], interest);
+            }
+            boolean[] success = new boolean[rows.size()];
+            Arrays.fill(success, true);
+            logOperations(rows, success);
+            commitTransaction();
+        } catch (SQLException | RuntimeException e) {
+            rollbackTransaction();
+            throw e;
+        }
+        return totals;
+    }
+
+    public void beginTransaction() throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx == null) {
+            transaction.set(new Transaction());
+        } else {
+            tx.depth++;
+        }
+    }
+
+    public void commitTransaction() throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx == null) {
+            throw new SQLException("No transaction in progress");
+        }
+        if (--tx.depth > 0) return;
+        transaction.remove();
+        if (tx.rollbackOnly) {
+            throw new SQLException("Transaction rolled back by a nested unit of work");
+        }
+        writeLock.lock();
+        try {
+            for (Map.Entry<Integer, PendingBalance> e : tx.accounts.entrySet()) {
+                if (accounts.getVersion(e.getKey()) != e.getValue().expectedVersion) {
+                    throw new ConcurrentUpdateException(e.getKey(), e.getValue().expectedVersion);
+                }
+            }
+            Map<String, Long> positions = new HashMap<>();
+            for (PendingPosition pending : tx.positions) {
+                Long moved = positions.get(pending.journal);
+                long current = moved != null ? moved : replayPositions.getOrDefault(pending.journal, 0L);
+                if (current != pending.expectedPosition) {
+                    throw new SQLException("Journal " + pending.journal + " was replayed by another writer");
+                }
+                positions.put(pending.journal, pending.position);
+            }
+            Map<String, InterestCheckpoint> saved = new HashMap<>();
+            for (PendingCheckpoint pending : tx.checkpoints) {
+                String runId = pending.checkpoint.getRunId();
+                InterestCheckpoint before = checkpoints.get(runId);
+                if (!saveCheckpoint(pending.checkpoint, pending.expectedLastAccountId)) {
+                    saved.forEach((id, previous) -> {
+                        if (previous == null) checkpoints.remove(id); else checkpoints.put(id, previous);
+                    });
+                    throw new SQLException("Interest run " + runId + " was moved on by another writer");
+                }
+                saved.putIfAbsent(runId, before);
+            }
+            replayPositions.putAll(positions);
+            for (Map.Entry<Integer, PendingBalance> e : tx.accounts.entrySet()) {
+                PendingBalance pending = e.getValue();
+                accounts.setState(e.getKey(), pending.balance, pending.interestRate, pending.lastAccrual);
+            }
+            for (LoggedOperation op : tx.operations) {
+                operations.add(new LoggedOperation(operationIds.incrementAndGet(), op.operation, op.success));
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public void rollbackTransaction() throws SQLException {
+        Transaction tx = transaction.get();
+        if (tx == null) return;
+        if (--tx.depth > 0) {
+            tx.rollbackOnly = true;
+            return;
+        }
+        transaction.remove();
+    }
+
+    public boolean isInTransaction() {
+        return transaction.get() != null;
+    }
+
+    /*
+    Nothing is persisted, so no SQLite durability profile applies.
+     */
+    public DurabilityProfile getDurabilityProfile() {
+        return null;
+    }
+
+    /*
+    Lookups never wait for each other.
+     */
+    public int getConcurrentReaders() {
+        return Integer.MAX_VALUE;
+    }
+
+    public void close() throws SQLException {
+    }
+
+    public long getOperationCount() {
+        return operationIds.get();
+    }
+
+    public List<LoggedOperation> getOperations() {
+        return new ArrayList<>(operations);
+    }
+
+    public AccountStore getAccountStore() {
+        return accounts;
+    }
+
+    private Account toAccount(int accountId) {
+        Account account = new Account();
+        account.setId(accountId);
+        account.setOwner(users.get(accounts.getOwnerId(accountId)));
+        long version;
+        long balance;
+        double interestRate;
+        long lastAccrual;
+        do {
+            version = accounts.getVersion(accountId);
+            balance = accounts.getBalance(accountId);
+            interestRate = accounts.getInterestRate(accountId);
+            lastAccrual = accounts.getLastAccrual(accountId);
+        } while (accounts.getVersion(accountId) != version);
+        account.setAmmountMinor(balance);
+        account.setVersion(version);
+        account.setInterestRate(interestRate);
+        account.setLastAccrual(lastAccrual);
+        return account;
+    }
+
+    private static boolean matches(OperationQuery query, LoggedOperation logged) {
+        Operation operation = logged.operation;
+        Integer accountId = null;
+        if (operation instanceof Payment && ((Payment) operation).getAccount() != null) {
+            accountId = ((Payment) operation).getAccount().getId();
+        }
+        Integer userId = operation.getUser() == null ? null : operation.getUser().getId();
+        return query.matches((int) logged.id, accountId, userId, operation.getType(), operation.getDate());
+    }
+
+    /*
+    Same shape as the rows DAOImpl returns: users and accounts carry only their ids.
+     */
+    private static Operation readBack(LoggedOperation logged) {
+        Operation operation = logged.operation;
+        User user = null;
+        if (operation.getUser() != null) {
+            user = new User();
+            user.setId(operation.getUser().getId());
+        }
+        Money ammount = Money.ZERO;
+        Account account = null;
+        if (operation instanceof Payment) {
+            Payment payment = (Payment) operation;
+            ammount = Money.ofMinor(payment.getAmmountMinor());
+            if (payment.getAccount() != null) {
+                account = new Account();
+                account.setId(payment.getAccount().getId());
+            }
+        }
+        Operation copy = Operations.create(operation.getType(), user, ammount, operation.getDescription(), account);
+        copy.setId((int) logged.id);
+        copy.setDate(operation.getDate());
+        copy.setSuccessful(logged.success);
+        return copy;
+    }
+
+    public static class LoggedOperation {
+        private final long id;
+        private final Operation operation;
+        private final boolean success;
+
+        LoggedOperation(long id, Operation operation, boolean success) {
+            this.id = id;
+            this.operation = operation;
+            this.success = success;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public Operation getOperation() {
+            return operation;
+        }
+
+        public boolean isSuccess() {
+            return success;
+        }
+    }
+
+    private static class Transaction {
+        int depth = 1;
+        boolean rollbackOnly = false;
+        final Map<Integer, PendingBalance> accounts = new LinkedHashMap<>();
+        final List<LoggedOperation> operations = new ArrayList<>();
+        final List<PendingCheckpoint> checkpoints = new ArrayList<>();
+        final List<PendingPosition> positions = new ArrayList<>();
+    }
+
+    private static class PendingCheckpoint {
+        final InterestCheckpoint checkpoint;
+        final Integer expectedLastAccountId;
+
+        PendingCheckpoint(InterestCheckpoint checkpoint, Integer expectedLastAccountId) {
+            this.checkpoint = checkpoint;
+            this.expectedLastAccountId = expectedLastAccountId;
+        }
+    }
+
+    private static class PendingPosition {
+        final String journal;
+        final long expectedPosition;
+        final long position;
+
+        PendingPosition(String journal, long expectedPosition, long position) {
+            this.journal = journal;
+            this.expectedPosition = expectedPosition;
+            this.position = position;
+        }
+    }
+
+    private static class PendingBalance {
+        final long expectedVersion;
+        long balance;
+        double interestRate;
+        long lastAccrual;
+
+        PendingBalance(long expectedVersion) {
+            this.expectedVersion = expectedVersion;
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package db.dao.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Size-bounded LRU cache whose entries also expire after a fixed time.
+ * <p>
+ * Loads that race with writes are handled with fill tokens: a caller takes
+ * a token before reading the database and stores the result with
+ * {@link #putIfUnchanged}, which refuses it if any write or invalidation
+ * happened in between.
+ */
+class LruCache<K, V> {
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LongSupplier clock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private long writes = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long expirations = 0;
+
+    LruCache(int maxSize, long ttl, TimeUnit unit) {
+        this(maxSize, ttl, unit, System::nanoTime);
+    }
+
+    LruCache(int maxSize, long ttl, TimeUnit unit, LongSupplier clock) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry != null && clock.getAsLong() - entry.expiresAt >= 0) {
+            entries.remove(key);
+            expirations++;
+            entry = null;
+        }
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return entry.value;
+    }
+
+    synchronized long fillToken() {
+        return writes;
+    }
+
+    synchronized boolean putIfUnchanged(K key, V value, long token) {
+        if (token != writes) return false;
+        store(key, value);
+        return true;
+    }
+
+    synchronized void put(K key, V value) {
+        writes++;
+        store(key, value);
+    }
+
+    synchronized void invalidate(K key) {
+        writes++;
+        entries.remove(key);
+    }
+
+    synchronized void invalidateAll() {
+        writes++;
+        entries.clear();
+    }
+
+    synchronized CacheStatistics getStatistics() {
+        return new CacheStatistics(hits, misses, evictions, expirations, entries.size());
+    }
+
+    private void store(K key, V value) {
+        entries.put(key, new Entry<>(value, clock.getAsLong() + ttlNanos));
+        if (entries.size() > maxSize) {
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
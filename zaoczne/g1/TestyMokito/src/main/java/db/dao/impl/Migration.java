@@ -0,0 +1,42 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * One versioned step of the bank schema. Statements must be idempotent
+ * (IF NOT EXISTS and the like), so re-running a step that was applied but
+ * not recorded does no harm. Steps needing more than plain SQL override
+ * {@link #apply(Connection)}.
+ */
+class Migration {
+    private final int version;
+    private final String description;
+    private final String[] statements;
+
+    Migration(int version, String description, String... statements) {
+        this.version = version;
+        this.description = description;
+        this.statements = statements;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    String getDescription() {
+        return description;
+    }
+
+    void apply(Connection conn) throws SQLException {
+        Statement st = conn.createStatement();
+        try {
+            for (String sql : statements) {
+                st.executeUpdate(sql);
+            }
+        } finally {
+            st.close();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package db.dao.impl;
+
+import model.Account;
+import model.InterestCheckpoint;
+import model.User;
+
+/**
+ * Copies of model objects handed out by the DAO decorators and the in-memory
+ * DAO, so a caller mutating its object never changes shared state.
+ */
+final class ModelCopies {
+    private ModelCopies() {
+    }
+
+    static User copyOf(User user) {
+        User copy = new User();
+        copy.setId(user.getId());
+        copy.setName(user.getName());
+        copy.setRole(user.getRole());
+        return copy;
+    }
+
+    static Account copyOf(Account account) {
+        Account copy = new Account();
+        copy.setId(account.getId());
+        copy.setOwner(account.getOwner());
+        copy.setAmmountMinor(account.getAmmountMinor());
+        copy.setVersion(account.getVersion());
+        copy.setInterestRate(account.getInterestRate());
+        copy.setLastAccrual(account.getLastAccrual());
+        return copy;
+    }
+
+    static InterestCheckpoint copyOf(InterestCheckpoint checkpoint) {
+        InterestCheckpoint copy = new InterestCheckpoint();
+        copy.setRunId(checkpoint.getRunId());
+        copy.setToAccountId(checkpoint.getToAccountId());
+        copy.setLastAccountId(checkpoint.getLastAccountId());
+        copy.setAccounts(checkpoint.getAccounts());
+        copy.setInterestMinor(checkpoint.getInterestMinor());
+        copy.setFinished(checkpoint.isFinished());
+        return copy;
+    }
+}
@@ -0,0 +1,128 @@
+package db.dao.impl;
+
+import model.Money;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+
+/**
+ * Turns the REAL ammount columns of Account and Operation into INTEGER
+ * columns of minor units. SQLite cannot change a column's type, so each
+ * table is rebuilt: a copy with the new column is filled BATCH rows at a
+ * time, with ammounts converted by {@link Money#toMinor(double)}, then
+ * replaces the original and its indices are created again. Foreign keys
+ * are not enforced on the bank database, so dropping the original is safe.
+ * A table whose ammount is already INTEGER is left alone.
+ * <p>
+ * The copies have the columns of a new database (migration 1). A legacy
+ * database's NOT NULL on Operation.user_id and type is dropped on purpose:
+ * the DAO stores an operation without a user with a NULL user_id.
+ */
+class MoneyMigration extends Migration {
+    private static final int BATCH = 1000;
+
+    MoneyMigration(int version) {
+        super(version, "Store ammounts as INTEGER minor units",
+                "CREATE INDEX IF NOT EXISTS idx_account_owner ON Account(owner_id)",
+                "CREATE INDEX IF NOT EXISTS idx_operation_account_date ON Operation(account_id, date)",
+                "CREATE INDEX IF NOT EXISTS idx_operation_date ON Operation(date)",
+                "CREATE INDEX IF NOT EXISTS idx_operation_user_date ON Operation(user_id, date)");
+    }
+
+    @Override
+    void apply(Connection conn) throws SQLException {
+        if (!hasIntegerAmmount(conn, "Account")) {
+            rebuild(conn, "Account",
+                    "CREATE TABLE Account_new (" +
+                            " `id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            " `owner_id` INTEGER, " +
+                            " `ammount` INTEGER, " +
+                            "FOREIGN KEY(`owner_id`) REFERENCES User(id) " +
+                            ")",
+                    "id, owner_id");
+        }
+        if (!hasIntegerAmmount(conn, "Operation")) {
+            rebuild(conn, "Operation",
+                    "CREATE TABLE Operation_new ( " +
+                            " `id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                            " `ammount` INTEGER, " +
+                            " `description` TEXT NOT NULL, " +
+                            " `date` TEXT NOT NULL, " +
+                            " `user_id` INTEGER," +
+                            " `account_id` INTEGER," +
+                            " `type` INTEGER," +
+                            "FOREIGN KEY(`type`) REFERENCES Operation_Types ( id ), " +
+                            "FOREIGN KEY(`user_id`) REFERENCES User ( id ), " +
+                            "FOREIGN KEY(`account_id`) REFERENCES Account ( id ) " +
+                            ")",
+                    "id, description, date, user_id, account_id, type");
+        }
+        super.apply(conn);
+    }
+
+    private static boolean hasIntegerAmmount(Connection conn, String table) throws SQLException {
+        try (Statement st = conn.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if ("ammount".equalsIgnoreCase(rs.getString("name"))) {
+                    return "INTEGER".equalsIgnoreCase(rs.getString("type"));
+                }
+            }
+        }
+        return false;
+    }
+
+    /*
+    columns are the ones copied unchanged, the first of them must be the id.
+     */
+    private static void rebuild(Connection conn, String table, String createCopy, String columns) throws SQLException {
+        String copy = table + "_new";
+        String[] names = columns.split(",\\s*");
+        StringBuilder params = new StringBuilder("?");
+        for (int i = 0; i < names.length; i++) params.append(", ?");
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("DROP TABLE IF EXISTS " + copy);
+            st.executeUpdate(createCopy);
+        }
+        PreparedStatement select = conn.prepareStatement(
+                "SELECT " + columns + ", ammount FROM " + table + " WHERE id > ? ORDER BY id LIMIT " + BATCH);
+        PreparedStatement insert = conn.prepareStatement(
+                "INSERT INTO " + copy + " (" + columns + ", ammount) VALUES (" + params + ")");
+        try {
+            long lastId = Long.MIN_VALUE;
+            int rows;
+            do {
+                rows = 0;
+                select.setLong(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastId = rs.getLong(1);
+                        for (int i = 1; i <= names.length; i++) {
+                            insert.setObject(i, rs.getObject(i));
+                        }
+                        double ammount = rs.getDouble(names.length + 1);
+                        if (rs.wasNull()) {
+                            insert.setNull(names.length + 1, Types.INTEGER);
+                        } else {
+                            insert.setLong(names.length + 1, Money.toMinor(ammount));
+                        }
+                        insert.addBatch();
+                    }
+                }
+                insert.executeBatch();
+            } while (rows == BATCH);
+        } finally {
+            select.close();
+            insert.close();
+        }
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("DROP TABLE " + table);
+            st.executeUpdate("ALTER TABLE " + copy + " RENAME TO " + table);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Date;
+
+/**
+ * Rewrites Operation.date from Date.toString() to the sortable ISO-8601
+ * form of {@link HistoryRecords}, then creates the history indices. Rows
+ * are converted in id order, BATCH rows per round, so memory use stays
+ * flat on large histories. Dates that cannot be parsed are left as they are.
+ */
+class OperationDateMigration extends Migration {
+    private static final int BATCH = 1000;
+
+    OperationDateMigration(int version) {
+        super(version, "Store operation dates as ISO-8601 and index history by date",
+                "CREATE INDEX IF NOT EXISTS idx_operation_date ON Operation(date)",
+                "CREATE INDEX IF NOT EXISTS idx_operation_user_date ON Operation(user_id, date)");
+    }
+
+    @Override
+    void apply(Connection conn) throws SQLException {
+        PreparedStatement select = conn.prepareStatement(
+                "SELECT id, date FROM Operation WHERE id > ? ORDER BY id LIMIT " + BATCH);
+        PreparedStatement update = conn.prepareStatement("UPDATE Operation SET date = ? WHERE id = ?");
+        try {
+            int lastId = Integer.MIN_VALUE;
+            int rows;
+            do {
+                rows = 0;
+                select.setInt(1, lastId);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        rows++;
+                        lastId = rs.getInt(1);
+                        Date date = HistoryRecords.parseLegacyDate(rs.getString(2));
+                        if (date == null) continue;
+                        update.setString(1, HistoryRecords.formatDate(date));
+                        update.setInt(2, lastId);
+                        update.addBatch();
+                    }
+                }
+                update.executeBatch();
+            } while (rows == BATCH);
+        } finally {
+            select.close();
+            update.close();
+        }
+        super.apply(conn);
+    }
+}
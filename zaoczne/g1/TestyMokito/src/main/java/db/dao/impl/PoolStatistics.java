@@ -0,0 +1,54 @@
+package db.dao.impl;
+
+/**
+ * Snapshot of the read connection pool counters.
+ */
+public class PoolStatistics {
+    private final int size;
+    private final int inUse;
+    private final long acquisitions;
+    private final long totalWaitNanos;
+    private final long maxWaitNanos;
+
+    PoolStatistics(int size, int inUse, long acquisitions, long totalWaitNanos, long maxWaitNanos) {
+        this.size = size;
+        this.inUse = inUse;
+        this.acquisitions = acquisitions;
+        this.totalWaitNanos = totalWaitNanos;
+        this.maxWaitNanos = maxWaitNanos;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getInUse() {
+        return inUse;
+    }
+
+    public long getAcquisitions() {
+        return acquisitions;
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos;
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos;
+    }
+
+    public double getAverageWaitNanos() {
+        if (acquisitions == 0) return 0;
+        return (double) totalWaitNanos / acquisitions;
+    }
+
+    @Override
+    public String toString() {
+        return "PoolStatistics{size=" + size +
+                ", inUse=" + inUse +
+                ", acquisitions=" + acquisitions +
+                ", avgWaitNanos=" + (long) getAverageWaitNanos() +
+                ", maxWaitNanos=" + maxWaitNanos + "}";
+    }
+}
@@ -1,109 +1,156 @@
 package db.dao.impl;
 
 import db.dao.DAO;
+import db.dao.DurabilityProfile;
 import model.operations.OperationType;
+import org.sqlite.SQLiteConfig;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Created by Krzysztof Podlaski on 04.03.2018.
  */
 public class SQLiteDB {
+    public static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30_000;
+    public static final String DURABILITY_PROPERTY = "bank.durability";
+
+    /*
+    Profile for the default database, chosen per environment with -Dbank.durability=BALANCED.
+     */
+    public static DurabilityProfile defaultProfile() {
+        return DurabilityProfile.valueOf(System.getProperty(DURABILITY_PROPERTY, DurabilityProfile.STRICT.name()));
+    }
 
     public static DAO createDAO() throws ClassNotFoundException, SQLException {
         String url = "jdbc:sqlite:./bank.db";
-        return createDAO(url);
+        return createDAO(url, defaultProfile());
     }
 
     public static DAO createDAO(String url) throws ClassNotFoundException, SQLException {
+        return createDAO(url, DurabilityProfile.STRICT);
+    }
+
+    public static DAO createDAO(String url, DurabilityProfile profile) throws ClassNotFoundException, SQLException {
         Class.forName("org.sqlite.JDBC");
         Connection conn = DriverManager.getConnection(url);
+        int schemaVersion;
+        try {
+            applyProfile(conn, profile, true);
+            schemaVersion = SchemaMigrations.migrate(conn);
+        } catch (SQLException e) {
+            conn.close();
+            throw e;
+        }
         DAOImpl dao = new DAOImpl();
         dao.db = conn;
+        dao.durabilityProfile = profile;
+        dao.schemaVersion = schemaVersion;
         return dao;
     }
 
-    public static void initializeDB() throws ClassNotFoundException, SQLException {
-        initializeDB("jdbc:sqlite:./bank.db");
+    public static DAO createPooledDAO(int readers) throws ClassNotFoundException, SQLException {
+        return createPooledDAO("jdbc:sqlite:./bank.db", readers, defaultProfile());
     }
 
+    public static DAO createPooledDAO(String url, int readers) throws ClassNotFoundException, SQLException {
+        return createPooledDAO(url, readers, DurabilityProfile.STRICT);
+    }
 
-    public static void initializeDB(String connectionString) throws ClassNotFoundException, SQLException {
-        Class.forName("org.sqlite.JDBC");
-        Connection conn = DriverManager.getConnection("jdbc:sqlite:./bank.db");
-        String sql;
-        Statement st = conn.createStatement();
-
-        sql = "CREATE TABLE `Role` (" +
-                " `id`	INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, " +
-                " `name`	TEXT NOT NULL UNIQUE )";
-        st.executeUpdate(sql);
-
-        sql = "CREATE TABLE \"User\" ( " +
-                " `id`  INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                " `name` TEXT NOT NULL UNIQUE, " +
-                " `role_id` INTEGER NOT NULL, " +
-                " FOREIGN KEY(`role_id`) REFERENCES Role(id) " +
-                ")";
-        st.executeUpdate(sql);
-
-        sql = "CREATE TABLE \"Password\" ( " +
-                " `user_id` INTEGER, " +
-                " `passwd` TEXT, " +
-                " FOREIGN KEY(`user_id`) REFERENCES User(id) " +
-                ")";
-        st.executeUpdate(sql);
-
-        sql = "CREATE TABLE `Account` (" +
-                " `id`\tINTEGER PRIMARY KEY AUTOINCREMENT, " +
-                " `owner_id` INTEGER, " +
-                " `ammount` REAL, " +
-                "FOREIGN KEY(`owner_id`) REFERENCES User(id) " +
-                ")";
-        st.executeUpdate(sql);
-
-        sql = "CREATE TABLE `Operation` ( " +
-                " `id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                " `ammount` REAL, " +
-                " `description` TEXT NOT NULL, " +
-                " `date` TEXT NOT NULL, " +
-                " `user_id` INTEGER," +
-                " `account_id` INTEGER," +
-                " `type` INTEGER," +
-                "FOREIGN KEY(`type`) REFERENCES Operation_Types ( id ), "+
-                "FOREIGN KEY(`user_id`) REFERENCES User ( id ), "+
-                "FOREIGN KEY(`account_id`) REFERENCES Account ( id ) "+
-                ")";
-        st.executeUpdate(sql);
+    public static DAO createPooledDAO(String url, int readers, DurabilityProfile profile) throws ClassNotFoundException, SQLException {
+        return createPooledDAO(url, readers, profile, DEFAULT_ACQUIRE_TIMEOUT_MILLIS);
+    }
 
-        sql = "CREATE TABLE `History` ( " +
-                " `operation_id` INTEGER, " +
-                " `succesfull` INTEGER NOT NULL, " +
-                " FOREIGN KEY(`operation_id`) REFERENCES Operation(id) " +
-                ")";
-        st.executeUpdate(sql);
+    /*
+    Pending schema migrations run on the writer before the readers are opened.
+    One writer connection plus a pool of read-only connections
+    serving findUserByName, findAccountById and findPasswordForUser.
+    Readers wait for the writer unless the profile uses WAL.
+     */
+    public static DAO createPooledDAO(String url, int readers, DurabilityProfile profile, long acquireTimeoutMillis) throws ClassNotFoundException, SQLException {
+        if (readers < 1) {
+            throw new IllegalArgumentException("Reader pool needs at least one connection");
+        }
+        Class.forName("org.sqlite.JDBC");
+        Connection writer = DriverManager.getConnection(url);
+        List<Connection> readConnections = new ArrayList<>();
+        int schemaVersion;
+        try {
+            applyProfile(writer, profile, true);
+            schemaVersion = SchemaMigrations.migrate(writer);
+            SQLiteConfig config = new SQLiteConfig();
+            config.setReadOnly(true);
+            for (int i = 0; i < readers; i++) {
+                Connection reader = DriverManager.getConnection(url, config.toProperties());
+                readConnections.add(reader);
+                applyProfile(reader, profile, false);
+            }
+        } catch (SQLException e) {
+            for (Connection c : readConnections) c.close();
+            writer.close();
+            throw e;
+        }
+        DAOImpl dao = new DAOImpl();
+        dao.db = writer;
+        dao.readers = new ConnectionPool(readConnections, acquireTimeoutMillis);
+        dao.durabilityProfile = profile;
+        dao.schemaVersion = schemaVersion;
+        return dao;
+    }
 
-        sql= "CREATE TABLE `Operation_Types` ( " +
-                " `id` INTEGER, " +
-                " `name` TEXT, " +
-                " PRIMARY KEY(id) " +
-                ")";
+    /*
+    journal_mode is stored in the database file, so only the writer sets it;
+    the remaining pragmas are per connection.
+     */
+    static void applyProfile(Connection conn, DurabilityProfile profile, boolean writer) throws SQLException {
+        Statement st = conn.createStatement();
+        try {
+            if (writer) {
+                st.execute("PRAGMA journal_mode = " + profile.getJournalMode());
+            }
+            st.execute("PRAGMA synchronous = " + profile.getSynchronous());
+            st.execute("PRAGMA cache_size = " + profile.getCacheSize());
+            st.execute("PRAGMA mmap_size = " + profile.getMmapSize());
+            st.execute("PRAGMA temp_store = " + profile.getTempStore());
+        } finally {
+            st.close();
+        }
+    }
 
-        st.executeUpdate(sql);
+    public static void initializeDB() throws ClassNotFoundException, SQLException {
+        initializeDB("jdbc:sqlite:./bank.db", defaultProfile());
+    }
 
-        sql = "INSERT INTO Operation_Types " +
-                " (`id`, `name`) VALUES " +
-                " (?,?)";
-        PreparedStatement pst = conn.prepareStatement(sql);
+    public static void initializeDB(String connectionString) throws ClassNotFoundException, SQLException {
+        initializeDB(connectionString, DurabilityProfile.STRICT);
+    }
 
-        for (OperationType type : OperationType.values()) {
-            pst.setString(type.getId(),type.name());
-            pst.execute();
+    /*
+    Creates the schema of a new database through the migrations and fills Operation_Types.
+    Safe to call on a database that already exists.
+     */
+    public static void initializeDB(String connectionString, DurabilityProfile profile) throws ClassNotFoundException, SQLException {
+        Class.forName("org.sqlite.JDBC");
+        Connection conn = DriverManager.getConnection(connectionString);
+        try {
+            applyProfile(conn, profile, true);
+            SchemaMigrations.migrate(conn);
+            String sql = "INSERT OR IGNORE INTO Operation_Types " +
+                    " (`id`, `name`) VALUES " +
+                    " (?,?)";
+            PreparedStatement pst = conn.prepareStatement(sql);
+            try {
+                for (OperationType type : OperationType.values()) {
+                    pst.setInt(1, type.getId());
+                    pst.setString(2, type.name());
+                    pst.execute();
+                }
+            } finally {
+                pst.close();
+            }
+        } finally {
+            conn.close();
         }
-        pst.close();
-
-
-        st.close();
-        conn.close();
     }
 }
@@ -0,0 +1,161 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ordered schema migrations of the bank database. The versions applied so
+ * far are recorded in schema_version, and {@link #migrate(Connection)} runs
+ * the missing ones in order, each in its own transaction.
+ */
+public class SchemaMigrations {
+    private static final List<Migration> MIGRATIONS = new ArrayList<>();
+
+    static {
+        MIGRATIONS.add(new Migration(1, "Baseline bank schema",
+                "CREATE TABLE IF NOT EXISTS `Role` (" +
+                        " `id`	INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, " +
+                        " `name`	TEXT NOT NULL UNIQUE )",
+                "CREATE TABLE IF NOT EXISTS \"User\" ( " +
+                        " `id`  INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        " `name` TEXT NOT NULL UNIQUE, " +
+                        " `role_id` INTEGER NOT NULL, " +
+                        " FOREIGN KEY(`role_id`) REFERENCES Role(id) " +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS \"Password\" ( " +
+                        " `user_id` INTEGER, " +
+                        " `passwd` TEXT, " +
+                        " FOREIGN KEY(`user_id`) REFERENCES User(id) " +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS `Account` (" +
+                        " `id`\tINTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        " `owner_id` INTEGER, " +
+                        " `ammount` REAL, " +
+                        "FOREIGN KEY(`owner_id`) REFERENCES User(id) " +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS `Operation` ( " +
+                        " `id` INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                        " `ammount` REAL, " +
+                        " `description` TEXT NOT NULL, " +
+                        " `date` TEXT NOT NULL, " +
+                        " `user_id` INTEGER," +
+                        " `account_id` INTEGER," +
+                        " `type` INTEGER," +
+                        "FOREIGN KEY(`type`) REFERENCES Operation_Types ( id ), " +
+                        "FOREIGN KEY(`user_id`) REFERENCES User ( id ), " +
+                        "FOREIGN KEY(`account_id`) REFERENCES Account ( id ) " +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS `History` ( " +
+                        " `operation_id` INTEGER, " +
+                        " `succesfull` INTEGER NOT NULL, " +
+                        " FOREIGN KEY(`operation_id`) REFERENCES Operation(id) " +
+                        ")",
+                "CREATE TABLE IF NOT EXISTS `Operation_Types` ( " +
+                        " `id` INTEGER, " +
+                        " `name` TEXT, " +
+                        " PRIMARY KEY(id) " +
+                        ")"));
+        MIGRATIONS.add(new Migration(2, "Index account and password lookups by user",
+                "CREATE INDEX IF NOT EXISTS idx_account_owner ON Account(owner_id)",
+                "CREATE INDEX IF NOT EXISTS idx_password_user ON Password(user_id)"));
+        MIGRATIONS.add(new Migration(3, "Index operation history",
+                "CREATE INDEX IF NOT EXISTS idx_operation_account_date ON Operation(account_id, date)",
+                "CREATE INDEX IF NOT EXISTS idx_history_operation ON History(operation_id)"));
+        MIGRATIONS.add(new OperationDateMigration(4));
+        MIGRATIONS.add(new MoneyMigration(5));
+        MIGRATIONS.add(new AddColumnMigration(6, "Version accounts for optimistic updates",
+                "Account", "version", "INTEGER NOT NULL DEFAULT 0"));
+        MIGRATIONS.add(new AddColumnMigration(7, "Yearly interest rate of accounts",
+                "Account", "interest_rate", "REAL NOT NULL DEFAULT 0"));
+        MIGRATIONS.add(new AddColumnMigration(8, "Time interest was last accrued up to",
+                "Account", "last_accrual", "INTEGER NOT NULL DEFAULT 0"));
+        MIGRATIONS.add(new Migration(9, "Checkpoints of resumable interest runs",
+                "CREATE TABLE IF NOT EXISTS `Interest_Checkpoint` ( " +
+                        " `run_id` TEXT NOT NULL, " +
+                        " `to_account_id` INTEGER NOT NULL, " +
+                        " `last_account_id` INTEGER NOT NULL, " +
+                        " `accounts` INTEGER NOT NULL, " +
+                        " `interest` INTEGER NOT NULL, " +
+                        " `finished` INTEGER NOT NULL, " +
+                        " PRIMARY KEY(run_id) " +
+                        ")"));
+        MIGRATIONS.add(new Migration(10, "Replay positions of journals written into the history",
+                "CREATE TABLE IF NOT EXISTS `Replay_Position` ( " +
+                        " `journal` TEXT NOT NULL, " +
+                        " `position` INTEGER NOT NULL, " +
+                        " PRIMARY KEY(journal) " +
+                        ")"));
+    }
+
+    private static final String CREATE_VERSION_TABLE = "CREATE TABLE IF NOT EXISTS schema_version ( " +
+            " `version` INTEGER PRIMARY KEY, " +
+            " `description` TEXT NOT NULL, " +
+            " `applied_at` TEXT NOT NULL " +
+            ")";
+
+    private SchemaMigrations() {
+    }
+
+    public static int latestVersion() {
+        return MIGRATIONS.get(MIGRATIONS.size() - 1).getVersion();
+    }
+
+    public static int currentVersion(Connection conn) throws SQLException {
+        Statement st = conn.createStatement();
+        try {
+            st.executeUpdate(CREATE_VERSION_TABLE);
+            try (ResultSet rs = st.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } finally {
+            st.close();
+        }
+    }
+
+    /*
+    Returns the schema version after migrating.
+     */
+    public static int migrate(Connection conn) throws SQLException {
+        int current = currentVersion(conn);
+        for (Migration migration : pending(current)) {
+            boolean autoCommit = conn.getAutoCommit();
+            conn.setAutoCommit(false);
+            try {
+                migration.apply(conn);
+                PreparedStatement pst = conn.prepareStatement(
+                        "INSERT INTO schema_version (`version`, `description`, `applied_at`) " +
+                                "VALUES (?, ?, datetime('now'))");
+                try {
+                    pst.setInt(1, migration.getVersion());
+                    pst.setString(2, migration.getDescription());
+                    pst.executeUpdate();
+                } finally {
+                    pst.close();
+                }
+                conn.commit();
+            } catch (SQLException | RuntimeException e) {
+                conn.rollback();
+                throw new SQLException("Migration " + migration.getVersion() + " (" +
+                        migration.getDescription() + ") failed", e);
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+            current = migration.getVersion();
+        }
+        return current;
+    }
+
+    static List<Migration> pending(int currentVersion) {
+        List<Migration> pending = new ArrayList<>();
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() > currentVersion) pending.add(migration);
+        }
+        return Collections.unmodifiableList(pending);
+    }
+}
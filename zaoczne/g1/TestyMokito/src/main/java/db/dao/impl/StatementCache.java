@@ -0,0 +1,61 @@
+package db.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Prepared statements of a single connection, keyed by their SQL text.
+ * Each query shape is prepared on first use and reused by later calls.
+ */
+class StatementCache {
+    private final Connection connection;
+    private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+    StatementCache(Connection connection) {
+        this.connection = connection;
+    }
+
+    PreparedStatement prepare(String sql) throws SQLException {
+        return prepare(sql, Statement.NO_GENERATED_KEYS);
+    }
+
+    PreparedStatement prepareReturningKeys(String sql) throws SQLException {
+        return prepare(sql, Statement.RETURN_GENERATED_KEYS);
+    }
+
+    private PreparedStatement prepare(String sql, int generatedKeys) throws SQLException {
+        PreparedStatement st = statements.get(sql);
+        if (st == null || st.isClosed()) {
+            st = connection.prepareStatement(sql, generatedKeys);
+            statements.put(sql, st);
+        } else {
+            st.clearParameters();
+        }
+        return st;
+    }
+
+    Connection getConnection() {
+        return connection;
+    }
+
+    int size() {
+        return statements.size();
+    }
+
+    void close() throws SQLException {
+        SQLException failure = null;
+        for (PreparedStatement st : statements.values()) {
+            try {
+                st.close();
+            } catch (SQLException e) {
+                if (failure == null) failure = e;
+            }
+        }
+        statements.clear();
+        if (failure != null) throw failure;
+    }
+}
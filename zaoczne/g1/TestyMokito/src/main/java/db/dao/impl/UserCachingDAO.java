@@ -0,0 +1,166 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Account;
+import model.Role;
+import model.User;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static db.dao.impl.ModelCopies.copyOf;
+
+/**
+ * DAO decorator caching users by name and by id. All cached users of one
+ * role share a single read-only Role instance. Names that were not found
+ * are remembered for a short time, so repeated logins with an unknown
+ * name do not reach the database.
+ * <p>
+ * Passwords are never cached.
+ */
+public class UserCachingDAO extends ForwardingDAO {
+    private final LruCache<String, User> byName;
+    private final LruCache<Integer, User> byId;
+    private final LruCache<String, Boolean> unknownNames;
+    private final Map<Integer, Role> roles = new ConcurrentHashMap<>();
+
+    public UserCachingDAO(DAO delegate, int maxUsers, long ttl, long negativeTtl, TimeUnit unit) {
+        super(delegate);
+        this.byName = new LruCache<>(maxUsers, ttl, unit);
+        this.byId = new LruCache<>(maxUsers, ttl, unit);
+        this.unknownNames = new LruCache<>(maxUsers, negativeTtl, unit);
+    }
+
+    @Override
+    public User findUserByName(String userName) throws SQLException {
+        User cached = byName.get(userName);
+        if (cached != null) return copyOf(cached);
+        if (unknownNames.get(userName) != null) return null;
+        long nameToken = byName.fillToken();
+        long idToken = byId.fillToken();
+        long unknownToken = unknownNames.fillToken();
+        User loaded = delegate.findUserByName(userName);
+        if (loaded == null) {
+            unknownNames.putIfUnchanged(userName, Boolean.TRUE, unknownToken);
+            return null;
+        }
+        remember(loaded, nameToken, idToken);
+        return copyOf(loaded);
+    }
+
+    @Override
+    public Map<String, User> findUsersByNames(Collection<String> userNames) throws SQLException {
+        Map<String, User> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String name : userNames) {
+            User cached = byName.get(name);
+            if (cached != null) result.put(name, copyOf(cached));
+            else if (unknownNames.get(name) == null) missing.add(name);
+        }
+        if (missing.isEmpty()) return result;
+        long nameToken = byName.fillToken();
+        long idToken = byId.fillToken();
+        long unknownToken = unknownNames.fillToken();
+        Map<String, User> loaded = delegate.findUsersByNames(missing);
+        for (String name : missing) {
+            User user = loaded.get(name);
+            if (user == null) {
+                unknownNames.putIfUnchanged(name, Boolean.TRUE, unknownToken);
+            } else {
+                remember(user, nameToken, idToken);
+                result.put(name, copyOf(user));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public User findUserById(int userId) throws SQLException {
+        User cached = byId.get(userId);
+        if (cached != null) return copyOf(cached);
+        long nameToken = byName.fillToken();
+        long idToken = byId.fillToken();
+        User loaded = delegate.findUserById(userId);
+        if (loaded == null) return null;
+        remember(loaded, nameToken, idToken);
+        return copyOf(loaded);
+    }
+
+    @Override
+    public Account findAccountById(int accountId) throws SQLException {
+        Account account = delegate.findAccountById(accountId);
+        if (account != null && account.getOwner() != null) {
+            account.getOwner().setRole(shared(account.getOwner().getRole()));
+        }
+        return account;
+    }
+
+    /*
+    To be called after users or roles were changed outside this DAO.
+     */
+    public void invalidateAll() {
+        byName.invalidateAll();
+        byId.invalidateAll();
+        unknownNames.invalidateAll();
+        roles.clear();
+    }
+
+    public void invalidateUnknownName(String userName) {
+        unknownNames.invalidate(userName);
+    }
+
+    public CacheStatistics getUserCacheStatistics() {
+        return byName.getStatistics();
+    }
+
+    public CacheStatistics getUserByIdCacheStatistics() {
+        return byId.getStatistics();
+    }
+
+    public CacheStatistics getUnknownNameCacheStatistics() {
+        return unknownNames.getStatistics();
+    }
+
+    private void remember(User loaded, long nameToken, long idToken) {
+        loaded.setRole(shared(loaded.getRole()));
+        User cached = copyOf(loaded);
+        byName.putIfUnchanged(cached.getName(), cached, nameToken);
+        byId.putIfUnchanged(cached.getId(), cached, idToken);
+    }
+
+    private Role shared(Role role) {
+        if (role == null || role instanceof SharedRole) return role;
+        Role current = roles.get(role.getId());
+        if (current != null && Objects.equals(current.getName(), role.getName())) return current;
+        Role created = new SharedRole(role.getId(), role.getName());
+        roles.put(role.getId(), created);
+        return created;
+    }
+
+    /*
+    Shared between every cached user, so it must not change after creation.
+     */
+    static class SharedRole extends Role {
+        SharedRole(int id, String name) {
+            super.setId(id);
+            super.setName(name);
+        }
+
+        @Override
+        public void setId(int id) {
+            throw new UnsupportedOperationException("Shared role is read-only");
+        }
+
+        @Override
+        public void setName(String name) {
+            throw new UnsupportedOperationException("Shared role is read-only");
+        }
+    }
+}
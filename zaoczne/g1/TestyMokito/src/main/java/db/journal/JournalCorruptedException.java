@@ -0,0 +1,17 @@
+package db.journal;
+
+/**
+ * Thrown while scanning the journal when a record fails its CRC check.
+ */
+public class JournalCorruptedException extends RuntimeException {
+    private final long sequence;
+
+    public JournalCorruptedException(long sequence, String message) {
+        super("Journal record " + sequence + ": " + message);
+        this.sequence = sequence;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+}
@@ -0,0 +1,92 @@
+package db.journal;
+
+import model.Account;
+import model.Money;
+import model.Operation;
+import model.User;
+import model.operations.OperationType;
+import model.operations.Operations;
+
+import java.util.Date;
+
+/**
+ * One operation read back from the {@link OperationJournal}.
+ */
+public class JournalEntry {
+    private final long sequence;
+    private final OperationType type;
+    private final boolean success;
+    private final Integer userId;
+    private final Integer accountId;
+    private final long ammount;
+    private final long timestamp;
+    private final String description;
+
+    JournalEntry(long sequence, OperationType type, boolean success, Integer userId, Integer accountId,
+                 long ammount, long timestamp, String description) {
+        this.sequence = sequence;
+        this.type = type;
+        this.success = success;
+        this.userId = userId;
+        this.accountId = accountId;
+        this.ammount = ammount;
+        this.timestamp = timestamp;
+        this.description = description;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public OperationType getType() {
+        return type;
+    }
+
+    public boolean isSuccess() {
+        return success;
+    }
+
+    public Integer getUserId() {
+        return userId;
+    }
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    public double getAmmount() {
+        return Money.toDouble(ammount);
+    }
+
+    public long getAmmountMinor() {
+        return ammount;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /*
+    User and account of the operation carry only their ids.
+     */
+    public Operation toOperation() {
+        User user = null;
+        if (userId != null) {
+            user = new User();
+            user.setId(userId);
+        }
+        Account account = null;
+        if (accountId != null) {
+            account = new Account();
+            account.setId(accountId);
+        }
+        Operation operation = Operations.create(type, user, Money.ofMinor(ammount), description, account);
+        operation.setDate(new Date(timestamp));
+        operation.setSuccessful(success);
+        return operation;
+    }
+}
@@ -0,0 +1,254 @@
+package db.journal;
+
+import model.operations.OperationType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+/**
+ * One segment of the journal: a preallocated, memory-mapped file of fixed
+ * 40 byte records (.ops) and a second one holding their descriptions (.txt).
+ * Record layout (big-endian):
+ * <pre>
+ *  0 int    CRC32C of bytes 4..39 and the description
+ *  4 byte   operation type ordinal + 1, 0 marks a slot never written
+ *  5 byte   success flag
+ *  6 byte   flags: has user, has account, has description
+ *  7 byte   record format, FORMAT_VERSION
+ *  8 int    user id
+ * 12 int    account id
+ * 16 long   ammount in minor units, see {@link model.Money}
+ * 24 long   timestamp, epoch millis
+ * 32 int    description offset in the .txt file
+ * 36 int    description length in bytes
+ * </pre>
+ * Only the journal's lock holder appends; readers see the records below
+ * the volatile count. Format 0 stored the ammount as a double; such
+ * segments are refused when opened instead of being read as minor units.
+ */
+class JournalSegment {
+    static final int RECORD_SIZE = 40;
+    static final String RECORDS = ".ops";
+    static final String DESCRIPTIONS = ".txt";
+    static final byte FORMAT_VERSION = 2;
+
+    private static final int CRC = 0;
+    private static final int TYPE = 4;
+    private static final int SUCCESS = 5;
+    private static final int FLAGS = 6;
+    private static final int FORMAT = 7;
+    private static final int USER = 8;
+    private static final int ACCOUNT = 12;
+    private static final int AMMOUNT = 16;
+    private static final int TIMESTAMP = 24;
+    private static final int DESCRIPTION_OFFSET = 32;
+    private static final int DESCRIPTION_LENGTH = 36;
+
+    private static final int HAS_USER = 1;
+    private static final int HAS_ACCOUNT = 2;
+    private static final int HAS_DESCRIPTION = 4;
+
+    private static final OperationType[] TYPES = OperationType.values();
+
+    private final long firstSequence;
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer descriptions;
+    private final int capacity;
+    private final byte[] scratch = new byte[RECORD_SIZE];
+    private volatile int count;
+    private int descriptionPosition;
+
+    private JournalSegment(long firstSequence, MappedByteBuffer records, MappedByteBuffer descriptions) {
+        this.firstSequence = firstSequence;
+        this.records = records;
+        this.descriptions = descriptions;
+        this.capacity = records.capacity() / RECORD_SIZE;
+    }
+
+    static String fileName(long firstSequence, String extension) {
+        return String.format("%020d%s", firstSequence, extension);
+    }
+
+    static JournalSegment create(Path directory, long firstSequence, int capacity, int descriptionCapacity)
+            throws IOException {
+        MappedByteBuffer records = map(directory.resolve(fileName(firstSequence, RECORDS)),
+                (long) capacity * RECORD_SIZE, true);
+        MappedByteBuffer descriptions = map(directory.resolve(fileName(firstSequence, DESCRIPTIONS)),
+                descriptionCapacity, true);
+        return new JournalSegment(firstSequence, records, descriptions);
+    }
+
+    /*
+    The last segment is reopened writable and cut after its last intact
+    record, anything behind it is a write torn by a crash. Sealed segments
+    are mapped read-only and checked record by record while scanning.
+     */
+    static JournalSegment open(Path directory, long firstSequence, boolean writable) throws IOException {
+        Path recordsFile = directory.resolve(fileName(firstSequence, RECORDS));
+        Path descriptionsFile = directory.resolve(fileName(firstSequence, DESCRIPTIONS));
+        JournalSegment segment = new JournalSegment(firstSequence,
+                map(recordsFile, Files.size(recordsFile), writable),
+                map(descriptionsFile, Files.size(descriptionsFile), writable));
+        segment.recover(writable);
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path file, long size, boolean writable) throws IOException {
+        FileChannel channel = writable
+                ? FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return channel.map(writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void recover(boolean writable) throws IOException {
+        int slot = 0;
+        int end = 0;
+        while (slot < capacity && records.get(slot * RECORD_SIZE + TYPE) != 0) {
+            if (writable && !intact(slot)) break;
+            int base = slot * RECORD_SIZE;
+            if (records.get(base + FORMAT) != FORMAT_VERSION) {
+                throw new IOException("Journal segment " + fileName(firstSequence, RECORDS) + " has record format "
+                        + records.get(base + FORMAT) + ", expected " + FORMAT_VERSION);
+            }
+            end = records.getInt(base + DESCRIPTION_OFFSET) + records.getInt(base + DESCRIPTION_LENGTH);
+            slot++;
+        }
+        descriptionPosition = end;
+        count = slot;
+        if (writable) discardTail(slot);
+    }
+
+    /*
+    Zeroes the slots from the first bad one up to the old end of the
+    segment. Left in place, an older intact record behind the next append
+    would be taken as live by the next recovery, were a crash to hit before
+    that slot is written again. The first slot is zeroed last, so a crash
+    while zeroing leaves a tail the next recovery finds and zeroes again.
+     */
+    private void discardTail(int from) {
+        if (from >= capacity || records.get(from * RECORD_SIZE + TYPE) == 0) return;
+        int end = from + 1;
+        while (end < capacity && records.get(end * RECORD_SIZE + TYPE) != 0) end++;
+        byte[] empty = new byte[RECORD_SIZE];
+        for (int slot = end - 1; slot >= from; slot--) {
+            records.put(slot * RECORD_SIZE, empty);
+        }
+        records.force();
+    }
+
+    long getFirstSequence() {
+        return firstSequence;
+    }
+
+    long getNextSequence() {
+        return firstSequence + count;
+    }
+
+    boolean hasRoom(int descriptionLength) {
+        return count < capacity && descriptionPosition + descriptionLength <= descriptions.capacity();
+    }
+
+    long append(OperationType type, boolean success, Integer userId, Integer accountId, long ammount,
+                long timestamp, byte[] description) {
+        int slot = count;
+        int base = slot * RECORD_SIZE;
+        int length = description == null ? 0 : description.length;
+        int offset = descriptionPosition;
+        if (length > 0) descriptions.put(offset, description, 0, length);
+
+        ByteBuffer record = ByteBuffer.wrap(scratch);
+        record.put(TYPE, (byte) (type.ordinal() + 1));
+        record.put(SUCCESS, (byte) (success ? 1 : 0));
+        record.put(FLAGS, (byte) ((userId != null ? HAS_USER : 0)
+                | (accountId != null ? HAS_ACCOUNT : 0)
+                | (description != null ? HAS_DESCRIPTION : 0)));
+        record.put(FORMAT, FORMAT_VERSION);
+        record.putInt(USER, userId == null ? 0 : userId);
+        record.putInt(ACCOUNT, accountId == null ? 0 : accountId);
+        record.putLong(AMMOUNT, ammount);
+        record.putLong(TIMESTAMP, timestamp);
+        record.putInt(DESCRIPTION_OFFSET, offset);
+        record.putInt(DESCRIPTION_LENGTH, length);
+        record.putInt(CRC, crc(scratch, offset, length));
+
+        /* the type byte goes last, it is what marks the slot as written */
+        records.put(base + SUCCESS, scratch, SUCCESS, RECORD_SIZE - SUCCESS);
+        records.putInt(base + CRC, record.getInt(CRC));
+        records.put(base + TYPE, scratch[TYPE]);
+
+        descriptionPosition = offset + length;
+        count = slot + 1;
+        return firstSequence + slot;
+    }
+
+    JournalEntry read(long sequence) {
+        int slot = (int) (sequence - firstSequence);
+        if (slot < 0 || slot >= count) {
+            throw new IllegalArgumentException("Record " + sequence + " is not in this segment");
+        }
+        int base = slot * RECORD_SIZE;
+        if (!intact(slot)) {
+            throw new JournalCorruptedException(sequence, "CRC mismatch");
+        }
+        int typeIndex = records.get(base + TYPE) - 1;
+        if (typeIndex < 0 || typeIndex >= TYPES.length) {
+            throw new JournalCorruptedException(sequence, "unknown operation type " + typeIndex);
+        }
+        int flags = records.get(base + FLAGS);
+        String description = null;
+        if ((flags & HAS_DESCRIPTION) != 0) {
+            byte[] bytes = new byte[records.getInt(base + DESCRIPTION_LENGTH)];
+            descriptions.get(records.getInt(base + DESCRIPTION_OFFSET), bytes);
+            description = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return new JournalEntry(sequence, TYPES[typeIndex],
+                records.get(base + SUCCESS) != 0,
+                (flags & HAS_USER) != 0 ? records.getInt(base + USER) : null,
+                (flags & HAS_ACCOUNT) != 0 ? records.getInt(base + ACCOUNT) : null,
+                records.getLong(base + AMMOUNT),
+                records.getLong(base + TIMESTAMP),
+                description);
+    }
+
+    void force() {
+        records.force();
+        descriptions.force();
+    }
+
+    private boolean intact(int slot) {
+        int base = slot * RECORD_SIZE;
+        byte[] record = new byte[RECORD_SIZE];
+        records.get(base, record);
+        int offset = records.getInt(base + DESCRIPTION_OFFSET);
+        int length = records.getInt(base + DESCRIPTION_LENGTH);
+        if (offset < 0 || length < 0 || (long) offset + length > descriptions.capacity()) return false;
+        CRC32C crc = new CRC32C();
+        crc.update(record, TYPE, RECORD_SIZE - TYPE);
+        if (length > 0) {
+            byte[] description = new byte[length];
+            descriptions.get(offset, description);
+            crc.update(description);
+        }
+        return (int) crc.getValue() == records.getInt(base + CRC);
+    }
+
+    private int crc(byte[] record, int descriptionOffset, int descriptionLength) {
+        CRC32C crc = new CRC32C();
+        crc.update(record, TYPE, RECORD_SIZE - TYPE);
+        if (descriptionLength > 0) {
+            crc.update(descriptions.slice(descriptionOffset, descriptionLength));
+        }
+        return (int) crc.getValue();
+    }
+}
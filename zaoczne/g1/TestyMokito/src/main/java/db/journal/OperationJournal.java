@@ -0,0 +1,229 @@
+package db.journal;
+
+import model.Operation;
+import model.operations.Payment;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Append-only history of operations kept in memory-mapped segment files,
+ * an alternative to logging them into SQLite. Every operation gets a fixed
+ * 40 byte record and a global sequence number; a new segment is started
+ * when the current one runs out of record slots or description space.
+ * Segment files are named after the sequence number of their first record.
+ * <p>
+ * Appending only copies bytes into the mapping, the operating system
+ * writes them out later. Call {@link #force()} where a record must be on
+ * disk, e.g. before acknowledging it elsewhere.
+ */
+public class OperationJournal implements Closeable {
+    public static final int DEFAULT_SEGMENT_RECORDS = 1 << 20;
+    public static final int DEFAULT_DESCRIPTION_BYTES = 32 << 20;
+
+    private final Path directory;
+    private final int segmentRecords;
+    private final int descriptionBytes;
+    private final List<Long> sealed = new CopyOnWriteArrayList<>();
+    /* sealed segments mapped so far, kept for later scans */
+    private final Map<Long, JournalSegment> mapped = new ConcurrentHashMap<>();
+    private volatile JournalSegment active;
+    private boolean closed = false;
+
+    public OperationJournal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_RECORDS, DEFAULT_DESCRIPTION_BYTES);
+    }
+
+    public OperationJournal(Path directory, int segmentRecords, int descriptionBytes) throws IOException {
+        if (segmentRecords < 1 || descriptionBytes < 1) {
+            throw new IllegalArgumentException("Segment sizes must be positive");
+        }
+        if ((long) segmentRecords * JournalSegment.RECORD_SIZE > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Too many records per segment");
+        }
+        this.directory = directory;
+        this.segmentRecords = segmentRecords;
+        this.descriptionBytes = descriptionBytes;
+        Files.createDirectories(directory);
+        List<Long> existing = segments(directory);
+        if (existing.isEmpty()) {
+            active = JournalSegment.create(directory, 0, segmentRecords, descriptionBytes);
+        } else {
+            sealed.addAll(existing.subList(0, existing.size() - 1));
+            active = JournalSegment.open(directory, existing.get(existing.size() - 1), true);
+        }
+    }
+
+    /*
+    Returns the sequence number of the new record.
+     */
+    public synchronized long append(Operation operation, boolean success) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Journal is closed");
+        }
+        byte[] description = operation.getDescription() == null
+                ? null : operation.getDescription().getBytes(StandardCharsets.UTF_8);
+        int length = description == null ? 0 : description.length;
+        if (length > descriptionBytes) {
+            throw new IllegalArgumentException("Description does not fit into a journal segment");
+        }
+        if (!active.hasRoom(length)) roll();
+
+        Integer userId = operation.getUser() == null ? null : operation.getUser().getId();
+        Integer accountId = null;
+        long ammount = 0;
+        if (operation instanceof Payment) {
+            Payment payment = (Payment) operation;
+            ammount = payment.getAmmountMinor();
+            if (payment.getAccount() != null) accountId = payment.getAccount().getId();
+        }
+        long timestamp = operation.getDate() == null ? System.currentTimeMillis() : operation.getDate().getTime();
+        return active.append(operation.getType(), success, userId, accountId, ammount, timestamp, description);
+    }
+
+    /*
+    Writes the mapped pages of the active segment to disk. Sealed segments
+    were forced when they were rolled.
+     */
+    public synchronized void force() {
+        active.force();
+    }
+
+    /*
+    Sequence number the next append will get.
+     */
+    public long getNextSequence() {
+        return active.getNextSequence();
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public int getSegmentCount() {
+        return sealed.size() + 1;
+    }
+
+    public Iterator<JournalEntry> scan() {
+        return scan(0);
+    }
+
+    /*
+    Reads records from fromSequence up to the last one appended before the
+    call, segment by segment. A record failing its CRC check ends the scan
+    with a JournalCorruptedException. Sealed segments are mapped once and
+    shared by all scans, a scan per replayed batch maps nothing new.
+     */
+    public Iterator<JournalEntry> scan(long fromSequence) {
+        JournalSegment last;
+        List<Long> firsts;
+        long end;
+        /* under the lock that rolls segments, so last, firsts and end agree */
+        synchronized (this) {
+            last = active;
+            firsts = new ArrayList<>(sealed);
+            end = last.getNextSequence();
+        }
+        firsts.add(last.getFirstSequence());
+        return new Scanner(firsts, last, Math.max(0, fromSequence), end);
+    }
+
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        active.force();
+        mapped.clear();
+    }
+
+    /*
+    Sealed segments currently mapped for scanning.
+     */
+    int getMappedSegmentCount() {
+        return mapped.size();
+    }
+
+    private void roll() throws IOException {
+        active.force();
+        JournalSegment next = JournalSegment.create(directory, active.getNextSequence(), segmentRecords, descriptionBytes);
+        mapped.put(active.getFirstSequence(), active);
+        sealed.add(active.getFirstSequence());
+        active = next;
+    }
+
+    private JournalSegment sealedSegment(long first) {
+        return mapped.computeIfAbsent(first, f -> {
+            try {
+                return JournalSegment.open(directory, f, false);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    private static List<Long> segments(Path directory) throws IOException {
+        List<Long> firsts = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + JournalSegment.RECORDS)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                firsts.add(Long.parseLong(name.substring(0, name.length() - JournalSegment.RECORDS.length())));
+            }
+        }
+        Collections.sort(firsts);
+        return firsts;
+    }
+
+    private class Scanner implements Iterator<JournalEntry> {
+        private final List<Long> firsts;
+        private final JournalSegment last;
+        private final long end;
+        private JournalSegment segment;
+        private int segmentIndex;
+        private long next;
+
+        Scanner(List<Long> firsts, JournalSegment last, long from, long end) {
+            this.firsts = firsts;
+            this.last = last;
+            this.end = end;
+            this.next = from;
+            int index = 0;
+            while (index + 1 < firsts.size() && firsts.get(index + 1) <= from) index++;
+            this.segmentIndex = index;
+        }
+
+        public boolean hasNext() {
+            return next < end;
+        }
+
+        public JournalEntry next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            while (segment == null || next >= segment.getNextSequence()) {
+                if (segment != null) segmentIndex++;
+                if (segmentIndex >= firsts.size()) {
+                    throw new JournalCorruptedException(next, "no segment holds this record");
+                }
+                segment = openSegment(segmentIndex);
+                if (next < segment.getFirstSequence()) next = segment.getFirstSequence();
+            }
+            return segment.read(next++);
+        }
+
+        private JournalSegment openSegment(int index) {
+            long first = firsts.get(index);
+            if (first == last.getFirstSequence()) return last;
+            return sealedSegment(first);
+        }
+    }
+}
@@ -5,11 +5,28 @@ package model;
  */
 public class Account {
     private int id;
-    private double ammount;
+    /*
+    Balance in minor units, see Money.
+     */
+    private long ammount;
+    /*
+    Version of the stored row this object was read from, see DAO.updateAccountState.
+     */
+    private long version;
+    /*
+    Lazy accrual state, see biz.InterestAccrual: yearly rate and the epoch
+    millis interest has been put on the balance up to, 0 if never.
+     */
+    private double interestRate;
+    private long lastAccrual;
     private User owner;
 
     public boolean income(double ammount){
-        this.ammount+=ammount;
+        return incomeMinor(Money.toMinor(ammount));
+    }
+
+    public boolean incomeMinor(long ammount){
+        this.ammount = Money.add(this.ammount, ammount);
         return true;
     }
 
@@ -18,8 +35,12 @@ public class Account {
      */
 
     public boolean outcome(double ammount){
+        return outcomeMinor(Money.toMinor(ammount));
+    }
+
+    public boolean outcomeMinor(long ammount){
         if (this.ammount<ammount) return false;
-        this.ammount-=ammount;
+        this.ammount = Money.subtract(this.ammount, ammount);
         return true;
     }
 
@@ -32,13 +53,49 @@ public class Account {
     }
 
     public double getAmmount() {
-        return ammount;
+        return Money.toDouble(ammount);
     }
 
     public void setAmmount(double ammount) {
+        this.ammount = Money.toMinor(ammount);
+    }
+
+    public long getAmmountMinor() {
+        return ammount;
+    }
+
+    public void setAmmountMinor(long ammount) {
         this.ammount = ammount;
     }
 
+    public Money getBalance() {
+        return Money.ofMinor(ammount);
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public double getInterestRate() {
+        return interestRate;
+    }
+
+    public void setInterestRate(double interestRate) {
+        this.interestRate = interestRate;
+    }
+
+    public long getLastAccrual() {
+        return lastAccrual;
+    }
+
+    public void setLastAccrual(long lastAccrual) {
+        this.lastAccrual = lastAccrual;
+    }
+
     public User getOwner() {
         return owner;
     }
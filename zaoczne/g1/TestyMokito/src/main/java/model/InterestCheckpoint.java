@@ -0,0 +1,70 @@
+package model;
+
+/**
+ * Progress of a resumable interest run: the run covers accounts up to
+ * toAccountId, everything up to lastAccountId has been credited, with the
+ * totals so far.
+ */
+public class InterestCheckpoint {
+    private String runId;
+    private int toAccountId;
+    private int lastAccountId;
+    private long accounts;
+    /*
+    Interest credited so far, in minor units.
+     */
+    private long interest;
+    private boolean finished;
+
+    public String getRunId() {
+        return runId;
+    }
+
+    public void setRunId(String runId) {
+        this.runId = runId;
+    }
+
+    public int getToAccountId() {
+        return toAccountId;
+    }
+
+    public void setToAccountId(int toAccountId) {
+        this.toAccountId = toAccountId;
+    }
+
+    public int getLastAccountId() {
+        return lastAccountId;
+    }
+
+    public void setLastAccountId(int lastAccountId) {
+        this.lastAccountId = lastAccountId;
+    }
+
+    public long getAccounts() {
+        return accounts;
+    }
+
+    public void setAccounts(long accounts) {
+        this.accounts = accounts;
+    }
+
+    public long getInterestMinor() {
+        return interest;
+    }
+
+    public void setInterestMinor(long interest) {
+        this.interest = interest;
+    }
+
+    public Money getInterest() {
+        return Money.ofMinor(interest);
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public void setFinished(boolean finished) {
+        this.finished = finished;
+    }
+}
@@ -0,0 +1,124 @@
+package model;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Amount of money kept as a long number of minor units (grosze), so sums of
+ * payments are exact. Instances are immutable. Code on hot paths can use the
+ * static methods working on plain longs, which never allocate.
+ */
+public final class Money implements Comparable<Money> {
+    public static final int SCALE = 100;
+    public static final Money ZERO = new Money(0);
+
+    private final long minorUnits;
+
+    private Money(long minorUnits) {
+        this.minorUnits = minorUnits;
+    }
+
+    public static Money ofMinor(long minorUnits) {
+        return minorUnits == 0 ? ZERO : new Money(minorUnits);
+    }
+
+    public static Money of(double ammount) {
+        return ofMinor(toMinor(ammount));
+    }
+
+    public long getMinorUnits() {
+        return minorUnits;
+    }
+
+    public double toDouble() {
+        return toDouble(minorUnits);
+    }
+
+    public Money plus(Money other) {
+        return ofMinor(add(minorUnits, other.minorUnits));
+    }
+
+    public Money minus(Money other) {
+        return ofMinor(subtract(minorUnits, other.minorUnits));
+    }
+
+    public Money times(double factor) {
+        return ofMinor(multiply(minorUnits, factor));
+    }
+
+    public boolean isNegative() {
+        return minorUnits < 0;
+    }
+
+    /*
+    Decimal ammount to minor units, rounded half up on the decimal value the
+    double was written as, so 158.2 is 15820 and 0.285 is 29.
+     */
+    public static long toMinor(double ammount) {
+        if (Double.isNaN(ammount) || Double.isInfinite(ammount)) {
+            throw new IllegalArgumentException("Ammount must be a finite number");
+        }
+        double scaled = ammount * SCALE;
+        if (Math.abs(scaled) >= Long.MAX_VALUE) {
+            throw new ArithmeticException("Ammount out of range: " + ammount);
+        }
+        double nearest = Math.rint(scaled);
+        if (Math.abs(scaled - nearest) < 0.49) {
+            return (long) nearest;
+        }
+        // close to half a grosz, the binary value of scaled cannot be trusted
+        return BigDecimal.valueOf(ammount).movePointRight(2).setScale(0, RoundingMode.HALF_UP).longValueExact();
+    }
+
+    public static double toDouble(long minorUnits) {
+        return minorUnits / (double) SCALE;
+    }
+
+    public static long add(long minorUnits, long other) {
+        return Math.addExact(minorUnits, other);
+    }
+
+    public static long subtract(long minorUnits, long other) {
+        return Math.subtractExact(minorUnits, other);
+    }
+
+    /*
+    Rounds the double product half away from zero. Truncating and looking
+    at the fraction left over is exact, unlike adding 0.5 first, which
+    turns 0.49999999999999994 into 1. DAOImpl's set-based interest rounds
+    the same way, so a product computed in a query gives the same grosze.
+     */
+    public static long multiply(long minorUnits, double factor) {
+        double product = minorUnits * factor;
+        if (Double.isNaN(product) || Math.abs(product) >= Long.MAX_VALUE) {
+            throw new ArithmeticException("Ammount out of range: " + minorUnits + " * " + factor);
+        }
+        long whole = (long) product;
+        double fraction = product - whole;
+        if (fraction >= 0.5) return whole + 1;
+        if (fraction <= -0.5) return whole - 1;
+        return whole;
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(minorUnits, other.minorUnits);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).minorUnits == minorUnits;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(minorUnits);
+    }
+
+    @Override
+    public String toString() {
+        long abs = Math.abs(minorUnits);
+        String fraction = String.valueOf(abs % SCALE);
+        return (minorUnits < 0 ? "-" : "") + abs / SCALE + "." + (fraction.length() < 2 ? "0" : "") + fraction;
+    }
+}
@@ -13,6 +13,7 @@ public abstract class Operation {
     private String description;
     private User user;
     private Date date;
+    private boolean successful;
 
     protected Operation(User user, String description, OperationType operationType) {
         this.user=user;
@@ -21,6 +22,14 @@ public abstract class Operation {
         this.type=operationType;
     }
 
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
+
     public OperationType getType() {
         return type;
     }
@@ -36,4 +45,19 @@ public abstract class Operation {
     public Date getDate() {
         return date;
     }
+
+    public void setDate(Date date) {
+        this.date = date;
+    }
+
+    /*
+    Only meaningful for operations read back from the history.
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    public void setSuccessful(boolean successful) {
+        this.successful = successful;
+    }
 }
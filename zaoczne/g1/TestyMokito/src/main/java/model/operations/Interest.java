@@ -1,6 +1,7 @@
 package model.operations;
 
 import model.Account;
+import model.Money;
 import model.User;
 
 /**
@@ -11,4 +12,8 @@ public class Interest extends Payment {
     public Interest(User user, double ammount, String description, Account account) {
         super(user, ammount, description, account, OperationType.INTEREST);
     }
+
+    public Interest(User user, Money ammount, String description, Account account) {
+        super(user, ammount, description, account, OperationType.INTEREST);
+    }
 }
@@ -0,0 +1,37 @@
+package model.operations;
+
+import model.Account;
+import model.Money;
+import model.Operation;
+import model.User;
+
+/**
+ * Recreates operations of a given type, e.g. when reading the history back.
+ * Log operations ignore ammount and account.
+ */
+public final class Operations {
+
+    private Operations() {
+    }
+
+    public static Operation create(OperationType type, User user, double ammount, String description, Account account) {
+        return create(type, user, Money.of(ammount), description, account);
+    }
+
+    public static Operation create(OperationType type, User user, Money ammount, String description, Account account) {
+        switch (type) {
+            case PAYMENT_IN:
+                return new PaymentIn(user, ammount, description, account);
+            case WITHDRAW:
+                return new Withdraw(user, ammount, description, account);
+            case INTEREST:
+                return new Interest(user, ammount, description, account);
+            case LOG_IN:
+                return new LogIn(user, description);
+            case LOG_OUT:
+                return new LogOut(user, description);
+            default:
+                throw new IllegalArgumentException("Unknown operation type " + type);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package model.operations;
 
 import model.Account;
+import model.Money;
 import model.Operation;
 import model.User;
 
@@ -9,16 +10,27 @@ import model.User;
  */
 public abstract class Payment extends Operation{
 
-    private double ammount;
+    /*
+    In minor units, see Money.
+     */
+    private long ammount;
     private Account account;
 
     public Payment(User user, double ammount, String description, Account account, OperationType operationType) {
+        this(user, Money.of(ammount), description, account, operationType);
+    }
+
+    public Payment(User user, Money ammount, String description, Account account, OperationType operationType) {
         super(user, description, operationType);
-        this.ammount = ammount;
+        this.ammount = ammount.getMinorUnits();
         this.account=account;
     }
 
     public double getAmmount() {
+        return Money.toDouble(ammount);
+    }
+
+    public long getAmmountMinor() {
         return ammount;
     }
 
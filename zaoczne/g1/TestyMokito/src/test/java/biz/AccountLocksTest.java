@@ -0,0 +1,131 @@
+package biz;
+
+import db.dao.impl.InMemoryDAO;
+import model.Account;
+import model.Role;
+import model.User;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/* guards are held for their try blocks only, as AccountLocks is meant to be used */
+@SuppressWarnings("try")
+public class AccountLocksTest {
+
+    @Test
+    void testStripeCountIsRoundedToPowerOfTwo() {
+        assertEquals(8, new AccountLocks(5).getStripeCount());
+        assertEquals(1, new AccountLocks(1).getStripeCount());
+        assertThrows(IllegalArgumentException.class, () -> new AccountLocks(0));
+    }
+
+    @Test
+    void testSameStripeIsLockedOnce() {
+        AccountLocks locks = new AccountLocks(1);
+
+        try (AccountLocks.Guard guard = locks.lock(1, 2, 1)) {
+            assertEquals(1, locks.getAcquisitionCount(0));
+        }
+        try (AccountLocks.Guard guard = locks.lock(3)) {
+            assertEquals(2, locks.getAcquisitionCount(0));
+        }
+        assertEquals(0, locks.getTotalContentionCount());
+    }
+
+    @Test
+    void testUnrelatedAccountsDoNotWait() throws InterruptedException {
+        AccountLocks locks = new AccountLocks(16);
+        assertNotEquals(locks.stripeOf(1), locks.stripeOf(2));
+        CountDownLatch done = new CountDownLatch(1);
+
+        try (AccountLocks.Guard guard = locks.lock(1)) {
+            Thread other = new Thread(() -> {
+                try (AccountLocks.Guard second = locks.lock(2)) {
+                    done.countDown();
+                }
+            });
+            other.start();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, locks.getContentionCount(locks.stripeOf(2)));
+    }
+
+    @Test
+    void testWaitingIsCountedAsContention() throws InterruptedException {
+        AccountLocks locks = new AccountLocks(16);
+        CountDownLatch started = new CountDownLatch(1);
+        Thread other;
+        try (AccountLocks.Guard guard = locks.lock(1)) {
+            other = new Thread(() -> {
+                started.countDown();
+                try (AccountLocks.Guard second = locks.lock(1)) {
+                    // only waits for the stripe
+                }
+            });
+            other.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            while (locks.getContentionCount(locks.stripeOf(1)) == 0) {
+                Thread.sleep(1);
+            }
+        }
+        other.join(5000);
+        assertFalse(other.isAlive());
+        assertEquals(1, locks.getContentionCount(locks.stripeOf(1)));
+        assertTrue(locks.getWaitNanos(locks.stripeOf(1)) > 0);
+    }
+
+    @Test
+    void testConcurrentTransfersKeepTheTotal() throws Exception {
+        InMemoryDAO dao = new InMemoryDAO();
+        Role admin = new Role();
+        admin.setId(1);
+        admin.setName("Admin");
+        User user = dao.createUser("Admin", admin);
+        int accounts = 6;
+        for (int i = 0; i < accounts; i++) {
+            dao.createAccount(user, 1000.0);
+        }
+        AccountManager manager = new AccountManager();
+        manager.dao = dao;
+        manager.history = new BankHistory(dao);
+        manager.auth = new AuthenticationManager(dao, manager.history);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            long seed = t;
+            Thread thread = new Thread(() -> {
+                Random random = new Random(seed);
+                try {
+                    for (int i = 0; i < 500; i++) {
+                        int source = 1 + random.nextInt(accounts);
+                        int dest = 1 + (source + random.nextInt(accounts - 1)) % accounts;
+                        manager.internalPayment(user, 1.5, "Transfer", source, dest);
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join(30_000);
+            assertFalse(thread.isAlive(), "Transfers deadlocked");
+        }
+
+        assertNull(failure.get());
+        long total = 0;
+        for (int id = 1; id <= accounts; id++) {
+            Account account = dao.findAccountById(id);
+            total += account.getAmmountMinor();
+        }
+        assertEquals(accounts * 100_000L, total);
+    }
+}
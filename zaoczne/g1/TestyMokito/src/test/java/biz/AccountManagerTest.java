@@ -1,21 +1,37 @@
 package biz;
 
+import biz.pipeline.MetricsStage;
+import biz.pipeline.OperationPipeline;
+import db.dao.ConcurrentUpdateException;
 import db.dao.DAO;
 import model.Account;
 import model.Operation;
 import model.User;
 import model.exceptions.OperationIsNotAllowedException;
 import model.exceptions.UserUnnkownOrBadPasswordException;
+import model.operations.OperationType;
 import model.operations.PaymentIn;
 import model.operations.Withdraw;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.eq;
@@ -63,6 +79,40 @@ public class AccountManagerTest {
         verify(history).logOperation(any(PaymentIn.class), eq(true));
     }
 
+    @Test
+    void testPaymentIn_PublishesToPipeline() throws SQLException {
+        when(dao.findAccountById(accountId)).thenReturn(account);
+        when(dao.updateAccountState(account)).thenReturn(true);
+        MetricsStage metrics = new MetricsStage();
+        OperationPipeline pipeline = new OperationPipeline(16);
+        pipeline.addStage("metrics", metrics);
+        pipeline.start();
+        accountManager.pipeline = pipeline;
+
+        assertTrue(accountManager.paymentIn(user, 100.0, "Deposit", accountId));
+        pipeline.close();
+
+        assertEquals(1, metrics.getCount(OperationType.PAYMENT_IN, true));
+        assertEquals(100.0, metrics.getAmmount(OperationType.PAYMENT_IN));
+        verify(history, times(1)).logOperation(any(PaymentIn.class), eq(true));
+    }
+
+    @Test
+    void testPaymentIn_ClosedPipelineDoesNotFailCommittedPayment() throws SQLException {
+        when(dao.findAccountById(accountId)).thenReturn(account);
+        when(dao.updateAccountState(account)).thenReturn(true);
+        OperationPipeline pipeline = new OperationPipeline(16);
+        pipeline.addStage("metrics", new MetricsStage());
+        pipeline.start();
+        pipeline.close();
+        accountManager.pipeline = pipeline;
+
+        assertTrue(accountManager.paymentIn(user, 100.0, "Deposit", accountId));
+
+        assertEquals(1, pipeline.getDroppedCount());
+        verify(dao, times(1)).commitTransaction();
+    }
+
     @Test
     void testPaymentOut_Success() throws SQLException, OperationIsNotAllowedException {
         when(dao.findAccountById(accountId)).thenReturn(account);
@@ -122,8 +172,7 @@ public class AccountManagerTest {
         destAccount.setId(2);
         destAccount.setAmmount(500.0);
 
-        when(dao.findAccountById(accountId)).thenReturn(account);
-        when(dao.findAccountById(2)).thenReturn(destAccount);
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(accountId, account, 2, destAccount));
         when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
         when(dao.updateAccountState(account)).thenReturn(true);
         when(dao.updateAccountState(destAccount)).thenReturn(true);
@@ -134,6 +183,19 @@ public class AccountManagerTest {
         verify(dao).updateAccountState(account);
         verify(dao).updateAccountState(destAccount);
         verify(history, times(2)).logOperation(any(Operation.class), eq(true));
+        verify(dao, never()).findAccountById(anyInt());
+    }
+
+    @Test
+    void testInternalPayment_SameAccount() throws SQLException, OperationIsNotAllowedException {
+        when(dao.findAccountsByIds(List.of(accountId, accountId))).thenReturn(Map.of(accountId, account));
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(account)).thenReturn(true);
+
+        assertTrue(accountManager.internalPayment(user, 100.0, "Transfer", accountId, accountId));
+
+        assertEquals(1000.0, account.getAmmount());
+        verify(dao, times(2)).updateAccountState(account);
     }
 
     @Test
@@ -163,8 +225,7 @@ public class AccountManagerTest {
         destAccount.setId(2);
         destAccount.setAmmount(500.0);
 
-        when(dao.findAccountById(accountId)).thenReturn(null);
-        when(dao.findAccountById(2)).thenReturn(destAccount);
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(2, destAccount));
 
         assertThrows(IllegalArgumentException.class, () -> {
             accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2);
@@ -176,8 +237,7 @@ public class AccountManagerTest {
 
     @Test
     void testInternalPayment_DestinationAccountNotFound() throws SQLException, OperationIsNotAllowedException {
-        when(dao.findAccountById(accountId)).thenReturn(account);
-        when(dao.findAccountById(2)).thenReturn(null);
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(accountId, account));
 
         assertThrows(IllegalArgumentException.class, () -> {
             accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2);
@@ -211,7 +271,7 @@ public class AccountManagerTest {
 
     @Test
     void testInternalPayment_SQLException() throws SQLException, OperationIsNotAllowedException {
-        when(dao.findAccountById(accountId)).thenThrow(new SQLException());
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenThrow(new SQLException());
 
         assertThrows(SQLException.class, () -> {
             accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2);
@@ -251,8 +311,7 @@ public class AccountManagerTest {
         destAccount.setId(2);
         destAccount.setAmmount(500.0);
 
-        when(dao.findAccountById(accountId)).thenReturn(account);
-        when(dao.findAccountById(2)).thenReturn(destAccount);
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(accountId, account, 2, destAccount));
         when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
 
         boolean result = accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2);
@@ -265,8 +324,65 @@ public class AccountManagerTest {
     }
 
     @Test
-    void testBuildBank_Success() {
-        AccountManager accountManager = AccountManager.buildBank();
+    void testInternalPayment_SingleTransaction() throws SQLException, OperationIsNotAllowedException {
+        Account destAccount = new Account();
+        destAccount.setId(2);
+        destAccount.setAmmount(500.0);
+
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(accountId, account, 2, destAccount));
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(account)).thenReturn(true);
+        when(dao.updateAccountState(destAccount)).thenReturn(true);
+
+        accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2);
+
+        InOrder inOrder = inOrder(dao, history);
+        inOrder.verify(dao).beginTransaction();
+        inOrder.verify(dao).updateAccountState(account);
+        inOrder.verify(dao).updateAccountState(destAccount);
+        inOrder.verify(history).logOperation(any(Withdraw.class), eq(true));
+        inOrder.verify(history).logOperation(any(PaymentIn.class), eq(true));
+        inOrder.verify(dao).commitTransaction();
+        verify(dao, times(1)).beginTransaction();
+        verify(dao, never()).rollbackTransaction();
+    }
+
+    @Test
+    void testInternalPayment_RefusedDestinationUpdateRollsBack() throws SQLException {
+        Account destAccount = new Account();
+        destAccount.setId(2);
+        destAccount.setAmmount(500.0);
+
+        when(dao.findAccountsByIds(List.of(accountId, 2))).thenReturn(Map.of(accountId, account, 2, destAccount));
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(account)).thenReturn(true);
+        when(dao.updateAccountState(destAccount)).thenReturn(false);
+
+        assertThrows(SQLException.class, () -> accountManager.internalPayment(user, 100.0, "Transfer", accountId, 2));
+
+        verify(dao, times(1)).rollbackTransaction();
+        verify(dao, never()).commitTransaction();
+        verify(history, never()).logOperation(any(Operation.class), anyBoolean());
+    }
+
+    @Test
+    void testPaymentIn_RollbackOnSQLException() throws SQLException {
+        when(dao.findAccountById(accountId)).thenReturn(account);
+        when(dao.updateAccountState(account)).thenThrow(new SQLException());
+
+        assertThrows(SQLException.class, () -> accountManager.paymentIn(user, 100.0, "Deposit", accountId));
+
+        verify(dao).beginTransaction();
+        verify(dao).rollbackTransaction();
+        verify(dao, never()).commitTransaction();
+        verify(history, never()).logOperation(any(Operation.class), anyBoolean());
+    }
+
+    @Test
+    void testBuildBank_Success(@TempDir Path directory) throws IOException {
+        /* a copy, building the bank migrates the database it opens */
+        Path copy = Files.copy(Path.of("bank.db"), directory.resolve("bank.db"));
+        AccountManager accountManager = AccountManager.buildBank("jdbc:sqlite:" + copy);
 
         assertNotNull(accountManager);
         assertNotNull(accountManager.dao);
@@ -274,4 +390,132 @@ public class AccountManagerTest {
         assertNotNull(accountManager.auth);
         assertNotNull(accountManager.interestOperator);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testPaymentIn_RetriesAfterConcurrentUpdate() throws SQLException {
+        when(dao.findAccountById(accountId)).thenReturn(account);
+        when(dao.updateAccountState(account))
+                .thenThrow(new ConcurrentUpdateException(accountId, 0))
+                .thenReturn(true);
+
+        boolean result = accountManager.paymentIn(user, 100.0, "Deposit", accountId);
+
+        assertTrue(result);
+        verify(dao, times(2)).findAccountById(accountId);
+        verify(dao, times(1)).rollbackTransaction();
+        verify(dao, times(1)).commitTransaction();
+        verify(history, times(1)).logOperation(any(PaymentIn.class), eq(true));
+        assertEquals(1, accountManager.getConflictCount());
+        assertEquals(1, accountManager.getRetryCount());
+    }
+
+    @Test
+    void testPaymentOut_GivesUpAfterMaxAttempts() throws SQLException {
+        when(dao.findAccountById(accountId)).thenReturn(account);
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(account)).thenThrow(new ConcurrentUpdateException(accountId, 0));
+
+        assertThrows(ConcurrentUpdateException.class, () -> {
+            accountManager.paymentOut(user, 100.0, "Withdraw", accountId);
+        });
+
+        verify(dao, times(AccountManager.MAX_ATTEMPTS)).findAccountById(accountId);
+        verify(dao, times(AccountManager.MAX_ATTEMPTS)).rollbackTransaction();
+        verify(dao, never()).commitTransaction();
+        verify(history, never()).logOperation(any(Operation.class), anyBoolean());
+        assertEquals(AccountManager.MAX_ATTEMPTS, accountManager.getConflictCount());
+        assertEquals(AccountManager.MAX_ATTEMPTS - 1, accountManager.getRetryCount());
+    }
+
+    @Test
+    void testExecuteBatch_ReportsEveryItemAndCommitsOnce() throws SQLException {
+        Account destAccount = new Account();
+        destAccount.setId(2);
+        destAccount.setAmmount(500.0);
+        Map<Integer, Account> accounts = new HashMap<>();
+        accounts.put(accountId, account);
+        accounts.put(2, destAccount);
+        User stranger = new User();
+        stranger.setId(7);
+        when(dao.findAccountsByIds(anyCollection())).thenReturn(accounts);
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(auth.canInvokeOperation(any(Operation.class), eq(stranger))).thenReturn(false);
+        when(dao.updateAccountState(any(Account.class))).thenReturn(true);
+
+        List<TransferResult> results = accountManager.executeBatch(Arrays.asList(
+                new TransferRequest(user, 100.0, "Salary", accountId, 2),
+                new TransferRequest(user, 5000.0, "Too much", accountId, 2),
+                new TransferRequest(stranger, 10.0, "Not mine", accountId, 2),
+                new TransferRequest(user, 10.0, "Nowhere", accountId, 99),
+                new TransferRequest(null, 10.0, "Nobody", accountId, 2),
+                new TransferRequest(user, 50.0, "Back", 2, accountId)));
+
+        assertEquals(Arrays.asList(TransferResult.Status.COMPLETED, TransferResult.Status.INSUFFICIENT_FUNDS,
+                TransferResult.Status.UNAUTHORIZED, TransferResult.Status.UNKNOWN_ACCOUNT,
+                TransferResult.Status.INVALID, TransferResult.Status.COMPLETED),
+                results.stream().map(TransferResult::getStatus).collect(Collectors.toList()));
+        assertEquals(950.0, account.getAmmount());
+        assertEquals(550.0, destAccount.getAmmount());
+        verify(dao, times(1)).findAccountsByIds(anyCollection());
+        verify(dao, times(1)).beginTransaction();
+        verify(dao, times(1)).commitTransaction();
+        verify(dao, times(1)).updateAccountState(account);
+        verify(dao, times(1)).updateAccountState(destAccount);
+        ArgumentCaptor<boolean[]> success = ArgumentCaptor.forClass(boolean[].class);
+        verify(history, times(1)).logOperations(anyList(), success.capture());
+        assertArrayEquals(new boolean[]{true, true, false, false, true, true}, success.getValue());
+        verify(history, times(1)).logUnauthorizedOperation(any(Withdraw.class), eq(false));
+    }
+
+    @Test
+    void testExecuteBatch_RefusedUpdateRollsBackBatch() throws SQLException {
+        Account destAccount = new Account();
+        destAccount.setId(2);
+        destAccount.setAmmount(500.0);
+        Map<Integer, Account> accounts = new HashMap<>();
+        accounts.put(accountId, account);
+        accounts.put(2, destAccount);
+        when(dao.findAccountsByIds(anyCollection())).thenReturn(accounts);
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(account)).thenReturn(true);
+        when(dao.updateAccountState(destAccount)).thenReturn(false);
+
+        SQLException e = assertThrows(SQLException.class, () -> accountManager.executeBatch(Arrays.asList(
+                new TransferRequest(user, 100.0, "Salary", accountId, 2))));
+
+        assertEquals("Account 2 no longer exists", e.getMessage());
+        verify(dao, times(1)).rollbackTransaction();
+        verify(dao, never()).commitTransaction();
+        verify(history, never()).logOperations(anyList(), any(boolean[].class));
+    }
+
+    @Test
+    void testExecuteBatch_RetriesWholeBatchAfterConflict() throws SQLException {
+        when(dao.findAccountsByIds(anyCollection())).thenAnswer(invocation -> {
+            Map<Integer, Account> fresh = new HashMap<>();
+            for (Integer id : invocation.<Collection<Integer>>getArgument(0)) {
+                Account loaded = new Account();
+                loaded.setId(id);
+                loaded.setAmmount(id == accountId ? 1000.0 : 0.0);
+                fresh.put(id, loaded);
+            }
+            return fresh;
+        });
+        when(auth.canInvokeOperation(any(Operation.class), eq(user))).thenReturn(true);
+        when(dao.updateAccountState(any(Account.class)))
+                .thenThrow(new ConcurrentUpdateException(accountId, 0))
+                .thenReturn(true);
+
+        List<TransferResult> results = accountManager.executeBatch(Arrays.asList(
+                new TransferRequest(user, 600.0, "First", accountId, 2),
+                new TransferRequest(user, 600.0, "Second", accountId, 2)));
+
+        assertTrue(results.get(0).isSuccess());
+        assertEquals(TransferResult.Status.INSUFFICIENT_FUNDS, results.get(1).getStatus());
+        verify(dao, times(2)).findAccountsByIds(anyCollection());
+        verify(dao, times(1)).rollbackTransaction();
+        verify(dao, times(1)).commitTransaction();
+        verify(history, times(1)).logOperations(anyList(), any(boolean[].class));
+        assertEquals(1, accountManager.getRetryCount());
+    }
+}
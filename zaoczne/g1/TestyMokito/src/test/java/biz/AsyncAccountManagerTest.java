@@ -0,0 +1,155 @@
+package biz;
+
+import model.User;
+import model.exceptions.OperationIsNotAllowedException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncAccountManagerTest {
+
+    @Mock
+    private AccountManager manager;
+
+    private AsyncAccountManager async;
+    private User user;
+    private CountDownLatch release;
+    private CountDownLatch interrupted;
+
+    @BeforeEach
+    void setUp() {
+        async = new AsyncAccountManager(manager);
+        user = new User();
+        user.setId(1);
+        user.setName("TestUser");
+        release = new CountDownLatch(1);
+        interrupted = new CountDownLatch(1);
+    }
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        async.close();
+    }
+
+    @Test
+    void testPaymentInRunsOnVirtualThread() throws Exception {
+        when(manager.paymentIn(eq(user), eq(100.0), eq("Deposit"), eq(1)))
+                .thenAnswer(invocation -> Thread.currentThread().isVirtual());
+
+        assertTrue(async.paymentInAsync(user, 100.0, "Deposit", 1).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testFailureCarriesTheOriginalException() throws Exception {
+        when(manager.paymentOut(eq(user), anyDouble(), anyString(), anyInt()))
+                .thenThrow(new OperationIsNotAllowedException("Unauthorized operation"));
+
+        CompletableFuture<Boolean> result = async.paymentOutAsync(user, 100.0, "Withdraw", 1);
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(OperationIsNotAllowedException.class, e.getCause());
+    }
+
+    @Test
+    void testTimeoutInterruptsTheCall() throws Exception {
+        when(manager.internalPayment(eq(user), anyDouble(), anyString(), anyInt(), anyInt()))
+                .thenAnswer(invocation -> blockUntilReleased());
+
+        CompletableFuture<Boolean> result = async.internalPaymentAsync(user, 100.0, "Transfer", 1, 2,
+                Duration.ofMillis(50));
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, e.getCause());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testCancelInterruptsTheCall() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        when(manager.authenticate(eq("TestUser"), any(char[].class))).thenAnswer(invocation -> {
+            started.countDown();
+            blockUntilReleased();
+            return user;
+        });
+
+        CompletableFuture<User> result = async.logInAsync("TestUser", "secret".toCharArray());
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        result.cancel(true);
+
+        assertTrue(result.isCancelled());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testConcurrentLoginsKeepTheirOwnUsers() throws Exception {
+        AccountManager shared = new AccountManager();
+        shared.auth = mock(AuthenticationManager.class);
+        CountDownLatch both = new CountDownLatch(2);
+        when(shared.auth.logIn(anyString(), any(char[].class))).thenAnswer(invocation -> {
+            both.countDown();
+            if (!both.await(5, TimeUnit.SECONDS)) throw new TimeoutException("Logins did not overlap");
+            User named = new User();
+            named.setName(invocation.getArgument(0));
+            return named;
+        });
+
+        try (AsyncAccountManager logins = new AsyncAccountManager(shared)) {
+            CompletableFuture<User> adam = logins.logInAsync("Adam", "first".toCharArray());
+            CompletableFuture<User> ewa = logins.logInAsync("Ewa", "second".toCharArray());
+
+            assertEquals("Adam", adam.get(5, TimeUnit.SECONDS).getName());
+            assertEquals("Ewa", ewa.get(5, TimeUnit.SECONDS).getName());
+        }
+        assertNull(shared.getLoggedUser());
+    }
+
+    @Test
+    void testThousandsOfCallsInFlight() throws Exception {
+        int calls = 10_000;
+        CountDownLatch started = new CountDownLatch(calls);
+        when(manager.paymentIn(eq(user), anyDouble(), anyString(), anyInt())).thenAnswer(invocation -> {
+            started.countDown();
+            release.await();
+            return true;
+        });
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>(calls);
+        for (int i = 0; i < calls; i++) {
+            results.add(async.paymentInAsync(user, 1.0, "Deposit", i));
+        }
+
+        assertTrue(started.await(30, TimeUnit.SECONDS), "Every call should be running at once");
+        release.countDown();
+        for (CompletableFuture<Boolean> result : results) {
+            assertTrue(result.get(30, TimeUnit.SECONDS));
+        }
+    }
+
+    private boolean blockUntilReleased() {
+        try {
+            release.await();
+            return true;
+        } catch (InterruptedException e) {
+            interrupted.countDown();
+            return false;
+        }
+    }
+}
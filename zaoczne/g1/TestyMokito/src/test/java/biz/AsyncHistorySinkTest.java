@@ -0,0 +1,229 @@
+package biz;
+
+import biz.AsyncHistorySink.OverflowPolicy;
+import biz.AsyncHistorySink.TransactionMode;
+import db.dao.DAO;
+import db.dao.OperationQuery;
+import db.dao.impl.InMemoryDAO;
+import db.journal.OperationJournal;
+import model.User;
+import model.Money;
+import model.operations.LogIn;
+import model.operations.PaymentIn;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class AsyncHistorySinkTest {
+
+    @Mock
+    private DAO dao;
+
+    @TempDir
+    Path spillDirectory;
+
+    private User user;
+    private CountDownLatch writing;
+    private CountDownLatch release;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setId(1);
+        user.setName("TestUser");
+        writing = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+    }
+
+    @Test
+    void testFlushWritesQueuedOperations() throws SQLException {
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 16, OverflowPolicy.BLOCK);
+
+        for (int i = 0; i < 5; i++) {
+            sink.logOperation(new LogIn(user, "Logowanie "), true);
+        }
+        sink.flush();
+
+        assertEquals(5, sink.getWrittenCount());
+        verify(dao, atLeastOnce()).logOperations(any(), any());
+        sink.close();
+    }
+
+    @Test
+    void testDropCountsOverflow() throws Exception {
+        blockFirstWrite();
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 1, OverflowPolicy.DROP);
+
+        sink.logOperation(new LogIn(user, "first"), true);
+        writing.await();
+        sink.logOperation(new LogIn(user, "queued"), true);
+        sink.logOperation(new LogIn(user, "dropped"), true);
+        release.countDown();
+        sink.close();
+
+        assertEquals(1, sink.getDroppedCount());
+        assertEquals(2, sink.getWrittenCount());
+    }
+
+    @Test
+    void testSpillReplaysJournal() throws Exception {
+        blockFirstWrite();
+        when(dao.saveReplayPosition(anyString(), anyLong(), anyLong())).thenReturn(true);
+        OperationJournal journal = new OperationJournal(spillDirectory, 16, 1024);
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 1, 8, OverflowPolicy.SPILL, journal, false);
+
+        sink.logOperation(new LogIn(user, "first"), true);
+        writing.await();
+        sink.logOperation(new LogIn(user, "queued"), true);
+        sink.logOperation(new LogIn(user, "spilled"), false);
+        release.countDown();
+        sink.flush();
+
+        assertEquals(1, sink.getSpilledCount());
+        assertEquals(3, sink.getWrittenCount());
+        verify(dao, times(3)).logOperations(any(), any());
+        sink.close();
+        journal.close();
+    }
+
+    @Test
+    void testFailedReplayIsNotWrittenTwice() throws Exception {
+        InMemoryDAO store = spy(new InMemoryDAO());
+        doThrow(new SQLException("crash")).doCallRealMethod()
+                .when(store).saveReplayPosition(anyString(), anyLong(), anyLong());
+        OperationJournal journal = new OperationJournal(spillDirectory, 16, 1024);
+        for (int i = 0; i < 3; i++) {
+            journal.append(new LogIn(user, "spilled " + i), true);
+        }
+        AsyncHistorySink sink = new AsyncHistorySink(store, 16, 8, OverflowPolicy.SPILL, journal, false);
+
+        /* the rows of the failed batch are rolled back with its position */
+        assertThrows(SQLException.class, sink::flush);
+        sink.flush();
+        sink.close();
+
+        String name = spillDirectory.toAbsolutePath().normalize().toString();
+        assertEquals(3, store.findReplayPosition(name));
+        assertEquals(3, store.findOperations(new OperationQuery()).count());
+        journal.close();
+
+        OperationJournal reopened = new OperationJournal(spillDirectory, 16, 1024);
+        new AsyncHistorySink(store, 16, 8, OverflowPolicy.SPILL, reopened, false).close();
+        assertEquals(3, store.findOperations(new OperationQuery()).count());
+        reopened.close();
+    }
+
+    @Test
+    void testInTransactionWritesDirectly() throws SQLException {
+        when(dao.isInTransaction()).thenReturn(true);
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 16, OverflowPolicy.BLOCK);
+
+        sink.logOperation(new LogIn(user, "Logowanie "), true);
+
+        verify(dao, times(1)).logOperation(any(LogIn.class), eq(true));
+        sink.close();
+        verify(dao, never()).logOperations(any(), any());
+    }
+
+    @Test
+    void testDetachedSinkQueuesHistoryOfTransactions() throws SQLException {
+        InMemoryDAO store = new InMemoryDAO();
+        AsyncHistorySink sink = new AsyncHistorySink(store, 16, 8, OverflowPolicy.BLOCK, null, false,
+                TransactionMode.DETACH);
+
+        store.beginTransaction();
+        sink.logOperation(new PaymentIn(user, Money.ofMinor(100), "Deposit", null), true);
+        store.rollbackTransaction();
+        sink.flush();
+
+        /* written apart from the transaction, so the rollback does not take it back */
+        assertEquals(1, sink.getWrittenCount());
+        assertEquals(1, store.findOperations(new OperationQuery()).count());
+        sink.close();
+    }
+
+    @Test
+    void testJoinedSinkWritesIntoTransaction() throws SQLException {
+        InMemoryDAO store = new InMemoryDAO();
+        AsyncHistorySink sink = new AsyncHistorySink(store, 16, OverflowPolicy.BLOCK);
+
+        store.beginTransaction();
+        sink.logOperation(new PaymentIn(user, Money.ofMinor(100), "Deposit", null), true);
+        store.rollbackTransaction();
+        sink.close();
+
+        assertEquals(0, sink.getWrittenCount());
+        assertEquals(0, store.findOperations(new OperationQuery()).count());
+    }
+
+    @Test
+    void testFailedBatchIsRetried() throws SQLException {
+        doThrow(new SQLException("busy")).doThrow(new SQLException("busy")).doNothing()
+                .when(dao).logOperations(any(), any());
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 16, OverflowPolicy.BLOCK);
+
+        sink.logOperation(new LogIn(user, "Logowanie "), true);
+        sink.flush();
+
+        assertEquals(1, sink.getWrittenCount());
+        assertEquals(0, sink.getFailedCount());
+        verify(dao, times(3)).logOperations(any(), any());
+        sink.close();
+    }
+
+    @Test
+    void testBatchFailingEveryAttemptIsSpilledAndReplayed() throws Exception {
+        InMemoryDAO store = spy(new InMemoryDAO());
+        var failing = doThrow(new SQLException("busy"));
+        for (int i = 1; i < AsyncHistorySink.MAX_ATTEMPTS; i++) {
+            failing = failing.doThrow(new SQLException("busy"));
+        }
+        failing.doCallRealMethod().when(store).logOperations(any(), any());
+        OperationJournal journal = new OperationJournal(spillDirectory, 16, 1024);
+        AsyncHistorySink sink = new AsyncHistorySink(store, 16, 8, OverflowPolicy.SPILL, journal, false);
+
+        sink.logOperation(new LogIn(user, "Logowanie "), true);
+        sink.flush();
+
+        assertEquals(1, sink.getSpilledCount());
+        assertEquals(0, sink.getFailedCount());
+        assertEquals(1, store.findOperations(new OperationQuery()).count());
+        assertEquals(1, store.findReplayPosition(spillDirectory.toAbsolutePath().normalize().toString()));
+        sink.close();
+        journal.close();
+    }
+
+    @Test
+    void testFlushReportsFailedWrite() throws SQLException {
+        doThrow(new SQLException("disk full")).when(dao).logOperations(any(), any());
+        AsyncHistorySink sink = new AsyncHistorySink(dao, 16, OverflowPolicy.BLOCK);
+
+        sink.logOperation(new LogIn(user, "Logowanie "), true);
+
+        assertThrows(SQLException.class, sink::flush);
+        assertEquals(1, sink.getFailedCount());
+        sink.close();
+    }
+
+    private void blockFirstWrite() throws SQLException {
+        doAnswer(invocation -> {
+            writing.countDown();
+            release.await();
+            return null;
+        }).when(dao).logOperations(any(), any());
+    }
+}
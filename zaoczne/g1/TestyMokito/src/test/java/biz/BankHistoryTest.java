@@ -6,15 +6,19 @@ import model.Operation;
 import model.operations.LogIn;
 import model.operations.LogOut;
 import db.dao.DAO;
+import db.dao.OperationQuery;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.SQLException;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.Mockito.*;
 
@@ -105,4 +109,20 @@ public class BankHistoryTest {
             bankHistory.logPaymentOut(account, 100.0, true);
         });
     }
+
+    @Test
+    void testFindOperations_FlushesSinkFirst() throws SQLException {
+        HistorySink sink = mock(HistorySink.class);
+        BankHistory history = new BankHistory(dao, sink);
+        OperationQuery query = new OperationQuery();
+        Operation logIn = new LogIn(user, "Logowanie ");
+        when(dao.findOperations(query)).thenReturn(Stream.of(logIn));
+
+        assertEquals(1, history.findOperations(query).count());
+
+        InOrder inOrder = inOrder(sink, dao);
+        inOrder.verify(sink).flush();
+        inOrder.verify(dao).findOperations(query);
+    }
+
 }
\ No newline at end of file
@@ -0,0 +1,108 @@
+package biz;
+
+import db.dao.DAO;
+import model.Operation;
+import model.User;
+import model.operations.LogIn;
+import model.operations.LogOut;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class GroupCommitHistoryWriterTest {
+
+    @Mock
+    private DAO dao;
+
+    private User user;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setId(1);
+        user.setName("TestUser");
+    }
+
+    @Test
+    void testBatchFlushedWhenFull() throws SQLException {
+        GroupCommitHistoryWriter writer = new GroupCommitHistoryWriter(dao, 3, 60_000);
+        Operation first = new LogIn(user, "Logowanie ");
+        Operation second = new LogOut(user, "Logowanie ");
+        Operation third = new LogIn(null, "Bad Username");
+
+        CompletableFuture<Void> f1 = writer.submit(first, true);
+        CompletableFuture<Void> f2 = writer.submit(second, true);
+        CompletableFuture<Void> f3 = writer.submit(third, false);
+        CompletableFuture.allOf(f1, f2, f3).join();
+        writer.close();
+
+        verify(dao, times(1)).logOperations(
+                argThat((List<Operation> ops) -> ops.equals(List.of(first, second, third))),
+                argThat((boolean[] flags) -> flags.length == 3 && flags[0] && flags[1] && !flags[2]));
+        assertEquals(1, writer.getBatchCount());
+        assertEquals(3, writer.getWrittenCount());
+    }
+
+    @Test
+    void testBatchFlushedAfterDelay() throws SQLException {
+        GroupCommitHistoryWriter writer = new GroupCommitHistoryWriter(dao, 100, 5);
+
+        writer.logOperation(new LogIn(user, "Logowanie "), true);
+
+        verify(dao, times(1)).logOperations(any(), any());
+        writer.close();
+    }
+
+    @Test
+    void testFailedBatchFailsEveryCaller() throws SQLException {
+        doThrow(new SQLException("disk full")).when(dao).logOperations(any(), any());
+        GroupCommitHistoryWriter writer = new GroupCommitHistoryWriter(dao, 1, 5);
+
+        assertThrows(SQLException.class, () -> writer.logOperation(new LogIn(user, "Logowanie "), true));
+        writer.close();
+    }
+
+    @Test
+    void testFailedBatchFailsOnlyTheBadCaller() throws SQLException {
+        Operation bad = new LogIn(user, "bad");
+        doThrow(new SQLException("constraint failed")).when(dao).logOperations(
+                argThat((List<Operation> ops) -> ops != null && ops.contains(bad)), any());
+        GroupCommitHistoryWriter writer = new GroupCommitHistoryWriter(dao, 3, 60_000);
+
+        CompletableFuture<Void> f1 = writer.submit(new LogIn(user, "Logowanie "), true);
+        CompletableFuture<Void> f2 = writer.submit(bad, true);
+        CompletableFuture<Void> f3 = writer.submit(new LogOut(user, "Logowanie "), true);
+        writer.close();
+
+        f1.join();
+        f3.join();
+        SQLException e = assertThrows(SQLException.class, () -> GroupCommitHistoryWriter.await(f2));
+        assertEquals("constraint failed", e.getMessage());
+        assertEquals(2, writer.getWrittenCount());
+        verify(dao, times(4)).logOperations(any(), any());
+    }
+
+    @Test
+    void testCloseWritesPendingOperations() throws SQLException {
+        GroupCommitHistoryWriter writer = new GroupCommitHistoryWriter(dao, 100, 60_000);
+        CompletableFuture<Void> pending = writer.submit(new LogIn(user, "Logowanie "), true);
+
+        writer.close();
+
+        assertTrue(pending.isDone());
+        verify(dao, times(1)).logOperations(any(), any());
+        assertThrows(IllegalStateException.class, () -> writer.submit(new LogIn(user, "Logowanie "), true));
+    }
+}
@@ -0,0 +1,131 @@
+package biz;
+
+import db.dao.impl.InMemoryDAO;
+import model.Account;
+import model.Money;
+import model.Role;
+import model.User;
+import model.operations.Interest;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InterestAccrualTest {
+    private static final long DAY = Duration.ofDays(1).toMillis();
+
+    private ManualClock clock;
+    private User operator;
+    private InterestAccrual accrual;
+
+    @BeforeEach
+    void setUp() {
+        clock = new ManualClock();
+        operator = new User();
+        operator.setId(2);
+        operator.setName("InterestOperator");
+        accrual = new InterestAccrual(operator, clock, Duration.ofDays(1));
+    }
+
+    @Test
+    void testAccrueCompoundsWholePeriodsOnly() {
+        Account account = account(1000.0, 0.05, clock.now);
+        clock.now += 365 * DAY + DAY / 2;
+
+        Interest interest = accrual.accrue(account);
+
+        long expected = Money.multiply(100_000, Math.expm1(365 * Math.log1p(0.05 / 365)));
+        assertEquals(expected, interest.getAmmountMinor());
+        assertEquals(100_000 + expected, account.getAmmountMinor());
+        /* the half day is left for the next accrual */
+        assertEquals(clock.now - DAY / 2, account.getLastAccrual());
+        assertNull(accrual.accrue(account));
+    }
+
+    @Test
+    void testDormantAndDailyAccountsEarnTheSame() {
+        Account dormant = account(1000.0, 0.05, clock.now);
+        Account daily = account(1000.0, 0.05, clock.now);
+        for (int day = 0; day < 30; day++) {
+            clock.now += DAY;
+            accrual.accrue(daily);
+        }
+
+        accrual.accrue(dormant);
+
+        /* each accrual rounds to a grosz, no more apart than that */
+        assertTrue(Math.abs(dormant.getAmmountMinor() - daily.getAmmountMinor()) <= 30);
+    }
+
+    @Test
+    void testAccountWithoutRateEarnsNothing() {
+        Account account = account(1000.0, 0, 0);
+        clock.now += 100 * DAY;
+
+        assertNull(accrual.accrue(account));
+        assertEquals(0, accrual.owed(account));
+        assertEquals(Money.of(1000.0), accrual.projectedBalance(account));
+    }
+
+    @Test
+    void testAccountManagerAccruesOnlyWhenTouched() throws SQLException {
+        InMemoryDAO dao = new InMemoryDAO();
+        Role role = new Role();
+        role.setName("Admin");
+        User user = dao.createUser("InterestOperator", role);
+        dao.createAccount(user, 1000.0);
+        AccountManager manager = new AccountManager();
+        manager.dao = dao;
+        manager.history = new BankHistory(dao);
+        manager.setInterestAccrual(new InterestAccrual(user, clock, Duration.ofDays(1)));
+        assertTrue(manager.setInterestRate(1, 0.05));
+        clock.now += 365 * DAY;
+        long owed = Money.multiply(100_000, Math.expm1(365 * Math.log1p(0.05 / 365)));
+
+        assertEquals(Money.ofMinor(100_000 + owed), manager.getBalance(1));
+        assertEquals(100_000, dao.findAccountById(1).getAmmountMinor());
+        int before = dao.findLastOperationId();
+
+        assertTrue(manager.paymentIn(user, 10.0, "Deposit", 1));
+
+        assertEquals(100_000 + owed + 1000, dao.findAccountById(1).getAmmountMinor());
+        assertEquals(clock.now, dao.findAccountById(1).getLastAccrual());
+        /* PAYMENT_IN and INTEREST for the accrual, PAYMENT_IN for the deposit */
+        assertEquals(before + 3, dao.findLastOperationId());
+    }
+
+    private Account account(double balance, double rate, long lastAccrual) {
+        Account account = new Account();
+        account.setId(1);
+        account.setAmmount(balance);
+        account.setInterestRate(rate);
+        account.setLastAccrual(lastAccrual);
+        return account;
+    }
+
+    private static class ManualClock extends Clock {
+        long now = 1_700_000_000_000L;
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(now);
+        }
+    }
+}
@@ -1,10 +1,17 @@
 package biz;
 
 import db.dao.DAO;
+import db.dao.OperationQuery;
+import db.dao.impl.ForwardingDAO;
+import db.dao.impl.InMemoryDAO;
 import model.Account;
+import model.InterestCheckpoint;
+import model.Money;
 import model.Operation;
+import model.Role;
 import model.User;
 import model.operations.Interest;
+import model.operations.Payment;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -13,8 +20,15 @@ import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -84,4 +98,227 @@ public class InterestOperatorTest {
         verify(accountManager, never()).paymentIn(any(User.class), anyDouble(), anyString(), anyInt());
         verify(bankHistory, never()).logOperation(any(Operation.class), anyBoolean());
     }
+
+    @Test
+    void testApplyInterestToAll_CreditsEachRangeOnce() throws SQLException {
+        when(dao.findUserByName("InterestOperator")).thenReturn(interestOperatorUser);
+        when(dao.findMaxAccountId()).thenReturn(2500);
+        when(dao.findAccountsInRange(Integer.MIN_VALUE, 2500, 1)).thenReturn(List.of(account));
+        when(accountManager.creditInterest(eq(interestOperatorUser), anyInt(), anyInt(), eq(0.2), eq("Interest ...")))
+                .thenAnswer(invocation -> new long[]{
+                        (int) invocation.getArgument(2) - (int) invocation.getArgument(1), 10});
+        List<long[]> progress = new CopyOnWriteArrayList<>();
+        interestOperator.setRangeSize(1000);
+        interestOperator.setParallelism(2);
+
+        InterestSweepResult result = interestOperator.applyInterestToAll(
+                (rangesDone, ranges, accountsCredited) -> progress.add(new long[]{rangesDone, ranges, accountsCredited}));
+
+        verify(accountManager).creditInterest(interestOperatorUser, 0, 1000, 0.2, "Interest ...");
+        verify(accountManager).creditInterest(interestOperatorUser, 1000, 2000, 0.2, "Interest ...");
+        verify(accountManager).creditInterest(interestOperatorUser, 2000, 2500, 0.2, "Interest ...");
+        assertEquals(3, result.getRanges());
+        assertEquals(2500, result.getAccounts());
+        assertEquals(Money.ofMinor(30), result.getInterest());
+        assertEquals(3, progress.size());
+        assertTrue(progress.stream().anyMatch(p -> p[0] == 3 && p[1] == 3 && p[2] == 2500));
+    }
+
+    @Test
+    void testApplyInterestToAll_SQLExceptionFromRange() throws SQLException {
+        when(dao.findUserByName("InterestOperator")).thenReturn(interestOperatorUser);
+        when(dao.findMaxAccountId()).thenReturn(1);
+        when(dao.findAccountsInRange(Integer.MIN_VALUE, 1, 1)).thenReturn(List.of(account));
+        when(accountManager.creditInterest(any(User.class), anyInt(), anyInt(), anyDouble(), anyString()))
+                .thenThrow(new SQLException("disk full"));
+
+        SQLException e = assertThrows(SQLException.class, () -> interestOperator.applyInterestToAll());
+        assertEquals("disk full", e.getMessage());
+    }
+
+    @Test
+    void testApplyInterestToAll_InMemoryBank() throws SQLException {
+        InMemoryDAO memory = new InMemoryDAO();
+        Role role = new Role();
+        role.setName("Admin");
+        User operator = memory.createUser("InterestOperator", role);
+        for (int i = 0; i < 2500; i++) {
+            memory.createAccount(operator, i % 10 == 0 ? 0 : 100.0 + i);
+        }
+        AccountManager manager = new AccountManager();
+        manager.dao = memory;
+        manager.history = new BankHistory(memory);
+        InterestOperator operatorOnMemory = new InterestOperator(memory, manager);
+        operatorOnMemory.setRangeSize(100);
+        operatorOnMemory.setParallelism(4);
+
+        InterestSweepResult result = operatorOnMemory.applyInterestToAll();
+
+        assertEquals(25, result.getRanges());
+        assertEquals(2250, result.getAccounts());
+        for (int i = 0; i < 2500; i++) {
+            long before = Money.toMinor(i % 10 == 0 ? 0 : 100.0 + i);
+            assertEquals(before + Money.multiply(before, 0.2), memory.findAccountById(i + 1).getAmmountMinor());
+        }
+        /* a PAYMENT_IN and an INTEREST row per credited account */
+        assertEquals(4500, memory.findLastOperationId());
+    }
+
+    @Test
+    void testApplyInterestToAll_RangesOverlapOnlyWithConcurrentReaders() throws SQLException {
+        assertTrue(rangeReadsAtOnce(Integer.MAX_VALUE, 5000) >= 2);
+        /* a DAO without a reader pool would only queue the ranges on its writer lock */
+        assertEquals(1, rangeReadsAtOnce(1, 100));
+    }
+
+    @Test
+    void testRunInterest_ResumesAfterFailure() throws SQLException {
+        InMemoryDAO memory = new InMemoryDAO();
+        Role role = new Role();
+        role.setName("Admin");
+        User operator = memory.createUser("InterestOperator", role);
+        for (int i = 0; i < 2500; i++) {
+            memory.createAccount(operator, 100.0);
+        }
+        AtomicInteger commits = new AtomicInteger();
+        DAO failingOnSecondChunk = new ForwardingDAO(memory) {
+            @Override
+            public void commitTransaction() throws SQLException {
+                if (commits.incrementAndGet() == 2) {
+                    rollbackTransaction();
+                    throw new SQLException("Connection lost");
+                }
+                super.commitTransaction();
+            }
+        };
+        AccountManager manager = new AccountManager();
+        manager.dao = failingOnSecondChunk;
+        manager.history = new BankHistory(failingOnSecondChunk);
+        InterestOperator operatorOnMemory = new InterestOperator(failingOnSecondChunk, manager);
+        operatorOnMemory.setRangeSize(1000);
+
+        assertThrows(SQLException.class, () -> operatorOnMemory.runInterest("2024-06", null));
+        assertEquals(1000, memory.findInterestCheckpoint("2024-06").getLastAccountId());
+
+        InterestCheckpoint done = operatorOnMemory.runInterest("2024-06", null);
+
+        assertTrue(done.isFinished());
+        assertEquals(2500, done.getAccounts());
+        assertEquals(Money.of(2500 * 20.0), done.getInterest());
+        for (int id = 1; id <= 2500; id++) {
+            assertEquals(12_000, memory.findAccountById(id).getAmmountMinor());
+        }
+        /* a finished run credits nobody again */
+        operatorOnMemory.runInterest("2024-06", null);
+        assertEquals(12_000, memory.findAccountById(1).getAmmountMinor());
+    }
+
+    @Test
+    void testApplyInterestToAll_PushDownRunsInTheDatabase() throws SQLException {
+        when(dao.findUserByName("InterestOperator")).thenReturn(interestOperatorUser);
+        when(accountManager.creditInterestToAll(interestOperatorUser, 0.2, "Interest ...")).thenReturn(new long[]{3, 600});
+        interestOperator.setPushDown(true);
+
+        InterestSweepResult result = interestOperator.applyInterestToAll();
+
+        assertEquals(3, result.getAccounts());
+        assertEquals(Money.ofMinor(600), result.getInterest());
+        verify(accountManager, never()).creditInterest(any(User.class), anyInt(), anyInt(), anyDouble(), anyString());
+        verify(dao, never()).findMaxAccountId();
+    }
+
+    @Test
+    void testApplyInterestToAll_PushDownMatchesRangeSweep() throws SQLException {
+        InMemoryDAO swept = bankWithOddBalances();
+        InMemoryDAO pushed = bankWithOddBalances();
+        interestOperatorOn(swept, false).applyInterestToAll();
+        interestOperatorOn(pushed, true).applyInterestToAll();
+
+        assertTrue(pushed.findLastOperationId() > 0);
+        assertEquals(swept.findLastOperationId(), pushed.findLastOperationId());
+        for (int id = 1; id <= swept.findMaxAccountId(); id++) {
+            assertEquals(swept.findAccountById(id).getAmmountMinor(), pushed.findAccountById(id).getAmmountMinor());
+            assertEquals(swept.findAccountById(id).getVersion(), pushed.findAccountById(id).getVersion());
+        }
+        assertEquals(rowsOf(swept), rowsOf(pushed));
+    }
+
+    /*
+    Sweeps 4 ranges at parallelism 4 on a DAO reporting the given readers.
+    The first two range reads wait up to waitMillis for each other; returns
+    the most range reads seen running at once.
+     */
+    private int rangeReadsAtOnce(int readers, long waitMillis) throws SQLException {
+        InMemoryDAO memory = new InMemoryDAO();
+        Role role = new Role();
+        role.setName("Admin");
+        User operator = memory.createUser("InterestOperator", role);
+        for (int i = 0; i < 400; i++) {
+            memory.createAccount(operator, 100.0);
+        }
+        AtomicInteger reading = new AtomicInteger();
+        AtomicInteger most = new AtomicInteger();
+        CountDownLatch pair = new CountDownLatch(2);
+        DAO counting = new ForwardingDAO(memory) {
+            @Override
+            public int getConcurrentReaders() {
+                return readers;
+            }
+
+            @Override
+            public List<Account> findAccountsInRange(int afterId, int toId, int limit) throws SQLException {
+                if (limit == 1) return super.findAccountsInRange(afterId, toId, limit);
+                most.accumulateAndGet(reading.incrementAndGet(), Math::max);
+                try {
+                    pair.countDown();
+                    pair.await(waitMillis, TimeUnit.MILLISECONDS);
+                    return super.findAccountsInRange(afterId, toId, limit);
+                } catch (InterruptedException e) {
+                    throw new SQLException(e);
+                } finally {
+                    reading.decrementAndGet();
+                }
+            }
+        };
+        AccountManager manager = new AccountManager();
+        manager.dao = counting;
+        manager.history = new BankHistory(counting);
+        InterestOperator operatorOnMemory = new InterestOperator(counting, manager);
+        operatorOnMemory.setRangeSize(100);
+        operatorOnMemory.setParallelism(4);
+
+        assertEquals(400, operatorOnMemory.applyInterestToAll().getAccounts());
+        return most.get();
+    }
+
+    private InMemoryDAO bankWithOddBalances() {
+        InMemoryDAO memory = new InMemoryDAO();
+        Role role = new Role();
+        role.setName("Admin");
+        User operator = memory.createUser("InterestOperator", role);
+        for (int i = 0; i < 500; i++) {
+            /* a few groszy earn interest that rounds to nothing */
+            memory.createAccount(operator, i % 7 == 0 ? i % 5 / 100.0 : 12.345 * i);
+        }
+        return memory;
+    }
+
+    private InterestOperator interestOperatorOn(InMemoryDAO memory, boolean pushDown) {
+        AccountManager manager = new AccountManager();
+        manager.dao = memory;
+        manager.history = new BankHistory(memory);
+        InterestOperator operator = new InterestOperator(memory, manager);
+        operator.setRangeSize(64);
+        operator.setPushDown(pushDown);
+        return operator;
+    }
+
+    private static List<String> rowsOf(InMemoryDAO memory) throws SQLException {
+        try (Stream<Operation> operations = memory.findOperations(new OperationQuery())) {
+            return operations
+                    .map(o -> o.getType() + " " + ((Payment) o).getAccount().getId() + " " + ((Payment) o).getAmmountMinor())
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
 }
@@ -0,0 +1,155 @@
+package biz;
+
+import db.dao.impl.SQLiteDB;
+import model.Money;
+import model.User;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+The push-down creditInterestToAll and the row-by-row creditInterest on two
+SQLite databases in temp files holding the same data. Both must leave the
+same balances, versions and history.
+ */
+public class InterestPushDownTest {
+    private static final String DESCRIPTION = "Interest ...";
+    /* 0.5 is exact, so 1, 3, 5 and 2000001 grosze give exact half grosze */
+    private static final long[] BALANCES = {1, 3, 5, 0, -3, -1, 134512, 2_000_001, 1};
+    private static final int SEEDED_OPERATIONS = 3;
+
+    @TempDir
+    Path directory;
+
+    private String rowByRowUrl;
+    private String pushDownUrl;
+    private AccountManager rowByRow;
+    private AccountManager pushDown;
+    private User operator;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        rowByRowUrl = createBank("row-by-row.db");
+        pushDownUrl = createBank("push-down.db");
+        rowByRow = AccountManager.buildBank(rowByRowUrl);
+        pushDown = AccountManager.buildBank(pushDownUrl);
+        operator = new User();
+        operator.setId(1);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        rowByRow.dao.close();
+        pushDown.dao.close();
+    }
+
+    @Test
+    void testPushDownBooksWhatRowByRowBooks() throws SQLException {
+        for (double factor : new double[]{0.5, 0.03}) {
+            long[] expected = rowByRow.creditInterest(operator, 0, Integer.MAX_VALUE, factor, DESCRIPTION);
+            long[] actual = pushDown.creditInterestToAll(operator, factor, DESCRIPTION);
+
+            assertArrayEquals(expected, actual, "factor " + factor);
+        }
+
+        String accounts = "SELECT id, ammount, version FROM Account ORDER BY id";
+        String operations = "SELECT id, type, ammount, account_id, description, user_id FROM Operation ORDER BY id";
+        String history = "SELECT operation_id, succesfull FROM History ORDER BY operation_id";
+        assertEquals(rows(rowByRowUrl, accounts), rows(pushDownUrl, accounts));
+        assertEquals(rows(rowByRowUrl, operations), rows(pushDownUrl, operations));
+        assertEquals(rows(rowByRowUrl, history), rows(pushDownUrl, history));
+    }
+
+    @Test
+    void testRoundsHalfGroszeLikeMoneyMultiply() throws SQLException {
+        pushDown.creditInterestToAll(operator, 0.5, DESCRIPTION);
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < BALANCES.length; i++) {
+            long interest = Money.multiply(BALANCES[i], 0.5);
+            expected.add((i + 1) + ":" + (interest > 0 ? BALANCES[i] + interest : BALANCES[i]));
+        }
+        assertEquals(expected, rows(pushDownUrl, "SELECT id, ammount FROM Account ORDER BY id"));
+        /* 2.5 rounds away from zero to 3, -1.5 and -0.5 are no interest at all */
+        assertEquals(List.of("1", "2", "3", "67256", "1000001", "1"), rows(pushDownUrl,
+                "SELECT ammount FROM Operation WHERE type = 'INTEREST' ORDER BY account_id"));
+    }
+
+    @Test
+    void testRoundsJustBelowHalfGroszDown() throws SQLException {
+        double factor = 0.49999999999999994;
+        long[] expected = rowByRow.creditInterest(operator, 0, Integer.MAX_VALUE, factor, DESCRIPTION);
+        long[] actual = pushDown.creditInterestToAll(operator, factor, DESCRIPTION);
+
+        assertArrayEquals(expected, actual);
+        /* 0.49999999999999994 of 1 grosz is no interest, 1.4999999999999998 of 3 is 1 */
+        assertEquals(List.of("2:1", "3:2", "7:67256", "8:1000000"), rows(pushDownUrl,
+                "SELECT account_id, ammount FROM Operation WHERE type = 'INTEREST' ORDER BY account_id"));
+        assertEquals(rows(rowByRowUrl, "SELECT id, ammount FROM Account ORDER BY id"),
+                rows(pushDownUrl, "SELECT id, ammount FROM Account ORDER BY id"));
+    }
+
+    @Test
+    void testHistoryCoversOnlyNewOperations() throws SQLException {
+        pushDown.creditInterestToAll(operator, 0.5, DESCRIPTION);
+
+        /* seeded operation 3 has no History row and must not get one */
+        assertEquals(List.of("1", "2"), rows(pushDownUrl,
+                "SELECT operation_id FROM History WHERE operation_id <= " + SEEDED_OPERATIONS + " ORDER BY operation_id"));
+        assertEquals(rows(pushDownUrl, "SELECT id FROM Operation WHERE id > " + SEEDED_OPERATIONS + " ORDER BY id"),
+                rows(pushDownUrl, "SELECT operation_id FROM History WHERE operation_id > " + SEEDED_OPERATIONS
+                        + " ORDER BY operation_id"));
+        assertEquals(List.of("12"), rows(pushDownUrl, "SELECT COUNT(*) FROM Operation WHERE id > " + SEEDED_OPERATIONS));
+    }
+
+    private String createBank(String name) throws Exception {
+        String url = "jdbc:sqlite:" + directory.resolve(name);
+        SQLiteDB.initializeDB(url);
+        try (Connection conn = DriverManager.getConnection(url); Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Role (id, name) VALUES (1, 'Admin'), (2, 'Klient')");
+            st.executeUpdate("INSERT INTO User (id, name, role_id) VALUES (1, 'Operator', 1), (2, 'Adam', 2)");
+            for (int i = 0; i < BALANCES.length; i++) {
+                st.executeUpdate("INSERT INTO Account (id, owner_id, ammount, version) VALUES ("
+                        + (i + 1) + ", 2, " + BALANCES[i] + ", " + i % 3 + ")");
+            }
+            st.executeUpdate("INSERT INTO Operation (id, type, ammount, description, date, user_id, account_id) VALUES "
+                    + "(1, 'PAYMENT_IN', 100, 'Deposit', '2024-03-10T00:00:00.000Z', 2, 1), "
+                    + "(2, 'WITHDRAW', 50, 'Withdraw', '2024-03-10T01:00:00.000Z', 2, 1), "
+                    + "(3, 'LOG_IN', NULL, 'Logowanie ', '2024-03-10T02:00:00.000Z', 2, NULL)");
+            st.executeUpdate("INSERT INTO History (operation_id, succesfull) VALUES (1, 'true'), (2, 'false')");
+        }
+        return url;
+    }
+
+    /*
+    Each row as its columns joined with ':', read over a connection of its own.
+     */
+    private static List<String> rows(String url, String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Connection conn = DriverManager.getConnection(url);
+             Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    if (i > 1) row.append(':');
+                    row.append(rs.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+}
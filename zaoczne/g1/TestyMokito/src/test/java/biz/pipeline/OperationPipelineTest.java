@@ -0,0 +1,87 @@
+package biz.pipeline;
+
+import model.operations.OperationType;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationPipelineTest {
+
+    @Test
+    void testEveryStageSeesEveryEventInOrder() {
+        OperationPipeline pipeline = new OperationPipeline(8);
+        List<Double> first = new ArrayList<>();
+        List<Double> second = new ArrayList<>();
+        pipeline.addStage("first", (event, sequence, endOfBatch) -> first.add(event.getAmmount()));
+        pipeline.addStage("second", (event, sequence, endOfBatch) -> second.add(event.getAmmount()));
+        pipeline.start();
+
+        for (int i = 0; i < 100; i++) {
+            pipeline.publish(OperationType.PAYMENT_IN, 1, 2, i, "Deposit", true);
+        }
+        pipeline.close();
+
+        assertEquals(100, first.size());
+        assertEquals(first, second);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, first.get(i));
+        }
+        assertEquals(99, pipeline.getStageSequence("first"));
+    }
+
+    @Test
+    void testProducerWaitsForSlowStage() {
+        OperationPipeline pipeline = new OperationPipeline(2);
+        List<Long> seen = new ArrayList<>();
+        pipeline.addStage("slow", (event, sequence, endOfBatch) -> {
+            Thread.sleep(1);
+            seen.add(sequence);
+        });
+        pipeline.start();
+
+        for (int i = 0; i < 20; i++) {
+            pipeline.publish(OperationType.LOG_IN, 1, OperationEvent.NONE, 0, "Logowanie ", true);
+            assertTrue(pipeline.getCursor() - pipeline.getStageSequence("slow") <= pipeline.getCapacity());
+        }
+        pipeline.close();
+
+        assertEquals(20, seen.size());
+        assertEquals(19, seen.get(19));
+    }
+
+    @Test
+    void testMetricsStage() {
+        OperationPipeline pipeline = new OperationPipeline(16);
+        MetricsStage metrics = new MetricsStage();
+        pipeline.addStage("metrics", metrics);
+        pipeline.start();
+
+        pipeline.publish(OperationType.WITHDRAW, 1, 2, 50.0, "Withdraw", true);
+        pipeline.publish(OperationType.WITHDRAW, 1, 2, 25.0, "Withdraw", true);
+        pipeline.publish(OperationType.WITHDRAW, 1, 2, 999.0, "Withdraw", false);
+        pipeline.close();
+
+        assertEquals(2, metrics.getCount(OperationType.WITHDRAW, true));
+        assertEquals(1, metrics.getCount(OperationType.WITHDRAW, false));
+        assertEquals(75.0, metrics.getAmmount(OperationType.WITHDRAW));
+    }
+
+    @Test
+    void testFailingStageIsCounted() {
+        OperationPipeline pipeline = new OperationPipeline(4);
+        pipeline.addStage("broken", (event, sequence, endOfBatch) -> {
+            throw new IllegalStateException("fraud check unavailable");
+        });
+        pipeline.start();
+
+        pipeline.publish(OperationType.PAYMENT_IN, 1, 2, 10.0, "Deposit", true);
+        pipeline.close();
+
+        assertEquals(1, pipeline.getStageFailureCount("broken"));
+        assertThrows(IllegalStateException.class,
+                () -> pipeline.publish(OperationType.PAYMENT_IN, 1, 2, 10.0, "Deposit", true));
+    }
+}
@@ -0,0 +1,187 @@
+package biz.recovery;
+
+import db.dao.impl.InMemoryDAO;
+import model.Account;
+import model.Role;
+import model.User;
+import model.operations.Interest;
+import model.operations.PaymentIn;
+import model.operations.Withdraw;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class BalanceRecoveryTest {
+
+    @TempDir
+    Path directory;
+
+    private InMemoryDAO dao;
+    private User user;
+    private BalanceRecovery recovery;
+
+    @BeforeEach
+    void setUp() {
+        dao = new InMemoryDAO();
+        Role role = new Role();
+        role.setId(1);
+        role.setName("Klient");
+        user = dao.createUser("Adam", role);
+        for (int i = 1; i <= 10; i++) {
+            dao.createAccount(user, 100.0 * i);
+        }
+        recovery = new BalanceRecovery(dao, directory, 3);
+    }
+
+    @Test
+    void testReplayRebuildsBalances() throws SQLException, IOException {
+        BalanceSnapshot snapshot = recovery.takeSnapshot();
+        assertEquals(10, snapshot.size());
+        assertEquals(0, snapshot.getLastOperationId());
+
+        payIn(1, 50.0, true);
+        withdraw(4, 150.0, true);
+        payIn(10, 25.0, true);
+        payIn(7, 999.0, false);
+        dao.logOperation(new Interest(user, 20.0, "Interest ...", dao.findAccountById(10)), true);
+
+        ReplayResult result = recovery.replay();
+
+        assertEquals(3, result.getApplied());
+        assertEquals(0, result.getSkipped());
+        assertEquals(15000, result.getBalances().getBalanceOf(1));
+        assertEquals(25000, result.getBalances().getBalanceOf(4));
+        assertEquals(102500, result.getBalances().getBalanceOf(10));
+        assertEquals(70000, result.getBalances().getBalanceOf(7));
+        assertEquals(Collections.emptyList(), recovery.reconcile(result.getBalances()));
+    }
+
+    @Test
+    void testRestoreRepairsDivergedBalance() throws SQLException, IOException {
+        recovery.takeSnapshot();
+        payIn(2, 30.0, true);
+        Account broken = dao.findAccountById(5);
+        broken.setAmmount(1.0);
+        dao.updateAccountState(broken);
+
+        ReplayResult result = recovery.replay();
+
+        assertEquals(Collections.singletonList(5), recovery.reconcile(result.getBalances()));
+        assertEquals(1, recovery.restore(result.getBalances()));
+        assertEquals(500.0, dao.findAccountById(5).getAmmount());
+        assertEquals(230.0, dao.findAccountById(2).getAmmount());
+    }
+
+    @Test
+    void testLatestSnapshotWins() throws SQLException, IOException {
+        recovery.takeSnapshot();
+        payIn(3, 10.0, true);
+        recovery.takeSnapshot();
+
+        BalanceSnapshot latest = recovery.latestSnapshot();
+
+        assertEquals(1, latest.getLastOperationId());
+        assertEquals(31000, latest.getBalanceOf(3));
+        assertEquals(0, recovery.replay().getApplied());
+    }
+
+    @Test
+    void testOperationsOfNewAccountsAreSkipped() throws SQLException, IOException {
+        recovery.takeSnapshot();
+        Account opened = dao.createAccount(user, 0.0);
+        payIn(opened.getId(), 40.0, true);
+
+        ReplayResult result = recovery.replay();
+
+        assertEquals(1, result.getSkipped());
+        assertFalse(result.getBalances().contains(opened.getId()));
+    }
+
+    @Test
+    void testOperationsOfAccountsBetweenPartitionsAreSkipped() throws SQLException {
+        /* 3 and 6 are missing, they fall between the partitions [1, 2], [4, 5] and [7, 8] */
+        BalanceSnapshot base = new BalanceSnapshot(0, 0, new int[]{1, 2, 4, 5, 7, 8},
+                new long[]{10000, 20000, 40000, 50000, 70000, 80000});
+        payIn(3, 10.0, true);
+        payIn(6, 20.0, true);
+        payIn(5, 30.0, true);
+
+        ReplayResult result = recovery.replay(base);
+
+        assertEquals(1, result.getApplied());
+        assertEquals(2, result.getSkipped());
+        assertEquals(53000, result.getBalances().getBalanceOf(5));
+    }
+
+    @Test
+    void testSnapshotReadsPagesApartAndCatchesUp() throws Exception {
+        InMemoryDAO spied = spy(dao);
+        BalanceRecovery paged = new BalanceRecovery(spied, directory, 3);
+        paged.pageSize = 3;
+        AtomicInteger reads = new AtomicInteger();
+        doAnswer(invocation -> {
+            /* commits between the first and second page, 1 is already read and 5 is not */
+            if (reads.incrementAndGet() == 2) {
+                Thread payer = new Thread(() -> {
+                    try {
+                        payIn(1, 50.0, true);
+                        payIn(5, 30.0, true);
+                    } catch (SQLException e) {
+                        throw new IllegalStateException(e);
+                    }
+                });
+                payer.start();
+                payer.join();
+            }
+            return invocation.callRealMethod();
+        }).when(spied).findLastOperationId();
+
+        BalanceSnapshot snapshot = paged.takeSnapshot();
+
+        verify(spied, times(4)).beginTransaction();
+        assertEquals(2, snapshot.getLastOperationId());
+        assertEquals(15000, snapshot.getBalanceOf(1));
+        assertEquals(53000, snapshot.getBalanceOf(5));
+        assertTrue(paged.reconcile(snapshot).isEmpty());
+    }
+
+    @Test
+    void testCorruptedSnapshotIsRejected() throws SQLException, IOException {
+        recovery.takeSnapshot();
+        Path file = directory.resolve("balances-0000000000.snap");
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(30);
+            raf.writeDouble(1_000_000.0);
+        }
+
+        assertThrows(IOException.class, () -> BalanceSnapshot.readFrom(file));
+    }
+
+    private void payIn(int accountId, double ammount, boolean success) throws SQLException {
+        Account account = dao.findAccountById(accountId);
+        if (success) {
+            account.income(ammount);
+            dao.updateAccountState(account);
+        }
+        dao.logOperation(new PaymentIn(user, ammount, "Deposit", account), success);
+    }
+
+    private void withdraw(int accountId, double ammount, boolean success) throws SQLException {
+        Account account = dao.findAccountById(accountId);
+        if (success) {
+            account.outcome(ammount);
+            dao.updateAccountState(account);
+        }
+        dao.logOperation(new Withdraw(user, ammount, "Withdraw", account), success);
+    }
+}
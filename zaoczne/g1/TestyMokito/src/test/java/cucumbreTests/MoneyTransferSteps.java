@@ -12,7 +12,10 @@ import model.User;
 import java.lang.reflect.Field;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import io.cucumber.java.en.Given;
 import io.cucumber.java.en.Then;
 import io.cucumber.java.en.When;
@@ -63,6 +66,19 @@ public class MoneyTransferSteps {
         } catch (NoSuchFieldException | IllegalAccessException e) {
             e.printStackTrace();
         }
+        try {
+            /* transfers load both accounts at once, answered from the per-account stubs */
+            when(daoMock.findAccountsByIds(any())).thenAnswer(invocation -> {
+                Map<Integer, Account> accounts = new HashMap<>();
+                for (Integer id : invocation.<Collection<Integer>>getArgument(0)) {
+                    Account acc = daoMock.findAccountById(id);
+                    if (acc != null) accounts.put(id, acc);
+                }
+                return accounts;
+            });
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
     }
 
     @Given("We have user {string} with id: {int}")
@@ -0,0 +1,143 @@
+package db.dao.impl;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AccountStoreTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void testCreateAndRead() {
+        AccountStore store = new AccountStore();
+
+        assertTrue(store.create(7, 3, 12345));
+        assertFalse(store.create(7, 4, 0));
+
+        assertTrue(store.contains(7));
+        assertFalse(store.contains(8));
+        assertFalse(store.contains(1_000_000));
+        assertEquals(12345, store.getBalance(7));
+        assertEquals(3, store.getOwnerId(7));
+        assertEquals(1, store.getVersion(7));
+        assertEquals(7, store.getMaxId());
+        assertEquals(1, store.size());
+        assertThrows(IllegalArgumentException.class, () -> store.getBalance(8));
+    }
+
+    @Test
+    void testUpdatesBumpTheVersion() {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, 1000);
+
+        assertEquals(2, store.setBalance(1, 500));
+        assertEquals(700, store.add(1, 200));
+        assertFalse(store.withdraw(1, 701));
+        assertTrue(store.withdraw(1, 700));
+
+        assertEquals(0, store.getBalance(1));
+        assertEquals(4, store.getVersion(1));
+    }
+
+    @Test
+    void testCompareAndSetRejectsStaleVersion() {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, 1000);
+        long version = store.getVersion(1);
+
+        assertTrue(store.compareAndSetBalance(1, version, 900));
+        assertFalse(store.compareAndSetBalance(1, version, 800));
+        assertEquals(900, store.getBalance(1));
+    }
+
+    @Test
+    void testOverflowLeavesBalanceUnchanged() {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, Long.MAX_VALUE);
+
+        assertThrows(ArithmeticException.class, () -> store.add(1, 1));
+        assertEquals(Long.MAX_VALUE, store.getBalance(1));
+        assertEquals(1, store.getVersion(1));
+    }
+
+    @Test
+    void testConcurrentAddsAreNotLost() throws InterruptedException {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, 0);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10_000; i++) store.add(1, 1);
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) thread.join();
+
+        assertEquals(80_000, store.getBalance(1));
+        assertEquals(80_001, store.getVersion(1));
+    }
+
+    @Test
+    void testWriteAndReadBack() throws IOException {
+        AccountStore store = new AccountStore();
+        for (int id = 1; id <= 10_000; id += 3) {
+            store.create(id, id % 17, id * 100L);
+        }
+        store.setBalance(4, -250);
+        Path file = directory.resolve("accounts.bin");
+
+        store.writeTo(file);
+        AccountStore read = AccountStore.readFrom(file);
+
+        assertEquals(store.size(), read.size());
+        assertEquals(store.getMaxId(), read.getMaxId());
+        assertFalse(read.contains(2));
+        assertEquals(-250, read.getBalance(4));
+        assertEquals(2, read.getVersion(4));
+        assertEquals(9_997 * 100L, read.getBalance(9_997));
+        assertEquals(9_997 % 17, read.getOwnerId(9_997));
+        assertTrue(read.create(2, 1, 0));
+    }
+
+    @Test
+    void testInterestStateIsStoredAndWritten() throws IOException {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, 1000);
+        long version = store.getVersion(1);
+
+        assertTrue(store.compareAndSetState(1, version, 1050, 0.05, 1_700_000_000_000L));
+        assertFalse(store.compareAndSetState(1, version, 1100, 0.1, 0));
+        Path file = directory.resolve("accounts.bin");
+        store.writeTo(file);
+        AccountStore read = AccountStore.readFrom(file);
+
+        assertEquals(1050, read.getBalance(1));
+        assertEquals(0.05, read.getInterestRate(1));
+        assertEquals(1_700_000_000_000L, read.getLastAccrual(1));
+        assertEquals(version + 1, read.getVersion(1));
+    }
+
+    @Test
+    void testCorruptedFileIsRejected() throws IOException {
+        AccountStore store = new AccountStore();
+        store.create(1, 1, 1000);
+        Path file = directory.resolve("accounts.bin");
+        store.writeTo(file);
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            raf.seek(100);
+            raf.writeLong(42);
+        }
+
+        assertThrows(IOException.class, () -> AccountStore.readFrom(file));
+    }
+}
@@ -0,0 +1,110 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Account;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BatchingDAOTest {
+
+    @Mock
+    private DAO dao;
+
+    private BatchingDAO batchingDAO;
+
+    @BeforeEach
+    void setUp() {
+        batchingDAO = new BatchingDAO(dao, 64, 50_000);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        batchingDAO.close();
+    }
+
+    @Test
+    void testConcurrentLookupsOfSameAccount_OneQuery() throws Exception {
+        when(dao.findAccountsByIds(anyCollection())).thenAnswer(invocation -> accountsFor(invocation.getArgument(0)));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Account>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 8; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return batchingDAO.findAccountById(1);
+                }));
+            }
+            start.countDown();
+            List<Account> accounts = new ArrayList<>();
+            for (Future<Account> result : results) accounts.add(result.get());
+
+            for (Account account : accounts) assertEquals(1, account.getId());
+            assertNotSame(accounts.get(0), accounts.get(1));
+        } finally {
+            executor.shutdown();
+        }
+        verify(dao, times(1)).findAccountsByIds(anyCollection());
+        verify(dao, never()).findAccountById(anyInt());
+        assertEquals(8, batchingDAO.getAccountRequestCount());
+        assertEquals(1, batchingDAO.getAccountQueryCount());
+    }
+
+    @Test
+    void testFindAccountsByIds_OneQuery() throws SQLException {
+        when(dao.findAccountsByIds(anyCollection())).thenAnswer(invocation -> accountsFor(invocation.getArgument(0)));
+
+        Map<Integer, Account> accounts = batchingDAO.findAccountsByIds(Arrays.asList(1, 2, 2, 3));
+
+        assertEquals(3, accounts.size());
+        assertEquals(2, accounts.get(2).getId());
+        verify(dao, times(1)).findAccountsByIds(anyCollection());
+    }
+
+    @Test
+    void testFindAccountById_Missing() throws SQLException {
+        when(dao.findAccountsByIds(anyCollection())).thenReturn(new HashMap<>());
+
+        assertNull(batchingDAO.findAccountById(7));
+    }
+
+    @Test
+    void testFindAccountById_PropagatesSQLException() throws SQLException {
+        when(dao.findAccountsByIds(anyCollection())).thenThrow(new SQLException("database is locked"));
+
+        SQLException e = assertThrows(SQLException.class, () -> batchingDAO.findAccountById(1));
+        assertEquals("database is locked", e.getMessage());
+    }
+
+    private Map<Integer, Account> accountsFor(Collection<Integer> ids) {
+        Map<Integer, Account> accounts = new HashMap<>();
+        for (Integer id : ids) {
+            Account a = new Account();
+            a.setId(id);
+            a.setAmmount(100.0 * id);
+            accounts.put(id, a);
+        }
+        return accounts;
+    }
+}
@@ -0,0 +1,132 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Account;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingDAOTest {
+
+    @Mock
+    private DAO dao;
+
+    private long now;
+    private CachingDAO cachingDAO;
+    private Account account;
+
+    @BeforeEach
+    void setUp() {
+        now = 0;
+        cachingDAO = new CachingDAO(dao, new LruCache<>(2, 10, TimeUnit.SECONDS, () -> now));
+        account = accountWith(1, 1000.0);
+    }
+
+    @Test
+    void testFindAccountById_SecondReadIsHit() throws SQLException {
+        when(dao.findAccountById(1)).thenReturn(account);
+
+        Account first = cachingDAO.findAccountById(1);
+        Account second = cachingDAO.findAccountById(1);
+
+        assertEquals(1000.0, second.getAmmount());
+        assertNotSame(first, second);
+        verify(dao, times(1)).findAccountById(1);
+        assertEquals(1, cachingDAO.getAccountCacheStatistics().getHits());
+        assertEquals(1, cachingDAO.getAccountCacheStatistics().getMisses());
+    }
+
+    @Test
+    void testUpdateAccountState_WritesThrough() throws SQLException {
+        when(dao.findAccountById(1)).thenReturn(account);
+        when(dao.updateAccountState(any(Account.class))).thenReturn(true);
+
+        Account loaded = cachingDAO.findAccountById(1);
+        loaded.income(250.0);
+        assertTrue(cachingDAO.updateAccountState(loaded));
+
+        assertEquals(1250.0, cachingDAO.findAccountById(1).getAmmount());
+        verify(dao, times(1)).findAccountById(1);
+    }
+
+    @Test
+    void testUpdateInsideTransaction_DroppedOnRollback() throws SQLException {
+        when(dao.findAccountById(1)).thenAnswer(invocation -> accountWith(1, 1000.0));
+        when(dao.updateAccountState(any(Account.class))).thenReturn(true);
+        when(dao.isInTransaction()).thenReturn(true, false);
+
+        Account loaded = cachingDAO.findAccountById(1);
+        loaded.income(250.0);
+        cachingDAO.updateAccountState(loaded);
+        cachingDAO.rollbackTransaction();
+
+        assertEquals(1000.0, cachingDAO.findAccountById(1).getAmmount());
+        verify(dao, times(2)).findAccountById(1);
+    }
+
+    @Test
+    void testLeastRecentlyUsedIsEvicted() throws SQLException {
+        when(dao.findAccountById(1)).thenReturn(account);
+        when(dao.findAccountById(2)).thenReturn(accountWith(2, 10.0));
+        when(dao.findAccountById(3)).thenReturn(accountWith(3, 20.0));
+
+        cachingDAO.findAccountById(1);
+        cachingDAO.findAccountById(2);
+        cachingDAO.findAccountById(1);
+        cachingDAO.findAccountById(3);
+        cachingDAO.findAccountById(2);
+
+        verify(dao, times(2)).findAccountById(2);
+        assertEquals(2, cachingDAO.getAccountCacheStatistics().getEvictions());
+    }
+
+    @Test
+    void testEntryExpiresAfterTtl() throws SQLException {
+        when(dao.findAccountById(1)).thenReturn(account);
+
+        cachingDAO.findAccountById(1);
+        now += TimeUnit.SECONDS.toNanos(11);
+        cachingDAO.findAccountById(1);
+
+        verify(dao, times(2)).findAccountById(1);
+        assertEquals(1, cachingDAO.getAccountCacheStatistics().getExpirations());
+    }
+
+    @Test
+    void testUnknownAccountIsNotCached() throws SQLException {
+        when(dao.findAccountById(5)).thenReturn(null);
+
+        assertNull(cachingDAO.findAccountById(5));
+        assertNull(cachingDAO.findAccountById(5));
+
+        verify(dao, times(2)).findAccountById(5);
+    }
+
+    private Account accountWith(int id, double ammount) {
+        Account a = new Account();
+        a.setId(id);
+        a.setAmmount(ammount);
+        return a;
+    }
+
+    @Test
+    void testCreditInterestToAll_DropsCachedAccounts() throws SQLException {
+        when(dao.findAccountById(1)).thenReturn(account, accountWith(1, 1200.0));
+        when(dao.creditInterestToAll(null, 0.2, "Interest ...")).thenReturn(new long[]{1, 20_000});
+
+        cachingDAO.findAccountById(1);
+        cachingDAO.creditInterestToAll(null, 0.2, "Interest ...");
+
+        assertEquals(1200.0, cachingDAO.findAccountById(1).getAmmount());
+        verify(dao, times(2)).findAccountById(1);
+    }
+}
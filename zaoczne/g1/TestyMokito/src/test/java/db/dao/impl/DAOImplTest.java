@@ -0,0 +1,337 @@
+package db.dao.impl;
+
+import biz.AccountManager;
+import db.dao.DAO;
+import db.dao.DurabilityProfile;
+import db.dao.OperationQuery;
+import model.Account;
+import model.Money;
+import model.Operation;
+import model.User;
+import model.operations.OperationType;
+import model.operations.Operations;
+import model.operations.Payment;
+import model.operations.PaymentIn;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+DAOImpl on a SQLite database in a temp file, for what InMemoryDAO cannot
+show: the SQL of history queries and keyset paging.
+ */
+public class DAOImplTest {
+    private static final long HOUR = 3_600_000L;
+    /* 2024-03-10T00:00:00Z */
+    private static final long START = 1_710_028_800_000L;
+    /* several rows share each date, the millisecond ones check ordering of the ISO text */
+    private static final long[] DATES = {START + 10 * HOUR, START + 9 * HOUR, START + 10 * HOUR + 5,
+            START + 10 * HOUR + 50, START - 24 * HOUR, START + 9 * HOUR};
+    private static final OperationType[] TYPES = {OperationType.PAYMENT_IN, OperationType.WITHDRAW,
+            OperationType.INTEREST, OperationType.LOG_IN};
+    private static final int OPERATIONS = 40;
+
+    @TempDir
+    Path directory;
+
+    private String url;
+    private DAO dao;
+    private final List<Operation> logged = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        url = "jdbc:sqlite:" + directory.resolve("bank.db");
+        SQLiteDB.initializeDB(url);
+        dao = SQLiteDB.createDAO(url);
+        for (int i = 0; i < OPERATIONS; i++) {
+            OperationType type = TYPES[i % TYPES.length];
+            User user = new User();
+            user.setId(1 + i % 2);
+            Account account = null;
+            if (type != OperationType.LOG_IN) {
+                account = new Account();
+                account.setId(1 + i % 3);
+            }
+            Operation operation = Operations.create(type, user, Money.ofMinor(i * 100L + 1), "Operation " + i, account);
+            operation.setDate(new Date(DATES[i % DATES.length]));
+            dao.logOperation(operation, i % 5 != 0);
+            operation.setId(i + 1);
+            logged.add(operation);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        if (dao != null) dao.close();
+    }
+
+    @Test
+    void testPagesInDateAndIdOrderAcrossSharedDates() throws SQLException {
+        for (int pageSize : new int[]{1, 2, 3, 7, OPERATIONS, OPERATIONS + 1}) {
+            OperationQuery query = new OperationQuery();
+            query.setPageSize(pageSize);
+
+            List<Operation> found = dao.findOperations(query).collect(Collectors.toList());
+
+            assertEquals(expected(query), ids(found), "page size " + pageSize);
+        }
+    }
+
+    @Test
+    void testReadsOperationsBack() throws SQLException {
+        OperationQuery query = new OperationQuery();
+        query.setPageSize(4);
+
+        for (Operation operation : dao.findOperations(query).collect(Collectors.toList())) {
+            Operation original = logged.get(operation.getId() - 1);
+            assertEquals(original.getType(), operation.getType());
+            assertEquals(original.getDate(), operation.getDate());
+            assertEquals(original.getDescription(), operation.getDescription());
+            assertEquals(original.getUser().getId(), operation.getUser().getId());
+            assertEquals((operation.getId() - 1) % 5 != 0, operation.isSuccessful());
+            if (operation instanceof Payment) {
+                assertEquals(((Payment) original).getAmmountMinor(), ((Payment) operation).getAmmountMinor());
+                assertEquals(((Payment) original).getAccount().getId(), ((Payment) operation).getAccount().getId());
+            }
+        }
+    }
+
+    @Test
+    void testFiltersByAccountUserAndType() throws SQLException {
+        OperationQuery byAccount = new OperationQuery();
+        byAccount.setAccountId(2);
+        byAccount.setPageSize(2);
+        OperationQuery byUser = new OperationQuery();
+        byUser.setUserId(1);
+        byUser.setPageSize(3);
+        OperationQuery byTypes = new OperationQuery();
+        byTypes.setTypes(List.of(OperationType.WITHDRAW, OperationType.LOG_IN));
+        byTypes.setPageSize(2);
+        OperationQuery byRange = new OperationQuery();
+        byRange.setAccountRange(2, 3);
+        byRange.setPageSize(4);
+        OperationQuery combined = new OperationQuery();
+        combined.setAccountId(1);
+        combined.setUserId(1);
+        combined.setTypes(List.of(OperationType.PAYMENT_IN, OperationType.INTEREST));
+        combined.setPageSize(1);
+
+        for (OperationQuery query : List.of(byAccount, byUser, byTypes, byRange, combined)) {
+            List<Integer> expected = expected(query);
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, ids(dao.findOperations(query).collect(Collectors.toList())));
+        }
+        assertEquals(10, expected(byAccount).size());
+        assertEquals(20, expected(byUser).size());
+        assertEquals(20, expected(byTypes).size());
+        assertEquals(7, expected(combined).size());
+    }
+
+    @Test
+    void testFiltersByDateRange() throws SQLException {
+        OperationQuery query = new OperationQuery();
+        /* from includes 09:00, to excludes 10:00:00.050 */
+        query.setFrom(new Date(START + 9 * HOUR));
+        query.setTo(new Date(START + 10 * HOUR + 50));
+        query.setPageSize(3);
+
+        List<Operation> found = dao.findOperations(query).collect(Collectors.toList());
+
+        assertEquals(expected(query), ids(found));
+        for (Operation operation : found) {
+            assertNotEquals(START + 10 * HOUR + 50, operation.getDate().getTime());
+            assertNotEquals(START - 24 * HOUR, operation.getDate().getTime());
+        }
+        assertEquals(27, found.size());
+    }
+
+    @Test
+    void testPagesByIdAfterOperation() throws SQLException {
+        OperationQuery query = new OperationQuery();
+        query.setAfterOperationId(17);
+        query.setAccountId(3);
+        query.setPageSize(2);
+
+        List<Integer> found = ids(dao.findOperations(query).collect(Collectors.toList()));
+
+        assertEquals(expected(query), found);
+        assertEquals(found.stream().sorted().collect(Collectors.toList()), found);
+        assertTrue(found.get(0) > 17);
+    }
+
+    @Test
+    void testReplayPositionCommitsWithItsUnitOfWork() throws SQLException {
+        assertEquals(0, dao.findReplayPosition("spill"));
+
+        dao.beginTransaction();
+        dao.logOperation(logged.get(0), true);
+        assertTrue(dao.saveReplayPosition("spill", 0, 5));
+        dao.rollbackTransaction();
+        assertEquals(0, dao.findReplayPosition("spill"));
+
+        assertTrue(dao.saveReplayPosition("spill", 0, 5));
+        assertFalse(dao.saveReplayPosition("spill", 0, 7));
+        assertTrue(dao.saveReplayPosition("spill", 5, 7));
+        assertEquals(7, dao.findReplayPosition("spill"));
+        assertEquals(0, dao.findReplayPosition("other"));
+    }
+
+    @Test
+    void testLogsPaymentWithoutAccount() throws SQLException {
+        User user = new User();
+        user.setId(1);
+
+        dao.logOperation(new PaymentIn(user, Money.ofMinor(500), "Deposit", null), false);
+
+        OperationQuery query = new OperationQuery();
+        query.setAfterOperationId(OPERATIONS);
+        List<Operation> found = dao.findOperations(query).collect(Collectors.toList());
+        assertEquals(1, found.size());
+        assertNull(((Payment) found.get(0)).getAccount());
+        assertEquals(500, ((Payment) found.get(0)).getAmmountMinor());
+        assertFalse(found.get(0).isSuccessful());
+    }
+
+    @Test
+    void testPaymentInToUnknownAccountIsLoggedAsFailed() throws Exception {
+        dao.close();
+        dao = null;
+        AccountManager bank = AccountManager.buildBank(url);
+        User user = new User();
+        user.setId(1);
+
+        assertFalse(bank.paymentIn(user, 5.0, "Deposit", 999));
+
+        DAO check = SQLiteDB.createDAO(url);
+        try {
+            OperationQuery query = new OperationQuery();
+            query.setAfterOperationId(OPERATIONS);
+            List<Operation> found = check.findOperations(query).collect(Collectors.toList());
+            assertEquals(1, found.size());
+            assertEquals(OperationType.PAYMENT_IN, found.get(0).getType());
+            assertFalse(found.get(0).isSuccessful());
+        } finally {
+            check.close();
+        }
+    }
+
+    @Test
+    void testReusesPreparedStatements() throws SQLException {
+        DAOImpl impl = (DAOImpl) dao;
+        impl.findUserByName("Adam");
+        impl.findAccountById(1);
+        int prepared = impl.getPreparedStatementCount();
+        assertTrue(prepared > 0);
+
+        for (int i = 0; i < 10; i++) {
+            impl.findUserByName("Adam " + i);
+            impl.findAccountById(i);
+        }
+
+        assertEquals(prepared, impl.getPreparedStatementCount());
+        StatementCache cache = new StatementCache(impl.db);
+        assertSame(cache.prepare("SELECT 1"), cache.prepare("SELECT 1"));
+        cache.close();
+    }
+
+    @Test
+    void testPooledReadsGoThroughTheReaders() throws Exception {
+        DAOImpl pooled = (DAOImpl) SQLiteDB.createPooledDAO(url, 2, DurabilityProfile.BALANCED);
+        try {
+            OperationQuery query = new OperationQuery();
+            query.setPageSize(7);
+
+            assertEquals(expected(query), ids(pooled.findOperations(query).collect(Collectors.toList())));
+            assertNull(pooled.findAccountById(1));
+
+            assertEquals(2, pooled.getPoolStatistics().getSize());
+            assertEquals(2, pooled.getConcurrentReaders());
+            assertEquals(1, dao.getConcurrentReaders());
+            assertEquals(0, pooled.getPoolStatistics().getInUse());
+            assertTrue(pooled.getPoolStatistics().getAcquisitions() >= 2);
+        } finally {
+            pooled.close();
+        }
+    }
+
+    @Test
+    void testPooledReadTimesOutWhenEveryReaderIsBusy() throws Exception {
+        DAOImpl pooled = (DAOImpl) SQLiteDB.createPooledDAO(url, 1, DurabilityProfile.STRICT, 50);
+        StatementCache busy = pooled.readers.acquire();
+        try {
+            assertThrows(SQLTimeoutException.class, () -> pooled.findUserByName("Adam"));
+        } finally {
+            pooled.readers.release(busy);
+        }
+        assertNull(pooled.findUserByName("Adam"));
+        pooled.close();
+    }
+
+    @Test
+    void testAppliesPragmasOfEachProfile() throws Exception {
+        /* synchronous and temp_store are reported as numbers */
+        String[][] expected = {
+                {"delete", "2", "-2000", "0", "0"},
+                {"wal", "1", "-16000", "268435456", "2"},
+                {"memory", "0", "-64000", "268435456", "2"}};
+        for (DurabilityProfile profile : DurabilityProfile.values()) {
+            DAOImpl profiled = (DAOImpl) SQLiteDB.createDAO(
+                    "jdbc:sqlite:" + directory.resolve(profile.name() + ".db"), profile);
+            try {
+                assertEquals(profile, profiled.getDurabilityProfile());
+                assertArrayEquals(expected[profile.ordinal()], new String[]{
+                        pragma(profiled.db, "journal_mode"), pragma(profiled.db, "synchronous"),
+                        pragma(profiled.db, "cache_size"), pragma(profiled.db, "mmap_size"),
+                        pragma(profiled.db, "temp_store")}, profile.name());
+            } finally {
+                profiled.close();
+            }
+        }
+    }
+
+    private static String pragma(Connection conn, String name) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("PRAGMA " + name)) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    /*
+    Ids the query should return, filtered with the in-memory rules of
+    OperationQuery.matches and ordered as the DAO documents.
+     */
+    private List<Integer> expected(OperationQuery query) {
+        Comparator<Operation> order = query.getAfterOperationId() != null
+                ? Comparator.comparingInt(Operation::getId)
+                : Comparator.comparing(Operation::getDate).thenComparingInt(Operation::getId);
+        return logged.stream()
+                .filter(operation -> query.matches(operation.getId(), accountOf(operation),
+                        operation.getUser().getId(), operation.getType(), operation.getDate()))
+                .sorted(order)
+                .map(Operation::getId)
+                .collect(Collectors.toList());
+    }
+
+    private static Integer accountOf(Operation operation) {
+        return operation instanceof Payment ? ((Payment) operation).getAccount().getId() : null;
+    }
+
+    private static List<Integer> ids(List<Operation> operations) {
+        return operations.stream().map(Operation::getId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,192 @@
+package db.dao.impl;
+
+import db.dao.ConcurrentUpdateException;
+import db.dao.OperationQuery;
+import model.Account;
+import model.InterestCheckpoint;
+import model.Operation;
+import model.Role;
+import model.User;
+import model.operations.LogIn;
+import model.operations.OperationType;
+import model.operations.PaymentIn;
+import model.operations.Withdraw;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class InMemoryDAOTest {
+
+    private InMemoryDAO dao;
+    private User user;
+    private Account account;
+
+    @BeforeEach
+    void setUp() {
+        dao = new InMemoryDAO();
+        Role role = new Role();
+        role.setId(1);
+        role.setName("Klient");
+        user = dao.createUser("Adam", role);
+        dao.setPassword(user, "secret");
+        account = dao.createAccount(user, 1000.0);
+    }
+
+    @Test
+    void testFindAccountById_UnknownReturnsNull() throws SQLException {
+        assertNull(dao.findAccountById(42));
+        assertNull(dao.findUserByName("Nobody"));
+    }
+
+    @Test
+    void testFindAccountById_ReturnsCopy() throws SQLException {
+        Account loaded = dao.findAccountById(account.getId());
+        loaded.income(500.0);
+
+        assertEquals(1000.0, dao.findAccountById(account.getId()).getAmmount());
+        assertTrue(dao.updateAccountState(loaded));
+        assertEquals(1500.0, dao.findAccountById(account.getId()).getAmmount());
+        assertEquals("Adam", loaded.getOwner().getName());
+    }
+
+    @Test
+    void testSetUserPassword_RequiresOldPassword() throws SQLException {
+        assertFalse(dao.setUserPassword(user, "new", "wrong"));
+        assertTrue(dao.setUserPassword(user, "new", "secret"));
+        assertEquals("new", dao.findPasswordForUser(user).getPasswd());
+    }
+
+    @Test
+    void testRollbackDiscardsWrites() throws SQLException {
+        Account loaded = dao.findAccountById(account.getId());
+        loaded.income(1.0);
+
+        dao.beginTransaction();
+        dao.updateAccountState(loaded);
+        dao.logOperation(new PaymentIn(user, 1.0, "Deposit", loaded), true);
+        dao.rollbackTransaction();
+
+        assertEquals(1000.0, dao.findAccountById(account.getId()).getAmmount());
+        assertEquals(0, dao.getOperationCount());
+        assertFalse(dao.isInTransaction());
+    }
+
+    @Test
+    void testCommitAppliesWrites() throws SQLException {
+        Account loaded = dao.findAccountById(account.getId());
+        loaded.income(1.0);
+
+        dao.beginTransaction();
+        dao.updateAccountState(loaded);
+        dao.logOperation(new PaymentIn(user, 1.0, "Deposit", loaded), true);
+        dao.commitTransaction();
+
+        assertEquals(1001.0, dao.findAccountById(account.getId()).getAmmount());
+        assertEquals(1, dao.getOperations().size());
+        assertTrue(dao.getOperations().get(0).isSuccess());
+    }
+
+    @Test
+    void testStaleUpdateIsRejected() throws SQLException {
+        Account first = dao.findAccountById(account.getId());
+        Account second = dao.findAccountById(account.getId());
+        first.income(10.0);
+        second.income(20.0);
+
+        assertTrue(dao.updateAccountState(first));
+        assertThrows(ConcurrentUpdateException.class, () -> dao.updateAccountState(second));
+        assertEquals(1010.0, dao.findAccountById(account.getId()).getAmmount());
+
+        first.income(5.0);
+        assertTrue(dao.updateAccountState(first));
+        assertEquals(1015.0, dao.findAccountById(account.getId()).getAmmount());
+    }
+
+    @Test
+    void testConflictIsDetectedOnCommit() throws Exception {
+        Account inside = dao.findAccountById(account.getId());
+        Account outside = dao.findAccountById(account.getId());
+        inside.income(1.0);
+        outside.income(2.0);
+
+        dao.beginTransaction();
+        assertTrue(dao.updateAccountState(inside));
+        ExecutorService other = Executors.newSingleThreadExecutor();
+        try {
+            assertTrue(other.submit(() -> dao.updateAccountState(outside)).get());
+        } finally {
+            other.shutdown();
+        }
+        assertThrows(ConcurrentUpdateException.class, () -> dao.commitTransaction());
+
+        assertFalse(dao.isInTransaction());
+        assertEquals(1002.0, dao.findAccountById(account.getId()).getAmmount());
+    }
+
+    @Test
+    void testConcurrentLogging() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    dao.logOperation(new PaymentIn(user, 1.0, "Deposit", account), true);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> f : futures) f.get();
+        executor.shutdown();
+
+        assertEquals(4000, dao.getOperations().size());
+    }
+
+    @Test
+    void testFindOperations_FiltersByAccountAndType() throws SQLException {
+        dao.logOperation(new LogIn(user, "Logowanie "), true);
+        dao.logOperation(new PaymentIn(user, 100.0, "Deposit", account), true);
+        dao.logOperation(new Withdraw(user, 40.0, "Withdraw", account), false);
+
+        OperationQuery query = new OperationQuery();
+        query.setAccountId(account.getId());
+        query.setTypes(Collections.singletonList(OperationType.WITHDRAW));
+        List<Operation> found = dao.findOperations(query).collect(Collectors.toList());
+
+        assertEquals(1, found.size());
+        assertEquals(OperationType.WITHDRAW, found.get(0).getType());
+        assertEquals(40.0, ((Withdraw) found.get(0)).getAmmount());
+        assertFalse(found.get(0).isSuccessful());
+        assertEquals(3, dao.findOperations(new OperationQuery()).count());
+    }
+
+
+    @Test
+    void testInterestCheckpointMovesOnlyFromExpectedPosition() throws SQLException {
+        InterestCheckpoint checkpoint = new InterestCheckpoint();
+        checkpoint.setRunId("2024-06");
+        checkpoint.setToAccountId(10);
+        assertTrue(dao.saveInterestCheckpoint(checkpoint, null));
+        assertFalse(dao.saveInterestCheckpoint(checkpoint, null));
+
+        checkpoint.setLastAccountId(5);
+        assertTrue(dao.saveInterestCheckpoint(checkpoint, 0));
+        assertFalse(dao.saveInterestCheckpoint(checkpoint, 0));
+
+        dao.beginTransaction();
+        checkpoint.setLastAccountId(10);
+        assertTrue(dao.saveInterestCheckpoint(checkpoint, 0));
+        assertThrows(SQLException.class, () -> dao.commitTransaction());
+        assertEquals(5, dao.findInterestCheckpoint("2024-06").getLastAccountId());
+        assertNull(dao.findInterestCheckpoint("2024-07"));
+    }
+}
@@ -0,0 +1,186 @@
+package db.dao.impl;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/*
+Runs the migrations on a copy of the bank database as it was before
+schema_version existed: REAL/NUMERIC ammounts, Date.toString() dates and
+NOT NULL Operation.user_id and type.
+ */
+public class SchemaMigrationsTest {
+
+    @TempDir
+    Path directory;
+
+    private Connection conn;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path copy = directory.resolve("bank.db");
+        try (InputStream in = getClass().getResourceAsStream("/legacy-bank.db")) {
+            Files.copy(in, copy);
+        }
+        conn = DriverManager.getConnection("jdbc:sqlite:" + copy);
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Account (id, owner_id, ammount) VALUES " +
+                    "(3, 3, NULL), (4, 4, 0.29), (5, 1, -7.5)");
+            st.executeUpdate("INSERT INTO Operation (id, type, ammount, description, date, user_id, account_id) VALUES " +
+                    "(8, 2, 100.1, 'Deposit', 'Mon Apr 02 09:05:00 CEST 2018', 2, 2), " +
+                    "(9, 3, 0.07, 'Withdraw', 'not a date', 2, 2)");
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        conn.close();
+    }
+
+    @Test
+    void testMigratesLegacyDatabaseToLatestVersion() throws SQLException {
+        assertEquals(0, SchemaMigrations.currentVersion(conn));
+
+        assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.migrate(conn));
+
+        assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.currentVersion(conn));
+        assertEquals(SchemaMigrations.latestVersion(), count("SELECT COUNT(*) FROM schema_version"));
+    }
+
+    @Test
+    void testConvertsOperationDatesToIso() throws SQLException {
+        SchemaMigrations.migrate(conn);
+
+        assertEquals("2018-03-11T21:18:12.000Z", text("SELECT date FROM Operation WHERE id = 1"));
+        assertEquals("2018-03-11T21:34:07.000Z", text("SELECT date FROM Operation WHERE id = 7"));
+        assertEquals("2018-04-02T07:05:00.000Z", text("SELECT date FROM Operation WHERE id = 8"));
+        assertEquals("not a date", text("SELECT date FROM Operation WHERE id = 9"));
+    }
+
+    @Test
+    void testConvertsAmmountsToMinorUnits() throws SQLException {
+        SchemaMigrations.migrate(conn);
+
+        assertEquals("INTEGER", columnType("Account", "ammount"));
+        assertEquals("INTEGER", columnType("Operation", "ammount"));
+        assertEquals(List.of("1:134512", "2:1143385", "3:null", "4:29", "5:-750"),
+                rows("SELECT id, ammount FROM Account ORDER BY id"));
+        assertEquals(List.of("1:null", "7:null", "8:10010", "9:7"),
+                rows("SELECT id, ammount FROM Operation WHERE id IN (1, 7, 8, 9) ORDER BY id"));
+        assertEquals("integer", text("SELECT typeof(ammount) FROM Account WHERE id = 4"));
+        assertEquals(9, count("SELECT COUNT(*) FROM Operation"));
+        assertEquals(5, count("SELECT COUNT(*) FROM History"));
+        assertEquals("Logowanie ", text("SELECT description FROM Operation WHERE id = 1"));
+        assertEquals("LOG_OUT", text("SELECT type FROM Operation WHERE id = 7"));
+        assertEquals(9, count("SELECT seq FROM sqlite_sequence WHERE name = 'Operation'"));
+    }
+
+    @Test
+    void testRebuiltOperationTableAcceptsOperationsWithoutUser() throws SQLException {
+        assertTrue(isNotNull("Operation", "user_id"));
+
+        SchemaMigrations.migrate(conn);
+
+        /* the rebuilt table has the schema of a new database, where user_id and type may be null */
+        assertFalse(isNotNull("Operation", "user_id"));
+        assertFalse(isNotNull("Operation", "type"));
+        assertTrue(isNotNull("Operation", "description"));
+        try (Statement st = conn.createStatement()) {
+            st.executeUpdate("INSERT INTO Operation (ammount, description, date, user_id, account_id, type) " +
+                    "VALUES (100, 'Interest', '2024-01-01T00:00:00.000Z', NULL, 1, 5)");
+        }
+        assertEquals(10, count("SELECT MAX(id) FROM Operation"));
+    }
+
+    @Test
+    void testCreatesLookupIndices() throws SQLException {
+        SchemaMigrations.migrate(conn);
+
+        Set<String> indices = new HashSet<>(rows("SELECT name FROM sqlite_master WHERE type = 'index' " +
+                "AND name LIKE 'idx_%'"));
+        assertEquals(Set.of("idx_account_owner", "idx_password_user", "idx_operation_account_date",
+                "idx_history_operation", "idx_operation_date", "idx_operation_user_date"), indices);
+        assertEquals("Account", text("SELECT tbl_name FROM sqlite_master WHERE name = 'idx_account_owner'"));
+        assertEquals("Operation", text("SELECT tbl_name FROM sqlite_master WHERE name = 'idx_operation_user_date'"));
+    }
+
+    @Test
+    void testMigrateTwiceChangesNothing() throws SQLException {
+        SchemaMigrations.migrate(conn);
+        List<String> accounts = rows("SELECT id, ammount, version, interest_rate, last_accrual FROM Account ORDER BY id");
+        List<String> operations = rows("SELECT id, ammount, date FROM Operation ORDER BY id");
+
+        assertEquals(SchemaMigrations.latestVersion(), SchemaMigrations.migrate(conn));
+
+        assertEquals(accounts, rows("SELECT id, ammount, version, interest_rate, last_accrual FROM Account ORDER BY id"));
+        assertEquals(operations, rows("SELECT id, ammount, date FROM Operation ORDER BY id"));
+        assertEquals(SchemaMigrations.latestVersion(), count("SELECT COUNT(*) FROM schema_version"));
+    }
+
+    private long count(String sql) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getLong(1);
+        }
+    }
+
+    private String text(String sql) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            assertTrue(rs.next());
+            return rs.getString(1);
+        }
+    }
+
+    /*
+    Each row as its columns joined with ':'.
+     */
+    private List<String> rows(String sql) throws SQLException {
+        List<String> rows = new ArrayList<>();
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery(sql)) {
+            int columns = rs.getMetaData().getColumnCount();
+            while (rs.next()) {
+                StringBuilder row = new StringBuilder();
+                for (int i = 1; i <= columns; i++) {
+                    if (i > 1) row.append(':');
+                    row.append(rs.getString(i));
+                }
+                rows.add(row.toString());
+            }
+        }
+        return rows;
+    }
+
+    private String columnType(String table, String column) throws SQLException {
+        return columnInfo(table, column, "type");
+    }
+
+    private boolean isNotNull(String table, String column) throws SQLException {
+        return "1".equals(columnInfo(table, column, "notnull"));
+    }
+
+    private String columnInfo(String table, String column, String field) throws SQLException {
+        try (Statement st = conn.createStatement(); ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) return rs.getString(field);
+            }
+        }
+        fail("No column " + table + "." + column);
+        return null;
+    }
+}
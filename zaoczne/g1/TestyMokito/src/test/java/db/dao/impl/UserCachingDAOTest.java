@@ -0,0 +1,89 @@
+package db.dao.impl;
+
+import db.dao.DAO;
+import model.Role;
+import model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class UserCachingDAOTest {
+
+    @Mock
+    private DAO dao;
+
+    private UserCachingDAO cachingDAO;
+
+    @BeforeEach
+    void setUp() {
+        cachingDAO = new UserCachingDAO(dao, 100, 60, 60, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testFindUserByName_CachedByNameAndId() throws SQLException {
+        when(dao.findUserByName("InterestOperator")).thenAnswer(invocation -> userWith(4, "InterestOperator", 2, "Administrator"));
+
+        User first = cachingDAO.findUserByName("InterestOperator");
+        User second = cachingDAO.findUserByName("InterestOperator");
+        User byId = cachingDAO.findUserById(4);
+
+        assertEquals(4, second.getId());
+        assertEquals("InterestOperator", byId.getName());
+        assertNotSame(first, second);
+        verify(dao, times(1)).findUserByName("InterestOperator");
+        verify(dao, never()).findUserById(anyInt());
+    }
+
+    @Test
+    void testUsersShareReadOnlyRole() throws SQLException {
+        when(dao.findUserByName("Adam")).thenReturn(userWith(1, "Adam", 1, "Klient"));
+        when(dao.findUserByName("Ewa")).thenReturn(userWith(2, "Ewa", 1, "Klient"));
+
+        Role adamRole = cachingDAO.findUserByName("Adam").getRole();
+        Role ewaRole = cachingDAO.findUserByName("Ewa").getRole();
+
+        assertSame(adamRole, ewaRole);
+        assertThrows(UnsupportedOperationException.class, () -> adamRole.setName("Admin"));
+    }
+
+    @Test
+    void testUnknownNameIsCachedNegatively() throws SQLException {
+        when(dao.findUserByName("Mallory")).thenReturn(null);
+
+        assertNull(cachingDAO.findUserByName("Mallory"));
+        assertNull(cachingDAO.findUserByName("Mallory"));
+
+        verify(dao, times(1)).findUserByName("Mallory");
+        assertEquals(1, cachingDAO.getUnknownNameCacheStatistics().getHits());
+    }
+
+    @Test
+    void testInvalidateUnknownName() throws SQLException {
+        when(dao.findUserByName("Nowy")).thenReturn(null, userWith(7, "Nowy", 1, "Klient"));
+
+        assertNull(cachingDAO.findUserByName("Nowy"));
+        cachingDAO.invalidateUnknownName("Nowy");
+
+        assertEquals(7, cachingDAO.findUserByName("Nowy").getId());
+    }
+
+    private User userWith(int id, String name, int roleId, String roleName) {
+        Role role = new Role();
+        role.setId(roleId);
+        role.setName(roleName);
+        User user = new User();
+        user.setId(id);
+        user.setName(name);
+        user.setRole(role);
+        return user;
+    }
+}
@@ -0,0 +1,214 @@
+package db.journal;
+
+import model.Account;
+import model.Money;
+import model.User;
+import model.operations.LogIn;
+import model.operations.OperationType;
+import model.operations.PaymentIn;
+import model.operations.Withdraw;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class OperationJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private User user;
+    private Account account;
+
+    @BeforeEach
+    void setUp() {
+        user = new User();
+        user.setId(7);
+        account = new Account();
+        account.setId(3);
+        account.setOwner(user);
+    }
+
+    @Test
+    void testAppendAndScan() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 16, 1024);
+        assertEquals(0, journal.append(new PaymentIn(user, 250.5, "Wpłata", account), true));
+        assertEquals(1, journal.append(new LogIn(null, "Bad password"), false));
+
+        List<JournalEntry> entries = scanAll(journal.scan());
+
+        assertEquals(2, entries.size());
+        JournalEntry payment = entries.get(0);
+        assertEquals(OperationType.PAYMENT_IN, payment.getType());
+        assertEquals(7, payment.getUserId());
+        assertEquals(3, payment.getAccountId());
+        assertEquals(250.5, payment.getAmmount());
+        assertEquals(25050, payment.getAmmountMinor());
+        assertEquals("Wpłata", payment.getDescription());
+        assertTrue(payment.isSuccess());
+        JournalEntry logIn = entries.get(1);
+        assertNull(logIn.getUserId());
+        assertNull(logIn.getAccountId());
+        assertFalse(logIn.isSuccess());
+        assertEquals(OperationType.LOG_IN, logIn.toOperation().getType());
+        journal.close();
+    }
+
+    @Test
+    void testRollsSegments() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 4, 1024);
+        for (int i = 0; i < 10; i++) {
+            journal.append(new Withdraw(user, i, "Withdraw " + i, account), true);
+        }
+
+        assertEquals(3, journal.getSegmentCount());
+        List<JournalEntry> entries = scanAll(journal.scan(5));
+        assertEquals(5, entries.size());
+        assertEquals(5, entries.get(0).getSequence());
+        assertEquals("Withdraw 9", entries.get(4).getDescription());
+        journal.close();
+    }
+
+    @Test
+    void testReopenContinuesAfterLastRecord() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 4, 1024);
+        for (int i = 0; i < 6; i++) {
+            journal.append(new PaymentIn(user, i, "Deposit", account), true);
+        }
+        journal.close();
+
+        OperationJournal reopened = new OperationJournal(directory, 4, 1024);
+        assertEquals(6, reopened.getNextSequence());
+        assertEquals(6, reopened.append(new PaymentIn(user, 6, "Deposit", account), true));
+        assertEquals(7, scanAll(reopened.scan()).size());
+        reopened.close();
+    }
+
+    @Test
+    void testScanDetectsCorruptedRecord() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 4, 1024);
+        for (int i = 0; i < 6; i++) {
+            journal.append(new PaymentIn(user, i, "Deposit", account), true);
+        }
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(
+                directory.resolve(JournalSegment.fileName(0, JournalSegment.RECORDS)).toFile(), "rw")) {
+            file.seek(JournalSegment.RECORD_SIZE + 16);
+            file.writeLong(100_000_000L);
+        }
+
+        OperationJournal reopened = new OperationJournal(directory, 4, 1024);
+        Iterator<JournalEntry> scan = reopened.scan();
+        assertEquals(0, scan.next().getSequence());
+        JournalCorruptedException e = assertThrows(JournalCorruptedException.class, scan::next);
+        assertEquals(1, e.getSequence());
+        reopened.close();
+    }
+
+    @Test
+    void testRecoveryDropsRecordsBehindTornOne() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 16, 1024);
+        for (int i = 0; i < 6; i++) {
+            journal.append(new PaymentIn(user, i, "Deposit " + i, account), true);
+        }
+        journal.close();
+        try (RandomAccessFile file = new RandomAccessFile(
+                directory.resolve(JournalSegment.fileName(0, JournalSegment.RECORDS)).toFile(), "rw")) {
+            file.seek(2 * JournalSegment.RECORD_SIZE);
+            file.writeInt(0xBAD);
+        }
+
+        OperationJournal recovered = new OperationJournal(directory, 16, 1024);
+        assertEquals(2, recovered.getNextSequence());
+        /* a crash right after rewriting slot 2 must not bring back the old records 3 to 5,
+           whose descriptions the new one (of the same length) leaves intact */
+        recovered.append(new Withdraw(user, 1, "Withdraw!", account), true);
+        recovered.close();
+
+        OperationJournal reopened = new OperationJournal(directory, 16, 1024);
+        assertEquals(3, reopened.getNextSequence());
+        List<JournalEntry> entries = scanAll(reopened.scan());
+        assertEquals(3, entries.size());
+        assertEquals("Withdraw!", entries.get(2).getDescription());
+        reopened.close();
+    }
+
+    @Test
+    void testScansShareSealedSegmentMappings() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 4, 1024);
+        for (int i = 0; i < 10; i++) {
+            journal.append(new Withdraw(user, i, "Withdraw " + i, account), true);
+        }
+        journal.close();
+
+        OperationJournal reopened = new OperationJournal(directory, 4, 1024);
+        assertEquals(0, reopened.getMappedSegmentCount());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(10, scanAll(reopened.scan()).size());
+            assertEquals(2, reopened.getMappedSegmentCount());
+        }
+        for (int i = 10; i < 14; i++) {
+            reopened.append(new Withdraw(user, i, "Withdraw " + i, account), true);
+        }
+        assertEquals(14, scanAll(reopened.scan(3)).size() + 3);
+        /* the segment sealed by the roll is reused as it was, not mapped again */
+        assertEquals(3, reopened.getMappedSegmentCount());
+        reopened.close();
+    }
+
+    @Test
+    void testKeepsAmmountsAsExactMinorUnits() throws IOException {
+        long[] ammounts = {1, 29, -750, 10010, 9_007_199_254_740_993L};
+        OperationJournal journal = new OperationJournal(directory, 16, 1024);
+        for (long ammount : ammounts) {
+            journal.append(new PaymentIn(user, Money.ofMinor(ammount), "Deposit", account), true);
+        }
+
+        List<JournalEntry> entries = scanAll(journal.scan());
+
+        for (int i = 0; i < ammounts.length; i++) {
+            assertEquals(ammounts[i], entries.get(i).getAmmountMinor());
+            assertEquals(ammounts[i], ((PaymentIn) entries.get(i).toOperation()).getAmmountMinor());
+        }
+        journal.close();
+    }
+
+    @Test
+    void testRefusesSegmentOfOlderFormat() throws IOException {
+        OperationJournal journal = new OperationJournal(directory, 16, 1024);
+        journal.append(new PaymentIn(user, 250.5, "Wpłata", account), true);
+        journal.close();
+        /* a format 0 record: a double ammount, a zero format byte and a CRC valid for both */
+        Path records = directory.resolve(JournalSegment.fileName(0, JournalSegment.RECORDS));
+        byte[] bytes = Files.readAllBytes(records);
+        ByteBuffer record = ByteBuffer.wrap(bytes, 0, JournalSegment.RECORD_SIZE);
+        record.put(7, (byte) 0);
+        record.putDouble(16, 250.5);
+        byte[] description = Files.readAllBytes(directory.resolve(JournalSegment.fileName(0, JournalSegment.DESCRIPTIONS)));
+        CRC32C crc = new CRC32C();
+        crc.update(bytes, 4, JournalSegment.RECORD_SIZE - 4);
+        crc.update(description, record.getInt(32), record.getInt(36));
+        record.putInt(0, (int) crc.getValue());
+        Files.write(records, bytes);
+
+        IOException e = assertThrows(IOException.class, () -> new OperationJournal(directory, 16, 1024));
+        assertTrue(e.getMessage().contains("record format 0"));
+    }
+
+    private List<JournalEntry> scanAll(Iterator<JournalEntry> scan) {
+        List<JournalEntry> entries = new ArrayList<>();
+        while (scan.hasNext()) entries.add(scan.next());
+        return entries;
+    }
+}
@@ -0,0 +1,90 @@
+package model;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MoneyTest {
+
+    @Test
+    void testToMinorRoundsTheWrittenDecimal() {
+        assertEquals(15820, Money.toMinor(158.2));
+        assertEquals(29, Money.toMinor(0.285));
+        assertEquals(-29, Money.toMinor(-0.285));
+        assertEquals(1, Money.toMinor(0.005));
+        assertEquals(0, Money.toMinor(0.004));
+    }
+
+    @Test
+    void testToMinorRejectsNonFiniteAmmounts() {
+        assertThrows(IllegalArgumentException.class, () -> Money.toMinor(Double.NaN));
+        assertThrows(IllegalArgumentException.class, () -> Money.toMinor(Double.POSITIVE_INFINITY));
+        assertThrows(ArithmeticException.class, () -> Money.toMinor(1e18));
+    }
+
+    @Test
+    void testRepeatedIncomeDoesNotDrift() {
+        Account account = new Account();
+        for (int i = 0; i < 10; i++) {
+            account.income(0.1);
+        }
+        assertEquals(1.0, account.getAmmount());
+        assertEquals(100, account.getAmmountMinor());
+    }
+
+    @Test
+    void testTransferLeavesExactBalances() {
+        Account source = new Account();
+        source.setAmmount(200);
+        Account dest = new Account();
+        dest.setAmmount(100);
+
+        assertTrue(source.outcome(158.2));
+        assertTrue(dest.income(158.2));
+
+        assertEquals(41.8, source.getAmmount());
+        assertEquals(258.2, dest.getAmmount());
+        assertFalse(source.outcome(41.81));
+    }
+
+    @Test
+    void testMultiplyRoundsHalfAwayFromZero() {
+        assertEquals(20000, Money.multiply(100000, 0.2));
+        assertEquals(503, Money.multiply(1005, 0.5));
+        assertEquals(-503, Money.multiply(-1005, 0.5));
+        assertEquals(502, Money.multiply(1004, 0.5));
+    }
+
+    @Test
+    void testMultiplyRoundsTheExactProduct() {
+        /* the largest double below 0.5, adding 0.5 to it rounds up to 1.0 */
+        assertEquals(0, Money.multiply(1, 0.49999999999999994));
+        assertEquals(0, Money.multiply(-1, 0.49999999999999994));
+        assertEquals(1, Money.multiply(3, 0.49999999999999994));
+        assertEquals(-3, Money.multiply(-5, 0.5));
+        assertEquals(-2, Money.multiply(-3, 0.5));
+        assertEquals(0, Money.multiply(-1, 0.4));
+        /* past 2^52 every double is a whole or half number, adding 0.5 would round again */
+        assertEquals(4503599627370497L, Money.multiply(4503599627370497L, 1.0));
+        assertEquals(-4503599627370497L, Money.multiply(-4503599627370497L, 1.0));
+        assertThrows(ArithmeticException.class, () -> Money.multiply(1, Double.NaN));
+        assertThrows(ArithmeticException.class, () -> Money.multiply(Long.MAX_VALUE, 2.0));
+    }
+
+    @Test
+    void testAdditionOverflowIsReported() {
+        assertThrows(ArithmeticException.class, () -> Money.add(Long.MAX_VALUE, 1));
+    }
+
+    @Test
+    void testValueSemantics() {
+        Money a = Money.of(12.3);
+        assertEquals(Money.ofMinor(1230), a);
+        assertEquals("12.30", a.toString());
+        assertEquals("-0.05", Money.ofMinor(-5).toString());
+        assertEquals(Money.of(20.3), a.plus(Money.of(8)));
+        assertEquals(Money.of(4.3), a.minus(Money.of(8)));
+        assertTrue(a.compareTo(Money.ZERO) > 0);
+        assertTrue(Money.ofMinor(-1).isNegative());
+    }
+}